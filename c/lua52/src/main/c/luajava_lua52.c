@@ -30,11 +30,11 @@
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _rawlen
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;I)I
+ * Signature: (JI)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawlen(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return 0;
     return (jint) lua_rawlen(L, idx);
 }
@@ -42,11 +42,11 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawlen(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _compare
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;III)I
+ * Signature: (JIII)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1compare(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx1, jint idx2, jint op) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx1, jint idx2, jint op) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return 0;
     return (jint) lua_compare(L, idx1, idx2, op);
 }
@@ -54,13 +54,13 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1compare(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _arith
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;I)V
+ * Signature: (JI)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1arith(JNIEnv *env,
                                                                                                                                              jobject jobj,
-                                                                                                                                             jobject cptr,
+                                                                                                                                             jlong peer,
                                                                                                                                              jint op) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     lua_arith(L, op);
 }
@@ -68,13 +68,13 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1arith(JNIEnv *env
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _len
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;I)V
+ * Signature: (JI)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1len(JNIEnv *env,
                                                                                                                                          jobject jobj,
-                                                                                                                                         jobject cptr,
+                                                                                                                                         jlong peer,
                                                                                                                                          jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     lua_len(L, idx);
 }
@@ -84,13 +84,13 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1len(JNIEnv *env,
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _resume
  * Signature:
- * (Lorg/eu/smileyik/luajava/CPtr;Lorg/eu/smileyik/luajava/CPtr;I)I
+ * (JJI)I
  */
 JNIEXPORT jint JNICALL
-Java_org_eu_smileyik_luajava_LuaState__1resume__Lorg_eu_smileyik_luajava_CPtr_2Lorg_eu_smileyik_luajava_CPtr_2I(
-        JNIEnv * env, jobject jobj, jobject cptr, jobject threadCptr, jint nargs) {
-    lua_State *L = getStateFromCPtr(env, cptr);
-    lua_State *T = getStateFromCPtr(env, threadCptr);
+Java_org_eu_smileyik_luajava_LuaState__1resume__JJI(
+        JNIEnv * env, jobject jobj, jlong peer, jlong threadCptr, jint nargs) {
+    lua_State *L = getStateFromPeer(env, peer);
+    lua_State *T = getStateFromPeer(env, threadCptr);
     if (!L || !T) return 0;
     
     return lua_resume(L, T, nargs);
@@ -101,12 +101,12 @@ Java_org_eu_smileyik_luajava_LuaState__1resume__Lorg_eu_smileyik_luajava_CPtr_2L
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _pushthread
  * Signature:
- * (Lorg/eu/smileyik/luajava/CPtr;Lorg/eu/smileyik/luajava/CPtr;)I
+ * (JJ)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushthread(
-        JNIEnv *env, jobject jobj, jobject cptr, jobject threadCptr) {
-    // lua_State *L = getStateFromCPtr(env, cptr);
-    lua_State *T = getStateFromCPtr(env, threadCptr);
+        JNIEnv *env, jobject jobj, jlong peer, jlong threadCptr) {
+    // lua_State *L = getStateFromPeer(env, peer);
+    lua_State *T = getStateFromPeer(env, threadCptr);
     if (!T) return 0;
     
     return lua_pushthread(T);
@@ -115,11 +115,11 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushthread(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _setuservalue
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;I)V
+ * Signature: (JI)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setuservalue(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     lua_setuservalue(L, idx);
 }
@@ -127,11 +127,11 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setuservalue(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getuservalue
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;I)V
+ * Signature: (JI)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getuservalue(
-    JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     lua_getuservalue(L, idx);
 }
@@ -139,11 +139,11 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getuservalue(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _absindex
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;I)I
+ * Signature: (JI)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1absindex(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return idx;
     return lua_absindex(L, idx);
 }
@@ -151,12 +151,12 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1absindex(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _openCoroutine
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;)V
+ * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openCoroutine(
-        JNIEnv *env, jobject jobj, jobject cptr)
+        JNIEnv *env, jobject jobj, jlong peer)
 {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     luaopen_coroutine(L);
 }
@@ -164,11 +164,11 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openCoroutine(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getGlobalTable
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;)V
+ * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getGlobalTable(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     lua_pushglobaltable(L);
 }
\ No newline at end of file
@@ -26,6 +26,9 @@
 
 #include "compatible_lua52.h"
 
+// lua 5.3 provides a raw memory area associated with lua state.
+#define LUAJAVA_ENABLE_EXTRASPACE
+
 // lua_dump
 #define LUA_DUMP(L, LUA_WRITER, USERDATA, STRIP) lua_dump(L, LUA_WRITER, USERDATA, STRIP);
 
@@ -30,11 +30,11 @@
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _rotate
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;II)V
+ * Signature: (JII)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rotate(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     lua_rotate(L, idx, n);
 }
@@ -42,11 +42,11 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rotate(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _openUtf8
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;)V
+ * Signature: (J)V
  */
 JNIEXPORT void JNICALL
-Java_org_eu_smileyik_luajava_LuaState__1openUtf8(JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+Java_org_eu_smileyik_luajava_LuaState__1openUtf8(JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     luaopen_utf8(L);
 }
@@ -30,11 +30,11 @@
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getiuservalue
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;II)I
+ * Signature: (JII)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getiuservalue(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return 0;
     return lua_getiuservalue(L, idx, n);
 }
@@ -42,11 +42,11 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getiuservalue(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _setiuservalue
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;II)I
+ * Signature: (JII)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1setiuservalue(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return 0;
     return lua_setiuservalue(L, idx, n);
 }
@@ -54,11 +54,11 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1setiuservalue(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _warning
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;Ljava/lang/String;I)V
+ * Signature: (JLjava/lang/String;I)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1warning(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring jstr, jint nocont) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring jstr, jint nocont) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     const char* msg = (*env)->GetStringUTFChars(env, jstr, NULL);
     lua_warning(L, msg, nocont);
@@ -69,13 +69,13 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1warning(
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _resume
  * Signature:
- * (Lorg/eu/smileyik/luajava/CPtr;Lorg/eu/smileyik/luajava/CPtr;II)I
+ * (JJII)I
  */
 JNIEXPORT jint JNICALL
-Java_org_eu_smileyik_luajava_LuaState__1resume__Lorg_eu_smileyik_luajava_CPtr_2Lorg_eu_smileyik_luajava_CPtr_2II(
-        JNIEnv *env, jobject jobj, jobject cptr, jobject threadCptr, jint nargs, jint nrets) {
-    lua_State *L = getStateFromCPtr(env, cptr);
-    lua_State *T = getStateFromCPtr(env, threadCptr);
+Java_org_eu_smileyik_luajava_LuaState__1resume__JJII(
+        JNIEnv *env, jobject jobj, jlong peer, jlong threadCptr, jint nargs, jint nrets) {
+    lua_State *L = getStateFromPeer(env, peer);
+    lua_State *T = getStateFromPeer(env, threadCptr);
     if (!L || !T) return 0;
     return lua_resume(L, T, nargs, &nrets);
 }
\ No newline at end of file
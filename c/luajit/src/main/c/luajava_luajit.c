@@ -60,8 +60,8 @@
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getGcCount(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_getgccount(L);
 }
@@ -69,11 +69,11 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getGcCount(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getGlobalTable
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;)V
+ * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getGlobalTable(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     lua_pushvalue(L, LUA_GLOBALSINDEX);
 }
\ No newline at end of file
@@ -126,12 +126,15 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1luaGlobalsIndex(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState_luajava_1open(
-        JNIEnv *env, jobject jobj, jobject cptr, jint stateId) {
+        JNIEnv *env, jobject jobj, jlong peer, jint stateId) {
     
     lua_State *L;
 
-    L = getStateFromCPtr(env, cptr);
+    L = getStateFromPeer(env, peer);
 
+    // callbacks read the id from state info, the registry entry is kept
+    // for scripts that inspect the registry.
+    luajavaGetStateInfo(L, 1)->stateIndex = stateId;
     lua_pushstring(L, LUAJAVASTATEINDEX);
     lua_pushnumber(L, (lua_Number)stateId);
     lua_settable(L, LUA_REGISTRYINDEX);
@@ -185,11 +188,11 @@ JNIEXPORT jobject JNICALL
 Java_org_eu_smileyik_luajava_LuaState__1getObjectFromUserdata(
     JNIEnv *env,
     jobject jobj,
-    jobject cptr,
+    jlong peer,
     jint index
 ) {
     /* Get luastate */
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     jobject *obj;
 
     if (!isJavaObject(L, index)) {
@@ -208,9 +211,9 @@ Java_org_eu_smileyik_luajava_LuaState__1getObjectFromUserdata(
  ************************************************************************/
 
 JNIEXPORT jboolean JNICALL Java_org_eu_smileyik_luajava_LuaState__1isObject(
-        JNIEnv *env, jobject jobj, jobject cptr, jint index) {
+        JNIEnv *env, jobject jobj, jlong peer, jint index) {
     /* Get luastate */
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (isJavaObject(L, index) ? JNI_TRUE : JNI_FALSE);
 }
@@ -221,11 +224,14 @@ JNIEXPORT jboolean JNICALL Java_org_eu_smileyik_luajava_LuaState__1isObject(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushJavaObject(
-        JNIEnv *env, jobject jobj, jobject cptr, jobject obj) {
+        JNIEnv *env, jobject jobj, jlong peer, jobject obj, jint cacheKey) {
     /* Get luastate */
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
 
     pushJavaObject(L, obj);
+    if (cacheKey != 0) {
+        luajavaBindMethodCache(L, -1, cacheKey);
+    }
 }
 
 /************************************************************************
@@ -234,10 +240,13 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushJavaObject(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushJavaClass(
-        JNIEnv *env, jobject jobj, jobject cptr, jclass obj) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jclass obj, jint cacheKey) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     pushJavaClass(L, obj);
+    if (cacheKey != 0) {
+        luajavaBindMethodCache(L, -1, cacheKey);
+    }
 }
 
 /************************************************************************
@@ -246,9 +255,9 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushJavaClass(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushJavaArray(
-        JNIEnv *env, jobject jobj, jobject cptr, jobject obj) {
+        JNIEnv *env, jobject jobj, jlong peer, jobject obj) {
     /* Get luastate */
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
 
     pushJavaArray(L, obj);
 }
@@ -261,11 +270,11 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushJavaArray(
 JNIEXPORT void JNICALL
 Java_org_eu_smileyik_luajava_LuaState__1pushJavaFunction(JNIEnv *env,
     jobject jobj,
-    jobject cptr,
+    jlong peer,
     jobject obj
 ) {
     /* Get luastate */
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
 
     jobject *userData, globalRef;
 
@@ -306,10 +315,10 @@ Java_org_eu_smileyik_luajava_LuaState__1pushJavaFunction(JNIEnv *env,
 JNIEXPORT jboolean JNICALL
 Java_org_eu_smileyik_luajava_LuaState__1isJavaFunction(JNIEnv *env,
                                                         jobject jobj,
-                                                        jobject cptr,
+                                                        jlong peer,
                                                         jint idx) {
     /* Get luastate */
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     jobject *obj;
 
     if (!isJavaObject(L, idx)) {
@@ -321,17 +330,83 @@ Java_org_eu_smileyik_luajava_LuaState__1isJavaFunction(JNIEnv *env,
     return isJavaFunctionInstance(env, obj);
 }
 
+JNIEXPORT jboolean JNICALL
+Java_org_eu_smileyik_luajava_LuaState__1isLuaArrayCandidate(
+    JNIEnv *env,
+    jobject jobj,
+    jlong peer,
+    jint idx
+) {
+    lua_State *L = getStateFromPeer(env, peer);
+    return (jboolean) isLuaArrayCandidate(L, (int) idx);
+}
+
 JNIEXPORT jint JNICALL
 Java_org_eu_smileyik_luajava_LuaState__1isLuaArray(
     JNIEnv *env,
     jobject jobj,
-    jobject cptr,
+    jlong peer,
     jint idx
 ) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     return isLuaArray(L, (int) idx);
 }
 
+/************************************************************************
+ *   JNI Called function
+ *      LuaJava API Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL
+Java_org_eu_smileyik_luajava_LuaState__1snapshotValues(
+    JNIEnv *env,
+    jobject jobj,
+    jlong peer,
+    jint from,
+    jint count,
+    jobject buffer,
+    jobjectArray objects
+) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jbyte *address;
+    jlong capacity;
+
+    if (!L) return -1;
+
+    address = (jbyte *) (*env)->GetDirectBufferAddress(env, buffer);
+    capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    if (address == NULL || capacity < 0) return -1;
+
+    return (jint) luajavaSnapshotValues(L, env, (int) from, (int) count, address, capacity, objects);
+}
+
+/************************************************************************
+ *   JNI Called function
+ *      LuaJava API Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL
+Java_org_eu_smileyik_luajava_LuaState__1pushValues(
+    JNIEnv *env,
+    jobject jobj,
+    jlong peer,
+    jobject buffer,
+    jint count,
+    jobjectArray objects
+) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jbyte *address;
+    jlong capacity;
+
+    if (!L) return -1;
+
+    address = (jbyte *) (*env)->GetDirectBufferAddress(env, buffer);
+    capacity = (*env)->GetDirectBufferCapacity(env, buffer);
+    if (address == NULL || capacity < 0) return -1;
+
+    return (jint) luajavaPushValues(L, env, (int) count, address, capacity, objects);
+}
+
 /*********************** LUA API FUNCTIONS ******************************/
 
 /************************************************************************
@@ -340,8 +415,11 @@ Java_org_eu_smileyik_luajava_LuaState__1isLuaArray(
  ************************************************************************/
 
 JNIEXPORT jobject JNICALL
-Java_org_eu_smileyik_luajava_LuaState__1open(JNIEnv *env, jobject jobj) {
+Java_org_eu_smileyik_luajava_LuaState__1open(JNIEnv *env, jclass jobj) {
     lua_State *L = lua_open();
+#ifdef LUAJAVA_ENABLE_EXTRASPACE
+    if (L) LUAJAVA_STATE_INFO_SLOT(L) = NULL;
+#endif
     return newCPtr(env, (jlong)L);
 }
 
@@ -351,8 +429,8 @@ Java_org_eu_smileyik_luajava_LuaState__1open(JNIEnv *env, jobject jobj) {
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openBase(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     // luaopen_base( L );
     lua_pushcfunction(L, luaopen_base);
@@ -366,8 +444,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openBase(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openTable(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     // luaopen_table( L );
     lua_pushcfunction(L, luaopen_table);
@@ -381,8 +459,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openTable(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openIo(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     // luaopen_io( L );
     lua_pushcfunction(L, luaopen_io);
@@ -396,8 +474,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openIo(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openOs(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     // luaopen_os( L );
     lua_pushcfunction(L, luaopen_os);
@@ -411,8 +489,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openOs(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openString(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     // luaopen_string( L );
     lua_pushcfunction(L, luaopen_string);
@@ -426,8 +504,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openString(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openMath(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     // luaopen_math( L );
     lua_pushcfunction(L, luaopen_math);
@@ -441,8 +519,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openMath(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openDebug(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     // luaopen_debug( L );
     lua_pushcfunction(L, luaopen_debug);
@@ -456,8 +534,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openDebug(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openPackage(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     // luaopen_package( L );
     lua_pushcfunction(L, luaopen_package);
@@ -471,8 +549,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openPackage(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openLibs(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     luaL_openlibs(L);
 }
@@ -483,10 +561,9 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1openLibs(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1close(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (L) {
-        resetCPtr(env, cptr);
         lua_close(L);
     }
 }
@@ -497,8 +574,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1close(
  ************************************************************************/
 
 JNIEXPORT jobject JNICALL Java_org_eu_smileyik_luajava_LuaState__1newthread(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     lua_State *newThread  = lua_newthread(L);
     // origin returns L's pointer. 
     // may return newThread's 
@@ -511,8 +588,8 @@ JNIEXPORT jobject JNICALL Java_org_eu_smileyik_luajava_LuaState__1newthread(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getTop(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_gettop(L);
 }
@@ -523,8 +600,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getTop(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setTop(
-        JNIEnv *env, jobject jobj, jobject cptr, jint top) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint top) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_settop(L, (int)top);
 }
@@ -535,8 +612,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setTop(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushValue(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_pushvalue(L, (int)idx);
 }
@@ -547,8 +624,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushValue(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1remove(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_remove(L, (int)idx);
 }
@@ -559,8 +636,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1remove(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1insert(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_insert(L, (int)idx);
 }
@@ -571,8 +648,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1insert(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1replace(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_replace(L, (int)idx);
 }
@@ -583,8 +660,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1replace(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1checkStack(
-        JNIEnv *env, jobject jobj, jobject cptr, jint sz) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint sz) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_checkstack(L, (int)sz);
 }
@@ -595,9 +672,9 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1checkStack(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1xmove(
-        JNIEnv *env, jobject jobj, jobject from, jobject to, jint n) {
-    lua_State *fr = getStateFromCPtr(env, from);
-    lua_State *t = getStateFromCPtr(env, to);
+        JNIEnv *env, jobject jobj, jlong from, jlong to, jint n) {
+    lua_State *fr = getStateFromPeer(env, from);
+    lua_State *t = getStateFromPeer(env, to);
 
     lua_xmove(fr, t, (int)n);
 }
@@ -608,8 +685,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1xmove(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isNumber(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_isnumber(L, (int)idx);
 }
@@ -620,8 +697,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isNumber(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isString(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_isstring(L, (int)idx);
 }
@@ -632,8 +709,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isString(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isFunction(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_isfunction(L, (int)idx);
 }
@@ -644,8 +721,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isFunction(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isCFunction(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_iscfunction(L, (int)idx);
 }
@@ -656,8 +733,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isCFunction(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isUserdata(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_isuserdata(L, (int)idx);
 }
@@ -668,8 +745,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isUserdata(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isTable(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_istable(L, (int)idx);
 }
@@ -680,8 +757,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isTable(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isBoolean(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_isboolean(L, (int)idx);
 }
@@ -692,8 +769,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isBoolean(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isNil(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_isnil(L, (int)idx);
 }
@@ -704,8 +781,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isNil(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isNone(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_isnone(L, (int)idx);
 }
@@ -716,8 +793,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isNone(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isNoneOrNil(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_isnoneornil(L, (int)idx);
 }
@@ -728,8 +805,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1isNoneOrNil(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1type(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_type(L, (int)idx);
 }
@@ -740,8 +817,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1type(
  ************************************************************************/
 
 JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1typeName(
-        JNIEnv *env, jobject jobj, jobject cptr, jint tp) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint tp) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     const char *name = lua_typename(L, tp);
 
@@ -754,8 +831,8 @@ JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1typeName(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1equal(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx1, jint idx2) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx1, jint idx2) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_equal(L, idx1, idx2);
 }
@@ -766,8 +843,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1equal(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawequal(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx1, jint idx2) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx1, jint idx2) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_rawequal(L, idx1, idx2);
 }
@@ -778,8 +855,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawequal(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1lessthan(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx1, jint idx2) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx1, jint idx2) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint) lua_lessthan(L, idx1, idx2);
 }
@@ -790,8 +867,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1lessthan(
  ************************************************************************/
 
 JNIEXPORT jdouble JNICALL Java_org_eu_smileyik_luajava_LuaState__1toNumber(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jdouble)lua_tonumber(L, idx);
 }
@@ -802,20 +879,47 @@ JNIEXPORT jdouble JNICALL Java_org_eu_smileyik_luajava_LuaState__1toNumber(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1toInteger(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_tointeger(L, idx);
 }
 
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1toNumberValue(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jlongArray value) {
+    lua_State *L = getStateFromPeer(env, peer);
+    union {
+        jdouble number;
+        jlong bits;
+    } cValue;
+    jint isInteger = 0;
+
+#if LUA_VERSION_NUM >= 503
+    if (lua_isinteger(L, (int)idx)) {
+        cValue.bits = (jlong)lua_tointeger(L, (int)idx);
+        isInteger = 1;
+    } else
+#endif
+    {
+        cValue.number = (jdouble)lua_tonumber(L, (int)idx);
+    }
+    (*env)->SetLongArrayRegion(env, value, 0, 1, &cValue.bits);
+    return isInteger;
+}
+
 /************************************************************************
  *   JNI Called function
  *      Lua Exported Function
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1toBoolean(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_toboolean(L, idx);
 }
@@ -825,61 +929,21 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1toBoolean(
  *      Lua Exported Function
  ************************************************************************/
 
-JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1toString(
-    JNIEnv *env, jobject jobj, jobject cptr, jint idx
-) {
-    lua_State *L = getStateFromCPtr(env, cptr);
-    const char *str = lua_tostring(L, idx);
-    size_t strLen = strlen(str);
-    jchar *to = (jchar *) malloc(sizeof(jchar) * (strLen + 1));
-    if (to == NULL) {
-        return (*env)->NewStringUTF(env, str);
-    }
-    size_t toIdx = 0;
-    const unsigned char *ptr = (const unsigned char *) str;
-    unsigned int cp;
-    while (*ptr) {
-        cp = 0;
-        if ((*ptr & 0x80) == 0) {
-            cp = *ptr;
-            ptr += 1;
-        } else if ((*ptr & 0xE0) == 0xC0) {
-            if (ptr + 1 < (const unsigned char *) str + strLen) {
-                cp = ((*ptr & 0x1F) << 6) | (ptr[1] & 0x3F);
-                ptr += 2;
-            }
-        } else if ((*ptr & 0xF0) == 0xE0) {
-            if (ptr + 2 < (const unsigned char *) str + strLen) {
-                cp = ((*ptr & 0x0F) << 12) | ((ptr[1] & 0x3F) << 6) | (ptr[2] & 0x3F);
-                ptr += 3;
-            }
-        } else if ((*ptr & 0xF8) == 0xF0) {
-            if (ptr + 3 < (const unsigned char *) str + strLen) {
-                cp = ((*ptr & 0x07) << 18) | ((ptr[1] & 0x3F) << 12) | ((ptr[2] & 0x3F) << 6) | (ptr[3] & 0x3F);
-                ptr += 4;
-            }
-        } else {
-            ptr++;
-            continue;
-        }
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1toStringBytes(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jbyteArray buffer) {
+    lua_State *L = getStateFromPeer(env, peer);
+    size_t len = 0;
+    const char *str;
 
-        if (cp) {
-            if (cp <= 0xFFFF) {
-                // BMP character
-                to[toIdx++] = (jchar) cp;
-            } else {
-                // Non-BMP character, needs surrogate pair
-                cp -= 0x10000;
-                to[toIdx++] = (jchar) (0xD800 + (cp >> 10));
-                to[toIdx++] = (jchar)(0xDC00 + (cp & 0x3FF));
-            }
-        } else {
-            ptr++;
-        }
+    if (!L) return -1;
+    str = lua_tolstring(L, (int) idx, &len);
+    if (str == NULL) return -1;
+    if (len > 0x7FFFFFFF) return -1;
+    // caller grows the buffer and calls again if it is too small.
+    if (buffer != NULL && (jsize) len <= (*env)->GetArrayLength(env, buffer)) {
+        (*env)->SetByteArrayRegion(env, buffer, 0, (jsize) len, (const jbyte *) str);
     }
-    jstring jstr = (*env)->NewString(env, to, toIdx);
-    free(to);
-    return jstr;
+    return (jint) len;
 }
 
 /************************************************************************
@@ -888,8 +952,8 @@ JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1toString(
  ************************************************************************/
 
 JNIEXPORT jlong JNICALL Java_org_eu_smileyik_luajava_LuaState__1toPointer(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
     return (jlong) lua_topointer(L, idx);
 }
 
@@ -899,8 +963,8 @@ JNIEXPORT jlong JNICALL Java_org_eu_smileyik_luajava_LuaState__1toPointer(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1strlen(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_strlen(L, idx);
 }
@@ -911,8 +975,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1strlen(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1objlen(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_objlen(L, idx);
 }
@@ -923,9 +987,9 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1objlen(
  ************************************************************************/
 
 JNIEXPORT jobject JNICALL Java_org_eu_smileyik_luajava_LuaState__1toThread(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
     lua_State *L, *thr;
-    L = getStateFromCPtr(env, cptr);
+    L = getStateFromPeer(env, peer);
     thr = lua_tothread(L, (int)idx);
     return newCPtr(env, (jlong)thr);
 }
@@ -936,8 +1000,8 @@ JNIEXPORT jobject JNICALL Java_org_eu_smileyik_luajava_LuaState__1toThread(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushNil(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_pushnil(L);
 }
@@ -948,8 +1012,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushNil(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushNumber(
-        JNIEnv *env, jobject jobj, jobject cptr, jdouble number) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jdouble number) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_pushnumber(L, (lua_Number)number);
 }
@@ -960,8 +1024,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushNumber(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushInteger(
-        JNIEnv *env, jobject jobj, jobject cptr, jint number) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint number) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_pushinteger(L, (lua_Integer)number);
 }
@@ -971,20 +1035,11 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushInteger(
  *      Lua Exported Function
  ************************************************************************/
 
-JNIEXPORT void JNICALL
-Java_org_eu_smileyik_luajava_LuaState__1pushString__Lorg_eu_smileyik_luajava_CPtr_2Ljava_lang_String_2(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring str) {
-    lua_State *L = getStateFromCPtr(env, cptr);
-    const char *uniStr;
-
-    uniStr = (*env)->GetStringUTFChars(env, str, NULL);
+JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushLong(
+        JNIEnv *env, jobject jobj, jlong peer, jlong number) {
+    lua_State *L = getStateFromPeer(env, peer);
 
-    if (uniStr == NULL)
-        return;
-
-    lua_pushstring(L, uniStr);
-
-    (*env)->ReleaseStringUTFChars(env, str, uniStr);
+    lua_pushinteger(L, (lua_Integer)number);
 }
 
 /************************************************************************
@@ -993,16 +1048,27 @@ Java_org_eu_smileyik_luajava_LuaState__1pushString__Lorg_eu_smileyik_luajava_CPt
  ************************************************************************/
 
 JNIEXPORT void JNICALL
-Java_org_eu_smileyik_luajava_LuaState__1pushString__Lorg_eu_smileyik_luajava_CPtr_2_3BI(
-        JNIEnv *env, jobject jobj, jobject cptr, jbyteArray bytes, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
-    char *cBytes;
-
-    cBytes = (char *)(*env)->GetByteArrayElements(env, bytes, NULL);
+Java_org_eu_smileyik_luajava_LuaState__1pushString(
+        JNIEnv *env, jobject jobj, jlong peer, jbyteArray bytes, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
+    char stackBytes[256];
+    char *cBytes = stackBytes;
+
+    // java side may pass a reusable buffer longer than n,
+    // so only copy the first n bytes instead of the whole array.
+    if (n > (jint) sizeof(stackBytes)) {
+        cBytes = (char *) malloc((size_t) n);
+        if (cBytes == NULL) {
+            (*env)->ThrowNew(env, (*env)->FindClass(env, "java/lang/OutOfMemoryError"),
+                             "Out of memory when pushing string");
+            return;
+        }
+    }
+    (*env)->GetByteArrayRegion(env, bytes, 0, n, (jbyte *) cBytes);
 
     lua_pushlstring(L, cBytes, n);
 
-    (*env)->ReleaseByteArrayElements(env, bytes, cBytes, 0);
+    if (cBytes != stackBytes) free(cBytes);
 }
 
 /************************************************************************
@@ -1011,8 +1077,8 @@ Java_org_eu_smileyik_luajava_LuaState__1pushString__Lorg_eu_smileyik_luajava_CPt
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushBoolean(
-        JNIEnv *env, jobject jobj, jobject cptr, jint jbool) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint jbool) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_pushboolean(L, (int)jbool);
 }
@@ -1023,8 +1089,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pushBoolean(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getTable(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_gettable(L, (int)idx);
 }
@@ -1035,8 +1101,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getTable(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getField(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx, jstring k) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jstring k) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     const char *uniStr;
     uniStr = (*env)->GetStringUTFChars(env, k, NULL);
@@ -1052,8 +1118,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getField(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawGet(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_rawget(L, (int)idx);
 }
@@ -1064,8 +1130,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawGet(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawGetI(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_rawgeti(L, idx, n);
 }
@@ -1076,8 +1142,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawGetI(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1createTable(
-        JNIEnv *env, jobject jobj, jobject cptr, jint narr, jint nrec) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint narr, jint nrec) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_createtable(L, (int)narr, (int)nrec);
 }
@@ -1088,8 +1154,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1createTable(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1newTable(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_newtable(L);
 }
@@ -1100,8 +1166,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1newTable(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getMetaTable(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return lua_getmetatable(L, idx);
 }
@@ -1112,8 +1178,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getMetaTable(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getFEnv(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_getfenv(L, (int)idx);
 }
@@ -1124,8 +1190,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getFEnv(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setTable(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_settable(L, (int)idx);
 }
@@ -1136,8 +1202,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setTable(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setField(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx, jstring k) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jstring k) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     const char *uniStr;
     uniStr = (*env)->GetStringUTFChars(env, k, NULL);
@@ -1153,8 +1219,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setField(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawSet(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_rawset(L, (int)idx);
 }
@@ -1165,8 +1231,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawSet(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawSetI(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_rawseti(L, idx, n);
 }
@@ -1177,8 +1243,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1rawSetI(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1setMetaTable(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return lua_setmetatable(L, idx);
 }
@@ -1189,8 +1255,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1setMetaTable(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1setFEnv(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return lua_setfenv(L, idx);
 }
@@ -1201,8 +1267,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1setFEnv(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1call(
-        JNIEnv *env, jobject jobj, jobject cptr, jint nArgs, jint nResults) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint nArgs, jint nResults) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_call(L, nArgs, nResults);
 }
@@ -1213,9 +1279,9 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1call(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1pcall(
-        JNIEnv *env, jobject jobj, jobject cptr, jint nArgs, jint nResults,
+        JNIEnv *env, jobject jobj, jlong peer, jint nArgs, jint nResults,
         jint errFunc) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_pcall(L, nArgs, nResults, errFunc);
 }
@@ -1226,8 +1292,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1pcall(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1yield(
-        JNIEnv *env, jobject jobj, jobject cptr, jint nResults) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint nResults) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_yield(L, nResults);
 }
@@ -1239,8 +1305,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1yield(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1resume(
-        JNIEnv *env, jobject jobj, jobject cptr, jint nArgs) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint nArgs) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_resume(L, nArgs);
 }
@@ -1252,8 +1318,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1resume(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1status(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_status(L);
 }
@@ -1264,8 +1330,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1status(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1gc(
-        JNIEnv *env, jobject jobj, jobject cptr, jint what, jint data) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint what, jint data) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_gc(L, what, data);
 }
@@ -1276,8 +1342,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1gc(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1next(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)lua_next(L, idx);
 }
@@ -1288,8 +1354,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1next(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1error(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     lua_error(L);
     return (jint) 1;
 }
@@ -1300,8 +1366,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1error(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1concat(
-        JNIEnv *env, jobject jobj, jobject cptr, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_concat(L, n);
 }
@@ -1312,8 +1378,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1concat(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pop(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint idx) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     lua_pop(L, (int)idx);
 }
@@ -1324,8 +1390,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1pop(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setGlobal(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring name) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring name) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     const char *str = (*env)->GetStringUTFChars(env, name, NULL);
 
@@ -1340,8 +1406,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setGlobal(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getGlobal(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring name) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring name) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     const char *str = (*env)->GetStringUTFChars(env, name, NULL);
 
@@ -1356,8 +1422,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1getGlobal(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LdoFile(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring fileName) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring fileName) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     const char *file = (*env)->GetStringUTFChars(env, fileName, NULL);
 
@@ -1376,8 +1442,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LdoFile(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LdoString(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring str) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring str) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     const char *utfStr = (*env)->GetStringUTFChars(env, str, NULL);
 
@@ -1394,8 +1460,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LdoString(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LgetMetaField(
-        JNIEnv *env, jobject jobj, jobject cptr, jint obj, jstring e) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint obj, jstring e) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *str = (*env)->GetStringUTFChars(env, e, NULL);
     int ret;
 
@@ -1412,8 +1478,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LgetMetaField(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcallMeta(
-        JNIEnv *env, jobject jobj, jobject cptr, jint obj, jstring e) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint obj, jstring e) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *str = (*env)->GetStringUTFChars(env, e, NULL);
     int ret;
 
@@ -1431,8 +1497,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcallMeta(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1Ltyperror(
-        JNIEnv *env, jobject jobj, jobject cptr, jint nArg, jstring tName) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint nArg, jstring tName) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *name = (*env)->GetStringUTFChars(env, tName, NULL);
     int ret;
 
@@ -1450,8 +1516,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1Ltyperror(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LargError(
-        JNIEnv *env, jobject jobj, jobject cptr, jint numArg, jstring extraMsg) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint numArg, jstring extraMsg) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *msg = (*env)->GetStringUTFChars(env, extraMsg, NULL);
     int ret;
 
@@ -1471,9 +1537,9 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LargError(
 JNIEXPORT jstring JNICALL
 Java_org_eu_smileyik_luajava_LuaState__1LcheckString(JNIEnv *env,
                                                     jobject jobj,
-                                                    jobject cptr,
+                                                    jlong peer,
                                                     jint numArg) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     const char *res;
 
     res = luaL_checkstring(L, (int)numArg);
@@ -1487,8 +1553,8 @@ Java_org_eu_smileyik_luajava_LuaState__1LcheckString(JNIEnv *env,
  ************************************************************************/
 
 JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1LoptString(
-        JNIEnv *env, jobject jobj, jobject cptr, jint numArg, jstring def) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint numArg, jstring def) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *d = (*env)->GetStringUTFChars(env, def, NULL);
     const char *res;
     jstring ret;
@@ -1510,9 +1576,9 @@ JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1LoptString(
 JNIEXPORT jdouble JNICALL
 Java_org_eu_smileyik_luajava_LuaState__1LcheckNumber(JNIEnv *env,
                                                     jobject jobj,
-                                                    jobject cptr,
+                                                    jlong peer,
                                                     jint numArg) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jdouble)luaL_checknumber(L, (int)numArg);
 }
@@ -1523,8 +1589,8 @@ Java_org_eu_smileyik_luajava_LuaState__1LcheckNumber(JNIEnv *env,
  ************************************************************************/
 
 JNIEXPORT jdouble JNICALL Java_org_eu_smileyik_luajava_LuaState__1LoptNumber(
-        JNIEnv *env, jobject jobj, jobject cptr, jint numArg, jdouble def) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint numArg, jdouble def) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jdouble)luaL_optnumber(L, (int)numArg, (lua_Number)def);
 }
@@ -1535,8 +1601,8 @@ JNIEXPORT jdouble JNICALL Java_org_eu_smileyik_luajava_LuaState__1LoptNumber(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcheckInteger(
-        JNIEnv *env, jobject jobj, jobject cptr, jint numArg) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint numArg) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)luaL_checkinteger(L, (int)numArg);
 }
@@ -1547,8 +1613,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcheckInteger(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LoptInteger(
-        JNIEnv *env, jobject jobj, jobject cptr, jint numArg, jint def) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint numArg, jint def) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)luaL_optinteger(L, (int)numArg, (lua_Integer)def);
 }
@@ -1559,8 +1625,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LoptInteger(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcheckStack(
-        JNIEnv *env, jobject jobj, jobject cptr, jint sz, jstring msg) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint sz, jstring msg) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *m = (*env)->GetStringUTFChars(env, msg, NULL);
 
     luaL_checkstack(L, (int)sz, m);
@@ -1574,8 +1640,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcheckStack(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcheckType(
-        JNIEnv *env, jobject jobj, jobject cptr, jint nArg, jint t) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint nArg, jint t) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     luaL_checktype(L, (int)nArg, (int)t);
 }
@@ -1586,8 +1652,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcheckType(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcheckAny(
-        JNIEnv *env, jobject jobj, jobject cptr, jint nArg) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint nArg) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     luaL_checkany(L, (int)nArg);
 }
@@ -1598,8 +1664,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LcheckAny(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LnewMetatable(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring tName) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring tName) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *name = (*env)->GetStringUTFChars(env, tName, NULL);
     int ret;
 
@@ -1617,8 +1683,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LnewMetatable(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LgetMetatable(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring tName) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring tName) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *name = (*env)->GetStringUTFChars(env, tName, NULL);
 
     luaL_getmetatable(L, name);
@@ -1632,8 +1698,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LgetMetatable(
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1Lwhere(
-        JNIEnv *env, jobject jobj, jobject cptr, jint lvl) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint lvl) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     luaL_where(L, (int)lvl);
 }
@@ -1644,33 +1710,297 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1Lwhere(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1Lref(
-        JNIEnv *env, jobject jobj, jobject cptr, jint t) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint t) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     return (jint)luaL_ref(L, (int)t);
 }
 
+/*
+ * Same as java narrowing conversion, NaN to 0 and saturate out of range values.
+ */
+static jint numberToJint(lua_Number number) {
+    if (number != number) return 0;
+    if (number >= 2147483647.0) return (jint) 2147483647;
+    if (number <= -2147483648.0) return (jint) (-2147483647 - 1);
+    return (jint) number;
+}
+
+static jlong numberToJlong(lua_Number number) {
+    if (number != number) return 0;
+    if (number >= 9223372036854775807.0) return (jlong) 9223372036854775807LL;
+    if (number <= -9223372036854775808.0) return (jlong) (-9223372036854775807LL - 1);
+    return (jlong) number;
+}
+
+#if LUA_VERSION_NUM >= 503
+/*
+ * Integers are read without converting to lua_Number, so values above 2^53 keep precision.
+ */
+static jint integerToJint(lua_Integer integer) {
+    if (integer >= 2147483647) return (jint) 2147483647;
+    if (integer <= -2147483647 - 1) return (jint) (-2147483647 - 1);
+    return (jint) integer;
+}
+#endif
+
+/*
+ * Prepares sequence copy, returns absolute index of table or 0 if it is not a table.
+ * Copy loops only do raw access, never raise error nor call back java,
+ * so destination arrays could be accessed in place.
+ */
+static int prepareCopy(lua_State *L, int idx) {
+    if (idx < 0 && idx > LUA_REGISTRYINDEX) idx = lua_gettop(L) + idx + 1;
+    return lua_istable(L, idx) ? idx : 0;
+}
+
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1copyNumbers(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jdoubleArray dst, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jdouble *cDst;
+    jint i;
+    int t = prepareCopy(L, (int)idx);
+
+    if (t == 0 || n <= 0) return 0;
+    cDst = (jdouble *) (*env)->GetPrimitiveArrayCritical(env, dst, NULL);
+    if (cDst == NULL) return 0;
+    for (i = 0; i < n; ++i) {
+        lua_rawgeti(L, t, i + 1);
+        if (lua_type(L, -1) != LUA_TNUMBER) {
+            lua_pop(L, 1);
+            break;
+        }
+        cDst[i] = (jdouble) lua_tonumber(L, -1);
+        lua_pop(L, 1);
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, dst, cDst, 0);
+    return i;
+}
+
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1copyInts(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jintArray dst, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jint *cDst;
+    jint i;
+    int t = prepareCopy(L, (int)idx);
+
+    if (t == 0 || n <= 0) return 0;
+    cDst = (jint *) (*env)->GetPrimitiveArrayCritical(env, dst, NULL);
+    if (cDst == NULL) return 0;
+    for (i = 0; i < n; ++i) {
+        lua_rawgeti(L, t, i + 1);
+        if (lua_type(L, -1) != LUA_TNUMBER) {
+            lua_pop(L, 1);
+            break;
+        }
+#if LUA_VERSION_NUM >= 503
+        if (lua_isinteger(L, -1)) {
+            cDst[i] = integerToJint(lua_tointeger(L, -1));
+        } else
+#endif
+        {
+            cDst[i] = numberToJint(lua_tonumber(L, -1));
+        }
+        lua_pop(L, 1);
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, dst, cDst, 0);
+    return i;
+}
+
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1copyLongs(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jlongArray dst, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jlong *cDst;
+    jint i;
+    int t = prepareCopy(L, (int)idx);
+
+    if (t == 0 || n <= 0) return 0;
+    cDst = (jlong *) (*env)->GetPrimitiveArrayCritical(env, dst, NULL);
+    if (cDst == NULL) return 0;
+    for (i = 0; i < n; ++i) {
+        lua_rawgeti(L, t, i + 1);
+        if (lua_type(L, -1) != LUA_TNUMBER) {
+            lua_pop(L, 1);
+            break;
+        }
+#if LUA_VERSION_NUM >= 503
+        if (lua_isinteger(L, -1)) {
+            cDst[i] = (jlong) lua_tointeger(L, -1);
+        } else
+#endif
+        {
+            cDst[i] = numberToJlong(lua_tonumber(L, -1));
+        }
+        lua_pop(L, 1);
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, dst, cDst, 0);
+    return i;
+}
+
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1copyBooleans(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jbooleanArray dst, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jboolean *cDst;
+    jint i;
+    int t = prepareCopy(L, (int)idx);
+
+    if (t == 0 || n <= 0) return 0;
+    cDst = (jboolean *) (*env)->GetPrimitiveArrayCritical(env, dst, NULL);
+    if (cDst == NULL) return 0;
+    for (i = 0; i < n; ++i) {
+        lua_rawgeti(L, t, i + 1);
+        if (lua_type(L, -1) != LUA_TBOOLEAN) {
+            lua_pop(L, 1);
+            break;
+        }
+        cDst[i] = lua_toboolean(L, -1) ? JNI_TRUE : JNI_FALSE;
+        lua_pop(L, 1);
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, dst, cDst, 0);
+    return i;
+}
+
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1copyStrings(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jintArray ends, jint n, jbyteArray buffer) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jint *cEnds;
+    jbyte *cBuffer;
+    jint capacity = (*env)->GetArrayLength(env, buffer);
+    jint total = 0;
+    jint i;
+    const char *str;
+    size_t len;
+    int t = prepareCopy(L, (int)idx);
+
+    // -1 means nothing copied.
+    if (t == 0 || n <= 0) return -1;
+    cEnds = (jint *) (*env)->GetPrimitiveArrayCritical(env, ends, NULL);
+    if (cEnds == NULL) return -1;
+    cBuffer = (jbyte *) (*env)->GetPrimitiveArrayCritical(env, buffer, NULL);
+    if (cBuffer == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, ends, cEnds, JNI_ABORT);
+        return -1;
+    }
+    for (i = 0; i < n; ++i) {
+        lua_rawgeti(L, t, i + 1);
+        if (lua_type(L, -1) != LUA_TSTRING) {
+            cEnds[i] = -1;
+            lua_pop(L, 1);
+            break;
+        }
+        str = lua_tolstring(L, -1, &len);
+        // only count length if buffer is too small, java side will retry with a larger one.
+        if (total + (jint) len <= capacity) {
+            memcpy(cBuffer + total, str, len);
+        }
+        total += (jint) len;
+        cEnds[i] = total;
+        lua_pop(L, 1);
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, buffer, cBuffer, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, ends, cEnds, 0);
+    return total;
+}
+
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1refValue(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jlongArray info) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jlong cInfo[2];
+
+    cInfo[0] = (jlong) lua_type(L, (int)idx);
+    cInfo[1] = (jlong) lua_topointer(L, (int)idx);
+    (*env)->SetLongArrayRegion(env, info, 0, 2, cInfo);
+    lua_pushvalue(L, (int)idx);
+    return (jint)luaL_ref(L, LUA_REGISTRYINDEX);
+}
+
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1valueInfo(
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jlongArray info) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jlong cInfo[2];
+
+    cInfo[0] = (jlong) lua_type(L, (int)idx);
+    cInfo[1] = (jlong) lua_topointer(L, (int)idx);
+    (*env)->SetLongArrayRegion(env, info, 0, 2, cInfo);
+}
+
 /************************************************************************
  *   JNI Called function
  *      Lua Exported Function
  ************************************************************************/
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LunRef(
-        JNIEnv *env, jobject jobj, jobject cptr, jint t, jint ref) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint t, jint ref) {
+    lua_State *L = getStateFromPeer(env, peer);
 
     luaL_unref(L, (int)t, (int)ref);
 }
 
+/************************************************************************
+ *   JNI Called function
+ *      Lua Exported Function
+ ************************************************************************/
+
+JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1unrefBatch(
+        JNIEnv *env, jobject jobj, jlong peer, jint t, jintArray refs, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
+    jint *cRefs;
+    jint i;
+
+    if (n <= 0) return;
+    // luaL_unref never calls back java, so the array could be accessed in place.
+    cRefs = (jint *) (*env)->GetPrimitiveArrayCritical(env, refs, NULL);
+    if (cRefs == NULL) return;
+    for (i = 0; i < n; ++i) {
+        luaL_unref(L, (int)t, (int)cRefs[i]);
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, refs, cRefs, JNI_ABORT);
+}
+
 /************************************************************************
  *   JNI Called function
  *      Lua Exported Function
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LgetN
-    (JNIEnv * env , jobject jobj , jobject cptr , jint t)
+    (JNIEnv * env , jobject jobj , jlong peer , jint t)
 {
-     lua_State * L = getStateFromCPtr( env , cptr );
+     lua_State * L = getStateFromPeer(env, peer);
      // luaL_getn 方法在 Lua 5.1 中不存在
      // 可以设置或读取表中的n字段.
     if (!lua_istable( L, (int) t )) {
@@ -1691,9 +2021,9 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LgetN
 
 
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LsetN
-    (JNIEnv * env , jobject jobj , jobject cptr , jint t , jint n)
+    (JNIEnv * env , jobject jobj , jlong peer , jint t , jint n)
 {
-     lua_State * L = getStateFromCPtr( env , cptr );
+     lua_State * L = getStateFromPeer(env, peer);
      // luaL_setn 方法在 Lua 5.1 中不存在
      // 可以设置或读取表中的n字段.
     lua_pushstring( L , "n" );
@@ -1708,8 +2038,8 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1LsetN
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LloadFile(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring fileName) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring fileName) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *fn = (*env)->GetStringUTFChars(env, fileName, NULL);
     int ret;
 
@@ -1726,9 +2056,9 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LloadFile(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LloadBuffer(
-        JNIEnv *env, jobject jobj, jobject cptr, jbyteArray buff, jlong sz,
+        JNIEnv *env, jobject jobj, jlong peer, jbyteArray buff, jlong sz,
         jstring n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     jbyte *cBuff = (*env)->GetByteArrayElements(env, buff, NULL);
     const char *name = (*env)->GetStringUTFChars(env, n, NULL);
     int ret;
@@ -1748,8 +2078,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LloadBuffer(
  ************************************************************************/
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LloadString(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring str) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring str) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *fn = (*env)->GetStringUTFChars(env, str, NULL);
     int ret;
 
@@ -1766,8 +2096,8 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1LloadString(
  ************************************************************************/
 
 JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1Lgsub(
-        JNIEnv *env, jobject jobj, jobject cptr, jstring s, jstring p, jstring r) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jstring s, jstring p, jstring r) {
+    lua_State *L = getStateFromPeer(env, peer);
     const char *utS = (*env)->GetStringUTFChars(env, s, NULL);
     const char *utP = (*env)->GetStringUTFChars(env, p, NULL);
     const char *utR = (*env)->GetStringUTFChars(env, r, NULL);
@@ -1788,9 +2118,9 @@ JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1Lgsub(
  ************************************************************************/
 
 JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1LfindTable(
-        JNIEnv *env, jobject jobj, jobject cptr, jint idx, jstring fname,
+        JNIEnv *env, jobject jobj, jlong peer, jint idx, jstring fname,
         jint szhint) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     const char *name = (*env)->GetStringUTFChars(env, fname, NULL);
 
     const char *sub = luaL_findtable(L, (int)idx, name, (int)szhint);
@@ -1805,11 +2135,11 @@ JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1LfindTable(
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _luaDump
  * Signature:
- * (Lorg/eu/smileyik/luajava/CPtr;Lorg/eu/smileyik/luajava/ILuaReadWriteEntity;I)I
+ * (JLorg/eu/smileyik/luajava/ILuaReadWriteEntity;I)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1luaDump(
-        JNIEnv *env, jobject jobj, jobject cptr, jobject userdata, jint strip) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jobject userdata, jint strip) {
+    lua_State *L = getStateFromPeer(env, peer);
     return (jint) LUA_DUMP(L, luajavaLuaWriter, userdata, strip);
 }
 
@@ -1817,12 +2147,12 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1luaDump(
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _luaLoad
  * Signature:
- * (Lorg/eu/smileyik/luajava/CPtr;Lorg/eu/smileyik/luajava/ILuaReadWriteEntity;Ljava/lang/String;Ljava/lang/String;)I
+ * (JLorg/eu/smileyik/luajava/ILuaReadWriteEntity;Ljava/lang/String;Ljava/lang/String;)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1luaLoad(
-        JNIEnv *env, jobject jobj, jobject cptr, jobject userdata,
+        JNIEnv *env, jobject jobj, jlong peer, jobject userdata,
         jstring chunkName, jstring mode) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+    lua_State *L = getStateFromPeer(env, peer);
     const char* chunkNameStr = (*env)->GetStringUTFChars(env, chunkName, NULL);
     const char* modeStr = (*env)->GetStringUTFChars(env, mode, NULL);
     int result = LUA_LOAD(L, luajavaLuaReader, userdata, chunkNameStr, modeStr);
@@ -1832,35 +2162,42 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1luaLoad(
 }
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1copyValue(
-        JNIEnv *env, jobject jobj, jobject src, jint idx, jobject dest) {
-    lua_State *srcL = getStateFromCPtr(env, src);
-    lua_State *destL = getStateFromCPtr(env, dest);
+        JNIEnv *env, jobject jobj, jlong src, jint idx, jlong dest) {
+    lua_State *srcL = getStateFromPeer(env, src);
+    lua_State *destL = getStateFromPeer(env, dest);
     return (jint) luajavaCopyLuaValueWrapper(srcL, idx, destL);
 }
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1newGlobalEnv(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     return luajavaNewGlobalEnv(L);
 }
 
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1copyTableIfNotExists(
-        JNIEnv *env, jobject jobj, jobject src, jint idx, jobject dest) {
-    lua_State *srcL = getStateFromCPtr(env, src);
-    lua_State *destL = getStateFromCPtr(env, dest);
+        JNIEnv *env, jobject jobj, jlong src, jint idx, jlong dest) {
+    lua_State *srcL = getStateFromPeer(env, src);
+    lua_State *destL = getStateFromPeer(env, dest);
     return (jint) luajavaCopyTableIfNotExists(srcL, idx, destL);
 }
 
+JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1mergeGlobals(
+        JNIEnv *env, jobject jobj, jlong src, jlong dest) {
+    lua_State *srcL = getStateFromPeer(env, src);
+    lua_State *destL = getStateFromPeer(env, dest);
+    return (jint) luajavaMergeGlobals(srcL, destL);
+}
+
 // ********************** Debug API ***********************
 
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _setHook
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;II)V
+ * Signature: (JII)V
  */
 JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setHook(
-        JNIEnv *env, jobject jobj, jobject cptr, jint mask, jint count) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint mask, jint count) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return;
     lua_sethook(L, luajavaLuaHook, mask, count);
 }
@@ -1868,11 +2205,11 @@ JNIEXPORT void JNICALL Java_org_eu_smileyik_luajava_LuaState__1setHook(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getHookMask
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;)I
+ * Signature: (J)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getHookMask(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return -1;
     return lua_gethookmask(L);
 }
@@ -1880,11 +2217,11 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getHookMask(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getHookCount
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;)I
+ * Signature: (J)I
  */
 JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getHookCount(
-        JNIEnv *env, jobject jobj, jobject cptr) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return -1;
     return lua_gethookcount(L);
 }
@@ -1893,11 +2230,11 @@ JNIEXPORT jint JNICALL Java_org_eu_smileyik_luajava_LuaState__1getHookCount(
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getStack
  * Signature:
- * (Lorg/eu/smileyik/luajava/CPtr;I)Lorg/eu/smileyik/luajava/debug/LuaDebug;
+ * (JI)Lorg/eu/smileyik/luajava/debug/LuaDebug;
  */
 JNIEXPORT jobject JNICALL Java_org_eu_smileyik_luajava_LuaState__1getStack(
-        JNIEnv *env, jobject jobj, jobject cptr, jint level) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint level) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return NULL;
 
     lua_Debug *ar = (lua_Debug *) malloc(sizeof(lua_Debug));
@@ -1913,11 +2250,11 @@ JNIEXPORT jobject JNICALL Java_org_eu_smileyik_luajava_LuaState__1getStack(
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getInfo
  * Signature:
- * (Lorg/eu/smileyik/luajava/CPtr;Ljava/lang/String;)Lorg/eu/smileyik/luajava/debug/LuaDebug;
+ * (JLjava/lang/String;)Lorg/eu/smileyik/luajava/debug/LuaDebug;
  */
 JNIEXPORT jobject JNICALL Java_org_eu_smileyik_luajava_LuaState__1getInfo(
-        JNIEnv *env, jobject jobj, jobject cptr, jlong arPtr, jstring jWhat) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jlong arPtr, jstring jWhat) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return NULL;
 
     const char *what = (*env)->GetStringUTFChars(env, jWhat, NULL);
@@ -1934,11 +2271,11 @@ JNIEXPORT jobject JNICALL Java_org_eu_smileyik_luajava_LuaState__1getInfo(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getLocal
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;JI)Ljava/lang/String;
+ * Signature: (JJI)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1getLocal(
-        JNIEnv *env, jobject jobj, jobject cptr, jlong arPtr, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jlong arPtr, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return NULL;
 
     lua_Debug *ar = (lua_Debug *) ((jbyte *) arPtr);
@@ -1949,11 +2286,11 @@ JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1getLocal(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _setLocal
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;JI)Ljava/lang/String;
+ * Signature: (JJI)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1setLocal(
-        JNIEnv *env, jobject jobj, jobject cptr, jlong arPtr, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jlong arPtr, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return NULL;
 
     lua_Debug *ar = (lua_Debug *) ((jbyte *) arPtr);
@@ -1964,11 +2301,11 @@ JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1setLocal(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _getUpValue
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;II)Ljava/lang/String;
+ * Signature: (JII)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1getUpValue(
-        JNIEnv *env, jobject jobj, jobject cptr, jint funcIndex, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint funcIndex, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return NULL;
 
     const char* name = lua_getupvalue(L, funcIndex, n);
@@ -1978,11 +2315,11 @@ JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1getUpValue(
 /*
  * Class:     org_eu_smileyik_luajava_LuaState
  * Method:    _setUpValue
- * Signature: (Lorg/eu/smileyik/luajava/CPtr;II)Ljava/lang/String;
+ * Signature: (JII)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_org_eu_smileyik_luajava_LuaState__1setUpValue(
-        JNIEnv *env, jobject jobj, jobject cptr, jint funcIndex, jint n) {
-    lua_State *L = getStateFromCPtr(env, cptr);
+        JNIEnv *env, jobject jobj, jlong peer, jint funcIndex, jint n) {
+    lua_State *L = getStateFromPeer(env, peer);
     if (!L) return NULL;
 
     const char* name = lua_setupvalue(L, funcIndex, n);
@@ -2009,3 +2346,47 @@ JNIEXPORT jint JNICALL
 Java_org_eu_smileyik_luajava_LuaState__1longSize(JNIEnv *env, jclass jobj) {
     return sizeof(long);
 }
+
+/************************************************************************
+ *   Foreign Called function
+ *      Leaf functions for java.lang.foreign critical downcalls.
+ *      They take the raw lua_State pointer, never call back to java
+ *      and never raise lua errors. lua_settop is not here, it may run
+ *      __close metamethods on lua 5.4.
+ ************************************************************************/
+
+JNIEXPORT jint luajavaLeafGetTop(jlong peer) {
+    lua_State *L = (lua_State *) peer;
+    if (!L) return 0;
+    return (jint) lua_gettop(L);
+}
+
+JNIEXPORT jint luajavaLeafType(jlong peer, jint idx) {
+    lua_State *L = (lua_State *) peer;
+    if (!L) return LUA_TNONE;
+    return (jint) lua_type(L, (int) idx);
+}
+
+JNIEXPORT jdouble luajavaLeafToNumber(jlong peer, jint idx) {
+    lua_State *L = (lua_State *) peer;
+    if (!L) return 0;
+    return (jdouble) lua_tonumber(L, (int) idx);
+}
+
+JNIEXPORT void luajavaLeafPushNumber(jlong peer, jdouble number) {
+    lua_State *L = (lua_State *) peer;
+    if (!L) return;
+    lua_pushnumber(L, (lua_Number) number);
+}
+
+JNIEXPORT void luajavaLeafPushBoolean(jlong peer, jint value) {
+    lua_State *L = (lua_State *) peer;
+    if (!L) return;
+    lua_pushboolean(L, (int) value);
+}
+
+JNIEXPORT void luajavaLeafRawGetI(jlong peer, jint idx, jint n) {
+    lua_State *L = (lua_State *) peer;
+    if (!L) return;
+    lua_rawgeti(L, (int) idx, (int) n);
+}
@@ -227,8 +227,7 @@ static jclass    java_lang_class         = NULL;
 static jmethodID java_lang_class_static_method_forName   = NULL;
 
 static jclass    luajava_api_class       = NULL;
-static jmethodID luajava_api_static_method_checkField       = NULL;
-static jmethodID luajava_api_static_method_checkMethod      = NULL;
+static jmethodID luajava_api_static_method_objectMemberIndex = NULL;
 static jmethodID luajava_api_static_method_objectIndex      = NULL;
 static jmethodID luajava_api_static_method_classIndex       = NULL;
 static jmethodID luajava_api_static_method_arrayIndex       = NULL;
@@ -270,28 +269,26 @@ void setupLuaJavaApi(JNIEnv *env) {
                                                     "toString", "()Ljava/lang/String;");
 
     BIND_JAVA_CLASS(tempClass, env, luajava_api_class, "org/eu/smileyik/luajava/LuaJavaAPI");
-    BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_checkField, luajava_api_class, 
-                                                    "checkField", "(ILjava/lang/Object;Ljava/lang/String;)I");
-    BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_checkMethod, luajava_api_class, 
-                                                    "checkMethod", "(ILjava/lang/Object;Ljava/lang/String;)Z");
+    BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_objectMemberIndex, luajava_api_class, 
+                                                    "objectMemberIndex", "(IJLjava/lang/Object;Ljava/lang/String;)I");
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_objectIndex, luajava_api_class, 
-                                                    "objectIndex", "(ILjava/lang/Object;Ljava/lang/String;Z)I");
+                                                    "objectIndex", "(IJLjava/lang/Object;Ljava/lang/String;Z)I");
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_classIndex, luajava_api_class, 
-                                                    "classIndex", "(ILjava/lang/Class;Ljava/lang/String;)I");
+                                                    "classIndex", "(IJLjava/lang/Class;Ljava/lang/String;)I");
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_arrayIndex, luajava_api_class, 
-                                                    "arrayIndex", "(ILjava/lang/Object;I)I");
+                                                    "arrayIndex", "(IJLjava/lang/Object;I)I");
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_arrayNewIndex, luajava_api_class, 
-                                                    "arrayNewIndex", "(ILjava/lang/Object;I)I");
+                                                    "arrayNewIndex", "(IJLjava/lang/Object;I)I");
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_objectConcat, luajava_api_class, 
-                                                    "objectConcat", "(I)I");
+                                                    "objectConcat", "(IJ)I");
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_objectNewIndex, luajava_api_class, 
-                                                    "objectNewIndex", "(ILjava/lang/Object;Ljava/lang/String;)I");
+                                                    "objectNewIndex", "(IJLjava/lang/Object;Ljava/lang/String;)I");
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_javaNew, luajava_api_class, 
-                                                    "javaNew", "(ILjava/lang/Class;)I");                                
+                                                    "javaNew", "(IJLjava/lang/Class;)I");                                
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_javaNewInstance, luajava_api_class, 
-                                                    "javaNewInstance", "(ILjava/lang/String;)I");         
+                                                    "javaNewInstance", "(IJLjava/lang/String;)I");         
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_javaLoadLib, luajava_api_class, 
-                                                    "javaLoadLib", "(ILjava/lang/String;Ljava/lang/String;)I");     
+                                                    "javaLoadLib", "(IJLjava/lang/String;Ljava/lang/String;)I");     
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_debugLuaHook, luajava_api_class, 
                                                     "debugLuaHook", "(ILorg/eu/smileyik/luajava/debug/LuaDebug;)V");     
     BIND_JAVA_STATIC_METHOD(env, luajava_api_static_method_newLuaDebug, luajava_api_class, 
@@ -305,7 +302,7 @@ void setupLuaJavaApi(JNIEnv *env) {
 
     BIND_JAVA_CLASS(tempClass, env, java_function_class, "org/eu/smileyik/luajava/JavaFunction");
     BIND_JAVA_NORMAL_METHOD(env, java_function_method, java_function_class, 
-                                                    "execute", "()I");
+                                                    "invoke", "(J)I");
 
     BIND_JAVA_CLASS(tempClass, env, throwable_class, "java/lang/Throwable");
     BIND_JAVA_NORMAL_METHOD(env, get_message_method, throwable_class, 
@@ -367,18 +364,13 @@ jobject newCPtr(JNIEnv *env, jlong peer)
  *    ****/
 
 lua_Number getLuaStateIndex(lua_State *L) {
-    lua_Number stateIndex;
-    /* Gets the luaState index */
-    lua_pushstring(L, LUAJAVASTATEINDEX);
-    lua_rawget(L, LUA_REGISTRYINDEX);
+    struct LuaJavaStateInfo *info = luajavaGetStateInfo(L, 0);
 
-    if (!lua_isnumber(L, -1)) {
+    if (!info || info->stateIndex < 0) {
         THROW_LUA_ERROR(L, "Impossible to identify luaState id.");
     }
 
-    stateIndex = lua_tonumber(L, -1);
-    lua_pop(L, 1);
-    return stateIndex;
+    return (lua_Number) info->stateIndex;
 }
 
 /***************************************************************************
@@ -406,9 +398,8 @@ void generateLuaStateStack(lua_State *L, char *stack_str) {
 
 int objectIndex(lua_State *L) {
     lua_Number stateIndex;
-    const char *key;
-    jint checkField;
-    jboolean checkMethodRet;
+    jint ret;
+    jint cacheKey;
     jobject *obj;
     jstring str;
     jthrowable exp;
@@ -420,11 +411,14 @@ int objectIndex(lua_State *L) {
         THROW_LUA_ERROR(L, "Not a valid Java Object.");
     }
 
-    if (!lua_isstring(L, -1)) {
+    if (!lua_isstring(L, 2)) {
         THROW_LUA_ERROR(L, "Invalid object index. Must be string.");
     }
 
-    key = lua_tostring(L, -1);
+    /* method resolved before, no need to cross JNI */
+    if (luajavaPushCachedMethod(L, 1, 2)) {
+        return 1;
+    }
 
     javaEnv = getEnvFromState(L);
     if (javaEnv == NULL) {
@@ -433,37 +427,30 @@ int objectIndex(lua_State *L) {
 
     obj = (jobject *)lua_touserdata(L, 1);
 
-    str = (*javaEnv)->NewStringUTF(javaEnv, key);
+    str = luajavaInternString(L, javaEnv, 2);
 
-    checkField = (*javaEnv)->CallStaticIntMethod(
-            javaEnv, luajava_api_class, luajava_api_static_method_checkField, (jint)stateIndex, *obj, str);
+    /* Return 1 for field (value pushed), 2 for method or 0 for not found */
+    ret = (*javaEnv)->CallStaticIntMethod(
+            javaEnv, luajava_api_class, luajava_api_static_method_objectMemberIndex, (jint)stateIndex, (jlong) L, *obj, str);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {
         (*javaEnv)->DeleteLocalRef(javaEnv, str);
     });
 
-    if (checkField != 0) {
-        (*javaEnv)->DeleteLocalRef(javaEnv, str);
-        return checkField;
-    }
-
-    checkMethodRet = (*javaEnv)->CallStaticBooleanMethod(
-            javaEnv, luajava_api_class, luajava_api_static_method_checkMethod, (jint)stateIndex, *obj, str);
-    exp = (*javaEnv)->ExceptionOccurred(javaEnv);
-    HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {
-        (*javaEnv)->DeleteLocalRef(javaEnv, str);
-    });
-
     (*javaEnv)->DeleteLocalRef(javaEnv, str);
-    if (!checkMethodRet) {
-        return 0;
+
+    if (ret != 2) {
+        return ret;
     }
 
-    lua_pushvalue(L, 1);
-    lua_pushstring(L, key);
+    /* java pushed the method cache key of the class */
+    cacheKey = (jint) lua_tointeger(L, -1);
+    lua_pop(L, 1);
+    lua_pushvalue(L, 2);
     lua_pushboolean(L, 0);
-    lua_pushcclosure(L, &objectIndexReturn, 3);
+    lua_pushcclosure(L, &objectIndexReturn, 2);
+    luajavaCacheMethod(L, 1, 2, cacheKey);
     return 1;
 }
 
@@ -476,16 +463,18 @@ int objectIndexReturn(lua_State *L) {
     lua_Number stateIndex;
     jobject *pObject;
     jthrowable exp;
-    const char *methodName;
     jint ret;
     jstring str;
     JNIEnv *javaEnv;
 
     stateIndex = getLuaStateIndex(L);
 
-    /* Gets the object reference */
-    pObject = (jobject *)lua_touserdata(L, lua_upvalueindex(1));
-    methodName = lua_tostring(L, lua_upvalueindex(2));
+    /* Gets the object reference, closures are shared by the class so it is the first argument */
+    if (!isJavaObject(L, 1)) {
+        THROW_LUA_ERROR(L, "Not a OO function call."
+            "If you want call a java method, use 'objet:method()' not 'object.method()'");
+    }
+    pObject = (jobject *)lua_touserdata(L, 1);
 
     /* Gets the JNI Environment */
     javaEnv = getEnvFromState(L);
@@ -494,10 +483,10 @@ int objectIndexReturn(lua_State *L) {
     }
 
     /* Gets method */
-    str = (*javaEnv)->NewStringUTF(javaEnv, methodName);
+    str = luajavaInternString(L, javaEnv, lua_upvalueindex(1));
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, luajava_api_static_method_objectIndex,
-                                                                                (jint)stateIndex, *pObject, str, lua_toboolean(L, lua_upvalueindex(3)));
+                                                                                (jint)stateIndex, (jlong) L, *pObject, str, lua_toboolean(L, lua_upvalueindex(2)));
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {
@@ -518,7 +507,6 @@ int objectIndexReturn(lua_State *L) {
 int objectNewIndex(lua_State *L) {
     lua_Number stateIndex;
     jobject *obj;
-    const char *fieldName;
     jstring str;
     jint ret;
     jthrowable exp;
@@ -536,8 +524,6 @@ int objectNewIndex(lua_State *L) {
         THROW_LUA_ERROR(L, "Not a valid field call.");
     }
 
-    fieldName = lua_tostring(L, 2);
-
     /* Gets the object reference */
     obj = (jobject *)lua_touserdata(L, 1);
 
@@ -547,10 +533,10 @@ int objectNewIndex(lua_State *L) {
         THROW_LUA_ERROR(L, "Invalid JNI Environment.");
     }
 
-    str = (*javaEnv)->NewStringUTF(javaEnv, fieldName);
+    str = luajavaInternString(L, javaEnv, 2);
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, luajava_api_static_method_objectNewIndex,
-                                                                                (jint)stateIndex, *obj, str);
+                                                                                (jint)stateIndex, (jlong) L, *obj, str);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {
@@ -570,9 +556,9 @@ int objectNewIndex(lua_State *L) {
 int classIndex(lua_State *L) {
     lua_Number stateIndex;
     jobject *obj;
-    const char *fieldName;
     jstring str;
     jint ret;
+    jint cacheKey;
     jthrowable exp;
     JNIEnv *javaEnv;
 
@@ -588,7 +574,10 @@ int classIndex(lua_State *L) {
         THROW_LUA_ERROR(L, "Not a valid field call.");
     }
 
-    fieldName = lua_tostring(L, 2);
+    /* static method resolved before, no need to cross JNI */
+    if (luajavaPushCachedMethod(L, 1, 2)) {
+        return 1;
+    }
 
     /* Gets the object reference */
     obj = (jobject *)lua_touserdata(L, 1);
@@ -599,11 +588,11 @@ int classIndex(lua_State *L) {
         THROW_LUA_ERROR(L, "Invalid JNI Environment.");
     }
 
-    str = (*javaEnv)->NewStringUTF(javaEnv, fieldName);
+    str = luajavaInternString(L, javaEnv, 2);
 
     /* Return 1 for field, 2 for method or 0 for error */
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, luajava_api_static_method_classIndex,
-                                                                                (jint)stateIndex, *obj, str);
+                                                                                (jint)stateIndex, (jlong) L, *obj, str);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {
@@ -617,10 +606,13 @@ int classIndex(lua_State *L) {
     }
 
     if (ret == 2) {
-        lua_pushvalue(L, 1);
-        lua_pushstring(L, fieldName);
+        /* java pushed the method cache key of the class */
+        cacheKey = (jint) lua_tointeger(L, -1);
+        lua_pop(L, 1);
+        lua_pushvalue(L, 2);
         lua_pushboolean(L, 1);
-        lua_pushcclosure(L, &objectIndexReturn, 3);
+        lua_pushcclosure(L, &objectIndexReturn, 2);
+        luajavaCacheMethod(L, 1, 2, cacheKey);
         return 1;
     }
 
@@ -669,7 +661,7 @@ int arrayIndex(lua_State *L) {
     obj = (jobject *)lua_touserdata(L, 1);
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, luajava_api_static_method_arrayIndex,
-                                                                                (jint)stateIndex, *obj, (jlong)key);
+                                                                                (jint)stateIndex, (jlong) L, *obj, (jlong)key);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {});
@@ -714,7 +706,7 @@ int arrayNewIndex(lua_State *L) {
     }
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, luajava_api_static_method_arrayNewIndex,
-                                                                                (jint)stateIndex, *obj, (jint)key);
+                                                                                (jint)stateIndex, (jlong) L, *obj, (jint)key);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {});
@@ -856,7 +848,7 @@ int javaStringConcat(lua_State *L) {
     }
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, 
-                                                                                luajava_api_static_method_objectConcat, (jint)stateIndex);
+                                                                                luajava_api_static_method_objectConcat, (jint)stateIndex, (jlong) L);
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {});
     
@@ -996,14 +988,14 @@ int createProxy(lua_State *L) {
 
     method = (*javaEnv)->GetStaticMethodID(javaEnv, luajava_api_class,
                                                                                     "createProxyObject",
-                                                                                    "(ILjava/lang/String;)I");
+                                                                                    "(IJLjava/lang/String;)I");
 
     impl = lua_tostring(L, 1);
 
     str = (*javaEnv)->NewStringUTF(javaEnv, impl);
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, method,
-                                                                                (jint)stateIndex, str);
+                                                                                (jint)stateIndex, (jlong) L, str);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {
@@ -1057,7 +1049,7 @@ int javaNew(lua_State *L) {
     }
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, luajava_api_static_method_javaNew,
-                                                                                (jint)stateIndex, classInstance);
+                                                                                (jint)stateIndex, (jlong) L, classInstance);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {});
@@ -1097,7 +1089,7 @@ int javaNewInstance(lua_State *L) {
     javaClassName = (*javaEnv)->NewStringUTF(javaEnv, className);
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, luajava_api_static_method_javaNewInstance,
-                                                                                (jint)stateIndex, javaClassName);
+                                                                                (jint)stateIndex, (jlong) L, javaClassName);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);    
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {
@@ -1147,7 +1139,7 @@ int javaLoadLib(lua_State *L) {
     javaMethodName = (*javaEnv)->NewStringUTF(javaEnv, methodName);
 
     ret = (*javaEnv)->CallStaticIntMethod(javaEnv, luajava_api_class, luajava_api_static_method_javaLoadLib,
-                                                                                (jint)stateIndex, javaClassName, javaMethodName);
+                                                                                (jint)stateIndex, (jlong) L, javaClassName, javaMethodName);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {
@@ -1305,24 +1297,7 @@ int isJavaObject(lua_State *L, int idx) {
  *    Function: isLuaArray
  *    ****/
 
-int isLuaArray(lua_State *L, int idx) {
-    // check metatable
-    // if (lua_getmetatable(L, idx)) {
-    //     lua_pushstring(L, LUA_ARRAYLEN_METATABLE_TAG);
-    //     lua_rawget(L, -2);
-    //     if (lua_isinteger(L, -1)) {
-    //         lua_Integer i = lua_tointeger(L, -1);
-    //         lua_pop(L, 2);
-    //         return i;
-    //     }
-    //     lua_pop(L, 1);
-    // } else {
-    //     lua_newtable(L);
-    //     lua_pushvalue(L, -1);
-    //     lua_setmetatable(L, idx < 0 ? idx - 2 : idx);
-    // }
-    
-    if (idx < 0) idx -= 1;
+static int scanLuaArray(lua_State *L, int idx) {
     int i = 0;
     lua_pushnil(L);
     while (lua_next(L, idx)) {
@@ -1331,22 +1306,45 @@ int isLuaArray(lua_State *L, int idx) {
             return -1;
         }
         lua_Number number = lua_tonumber(L, -2);
-        lua_Integer idx = (lua_Integer) number;
-        if (idx != number || idx <= i) {
+        lua_Integer key = (lua_Integer) number;
+        if (key != number || key <= i) {
             lua_pop(L, 2);
             return -1;
         }
-        i = idx;
+        i = key;
         lua_pop(L, 1);
     }
-
-    // lua_pushstring(L, LUA_ARRAYLEN_METATABLE_TAG);
-    // lua_pushinteger(L, i);
-    // lua_rawset(L, -3);
-    // lua_pop(L, 1);
     return i;
 }
 
+int isLuaArrayCandidate(lua_State *L, int idx) {
+    lua_Number number;
+    lua_Integer key;
+
+    if (idx < 0 && idx > LUA_REGISTRYINDEX) idx = lua_gettop(L) + idx + 1;
+
+    // only looks at the first key, empty table is an array.
+    lua_pushnil(L);
+    if (!lua_next(L, idx)) return 1;
+    if (lua_type(L, -2) != LUA_TNUMBER) {
+        lua_pop(L, 2);
+        return 0;
+    }
+    number = lua_tonumber(L, -2);
+    key = (lua_Integer) number;
+    lua_pop(L, 2);
+    return key == number && key > 0;
+}
+
+int isLuaArray(lua_State *L, int idx) {
+    if (idx < 0 && idx > LUA_REGISTRYINDEX) idx = lua_gettop(L) + idx + 1;
+
+    // integer keys may live in hash part, anywhere between other keys in traversal order,
+    // so only a full scan proves every key is a positive integer.
+    if (!isLuaArrayCandidate(L, idx)) return -1;
+    return scanLuaArray(L, idx);
+}
+
 int luajavaGetJavaObjectType(lua_State *L, int idx) {
     if (!lua_isuserdata(L, idx))
         return 0;
@@ -1368,33 +1366,149 @@ int luajavaGetJavaObjectType(lua_State *L, int idx) {
 
 /***************************************************************************
  *
- *    Function: isJavaFunctionInstance
+ *    Function: luajavaSnapshotValues
  *    ****/
 
-jboolean isJavaFunctionInstance(JNIEnv *env, jobject *obj) {
-    return (*env)->IsInstanceOf(env, *obj, java_function_class);
+int luajavaSnapshotValues(lua_State *L, JNIEnv *env, int from, int count,
+                          jbyte *buffer, jlong capacity, jobjectArray objects) {
+    jbyte *pos = buffer;
+    jbyte *end = buffer + capacity;
+    int i, idx;
+
+    for (i = 0; i < count; ++i) {
+        idx = from + i;
+        if (end - pos < (jlong) LUAJAVA_VALUE_MAX_FIXED_SIZE) {
+            return -1;
+        }
+
+        switch (lua_type(L, idx)) {
+            case LUA_TNONE:
+            case LUA_TNIL:
+                *pos++ = LUAJAVA_VALUE_TAG_NIL;
+                break;
+            case LUA_TBOOLEAN:
+                *pos++ = lua_toboolean(L, idx) ? LUAJAVA_VALUE_TAG_TRUE : LUAJAVA_VALUE_TAG_FALSE;
+                break;
+            case LUA_TNUMBER: {
+                double number = (double) lua_tonumber(L, idx);
+                *pos++ = LUAJAVA_VALUE_TAG_NUMBER;
+                memcpy(pos, &number, sizeof(double));
+                pos += sizeof(double);
+                break;
+            }
+            case LUA_TSTRING: {
+                size_t len;
+                jint jlen;
+                const char *str = lua_tolstring(L, idx, &len);
+                if (len > 0x7FFFFFFF || (size_t) (end - pos) < 1 + sizeof(jint) + len) {
+                    *pos++ = LUAJAVA_VALUE_TAG_FALLBACK;
+                    break;
+                }
+                jlen = (jint) len;
+                *pos++ = LUAJAVA_VALUE_TAG_STRING;
+                memcpy(pos, &jlen, sizeof(jint));
+                pos += sizeof(jint);
+                memcpy(pos, str, len);
+                pos += len;
+                break;
+            }
+            case LUA_TUSERDATA:
+                if (isJavaObject(L, idx)) {
+                    jobject *obj = (jobject *) lua_touserdata(L, idx);
+                    (*env)->SetObjectArrayElement(env, objects, i, *obj);
+                    *pos++ = LUAJAVA_VALUE_TAG_JAVA_OBJECT;
+                    break;
+                }
+                *pos++ = LUAJAVA_VALUE_TAG_FALLBACK;
+                break;
+            default:
+                *pos++ = LUAJAVA_VALUE_TAG_FALLBACK;
+                break;
+        }
+    }
+
+    return (int) (pos - buffer);
 }
 
 /***************************************************************************
  *
- *    Function: getStateFromCPtr
+ *    Function: luajavaPushValues
  *    ****/
 
-lua_State *getStateFromCPtr(JNIEnv *env, jobject cptr) {
-    lua_State *L;
-    jbyte *peer = (jbyte *)(*env)->GetLongField(env, cptr, cptr_field_peer);
-    L = (lua_State *)peer;
-    pushJNIEnv(env, L);
-    return L;
+int luajavaPushValues(lua_State *L, JNIEnv *env, int count,
+                      const jbyte *buffer, jlong capacity, jobjectArray objects) {
+    const jbyte *pos = buffer;
+    const jbyte *end = buffer + capacity;
+    int i;
+
+    if (!lua_checkstack(L, count)) {
+        return -1;
+    }
+
+    for (i = 0; i < count; ++i) {
+        if (pos >= end) {
+            lua_pop(L, i);
+            return -1;
+        }
+
+        switch (*pos++) {
+            case LUAJAVA_VALUE_TAG_NIL:
+                lua_pushnil(L);
+                break;
+            case LUAJAVA_VALUE_TAG_FALSE:
+                lua_pushboolean(L, 0);
+                break;
+            case LUAJAVA_VALUE_TAG_TRUE:
+                lua_pushboolean(L, 1);
+                break;
+            case LUAJAVA_VALUE_TAG_NUMBER: {
+                double number;
+                memcpy(&number, pos, sizeof(double));
+                pos += sizeof(double);
+                lua_pushnumber(L, (lua_Number) number);
+                break;
+            }
+            case LUAJAVA_VALUE_TAG_STRING: {
+                jint len;
+                memcpy(&len, pos, sizeof(jint));
+                pos += sizeof(jint);
+                lua_pushlstring(L, (const char *) pos, (size_t) len);
+                pos += len;
+                break;
+            }
+            case LUAJAVA_VALUE_TAG_JAVA_OBJECT: {
+                jobject obj = (*env)->GetObjectArrayElement(env, objects, i);
+                pushJavaObject(L, obj);
+                (*env)->DeleteLocalRef(env, obj);
+                break;
+            }
+            default:
+                lua_pop(L, i);
+                return -1;
+        }
+    }
+
+    return count;
+}
+
+/***************************************************************************
+ *
+ *    Function: isJavaFunctionInstance
+ *    ****/
+
+jboolean isJavaFunctionInstance(JNIEnv *env, jobject *obj) {
+    return (*env)->IsInstanceOf(env, *obj, java_function_class);
 }
 
 /***************************************************************************
  *
- *    Function: resetCPtr
+ *    Function: getStateFromPeer
  *    ****/
 
-void resetCPtr(JNIEnv *env, jobject cptr) {
-    (*env)->SetLongField(env, cptr, cptr_field_peer, (jlong)0);
+lua_State *getStateFromPeer(JNIEnv *env, jlong peer) {
+    lua_State *L = (lua_State *) peer;
+    if (L) pushJNIEnv(env, L);
+    return L;
 }
 
 /***************************************************************************
@@ -1427,7 +1541,7 @@ int luaJavaFunctionCall(lua_State *L) {
         return 0;
     }
 
-    ret = (*javaEnv)->CallIntMethod(javaEnv, *obj, java_function_method);
+    ret = (*javaEnv)->CallIntMethod(javaEnv, *obj, java_function_method, (jlong) L);
 
     exp = (*javaEnv)->ExceptionOccurred(javaEnv);
     HANDLES_JAVA_EXCEPTION(L, exp, javaEnv, {});
@@ -1437,51 +1551,158 @@ int luaJavaFunctionCall(lua_State *L) {
 
 /***************************************************************************
  *
- *    Function: luaJavaFunctionCall
+ *    Function: luajavaGetStateInfo
  *    ****/
 
-JNIEnv *getEnvFromState(lua_State *L) {
-    JNIEnv **udEnv;
+struct LuaJavaStateInfo *luajavaGetStateInfo(lua_State *L, int create) {
+    struct LuaJavaStateInfo *info;
+
+#ifdef LUAJAVA_ENABLE_EXTRASPACE
+    info = LUAJAVA_STATE_INFO_SLOT(L);
+    if (info) return info;
+#endif
 
     lua_pushstring(L, LUAJAVAJNIENVTAG);
     lua_rawget(L, LUA_REGISTRYINDEX);
 
-    if (!lua_isuserdata(L, -1)) {
+    if (lua_isuserdata(L, -1)) {
+        info = (struct LuaJavaStateInfo *)lua_touserdata(L, -1);
+        lua_pop(L, 1);
+    } else if (create) {
+        lua_pop(L, 1);
+        info = (struct LuaJavaStateInfo *)lua_newuserdata(L, sizeof(struct LuaJavaStateInfo));
+        memset(info, 0, sizeof(struct LuaJavaStateInfo));
+        info->stateIndex = -1;
+
+        lua_pushstring(L, LUAJAVAJNIENVTAG);
+        lua_insert(L, -2);
+        lua_rawset(L, LUA_REGISTRYINDEX);
+    } else {
         lua_pop(L, 1);
         return NULL;
     }
 
-    udEnv = (JNIEnv **)lua_touserdata(L, -1);
+#ifdef LUAJAVA_ENABLE_EXTRASPACE
+    LUAJAVA_STATE_INFO_SLOT(L) = info;
+#endif
+    return info;
+}
 
-    lua_pop(L, 1);
+/***************************************************************************
+ *
+ *    Function: luajavaInternedStringGC
+ *    ****/
+
+static int luajavaInternedStringGC(lua_State *L) {
+    jobject *pStr = (jobject *)lua_touserdata(L, 1);
+    JNIEnv *javaEnv;
 
-    return *udEnv;
+    if (pStr == NULL || *pStr == NULL) return 0;
+
+    javaEnv = getEnvFromState(L);
+    if (javaEnv == NULL) return 0;
+
+    (*javaEnv)->DeleteGlobalRef(javaEnv, *pStr);
+    *pStr = NULL;
+    return 0;
 }
 
 /***************************************************************************
  *
- *    Function: pushJNIEnv
+ *    Function: luajavaInternString
  *    ****/
 
-void pushJNIEnv(JNIEnv *env, lua_State *L) {
-    JNIEnv **udEnv;
+jstring luajavaInternString(lua_State *L, JNIEnv *env, int idx) {
+    int top = lua_gettop(L);
+    size_t len;
+    const char *str;
+    jstring jstr;
+    jobject *pStr;
+    struct LuaJavaStateInfo *info;
 
-    lua_pushstring(L, LUAJAVAJNIENVTAG);
+    if (idx < 0 && idx > LUA_REGISTRYINDEX) {
+        idx = top + idx + 1;
+    }
+
+    str = lua_tolstring(L, idx, &len);
+    if (str == NULL) return NULL;
+    if (len > LUAJAVA_INTERNED_STRING_MAX_LENGTH || lua_type(L, idx) != LUA_TSTRING) {
+        return (*env)->NewStringUTF(env, str);
+    }
+
+    /* lua strings are compared by value, so no stale pointer will be hit */
+    lua_pushstring(L, LUAJAVA_INTERNED_STRING_TAG);
     lua_rawget(L, LUA_REGISTRYINDEX);
+    if (lua_istable(L, -1)) {
+        lua_pushvalue(L, idx);
+        lua_rawget(L, -2);
+        pStr = (jobject *)lua_touserdata(L, -1);
+        if (pStr != NULL && *pStr != NULL) {
+            lua_settop(L, top);
+            return (jstring)(*env)->NewLocalRef(env, *pStr);
+        }
+    }
+    lua_settop(L, top);
 
-    if (!lua_isnil(L, -1)) {
-        udEnv = (JNIEnv **)lua_touserdata(L, -1);
-        *udEnv = env;
-        lua_pop(L, 1);
-    } else {
-        lua_pop(L, 1);
-        udEnv = (JNIEnv **)lua_newuserdata(L, sizeof(JNIEnv *));
-        *udEnv = env;
+    jstr = (*env)->NewStringUTF(env, str);
+    info = luajavaGetStateInfo(L, 0);
+    if (jstr == NULL || info == NULL) return jstr;
 
-        lua_pushstring(L, LUAJAVAJNIENVTAG);
-        lua_insert(L, -2);
+    /* too many names, drop the whole table and let lua gc release them */
+    if (info->internedCount >= LUAJAVA_INTERNED_STRING_MAX_COUNT) {
+        lua_pushstring(L, LUAJAVA_INTERNED_STRING_TAG);
+        lua_pushnil(L);
+        lua_rawset(L, LUA_REGISTRYINDEX);
+        info->internedCount = 0;
+    }
+
+    lua_pushstring(L, LUAJAVA_INTERNED_STRING_TAG);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    if (!lua_istable(L, -1)) {
+        lua_pop(L, 1);
+        lua_newtable(L);
+        lua_pushstring(L, LUAJAVA_INTERNED_STRING_TAG);
+        lua_pushvalue(L, -2);
         lua_rawset(L, LUA_REGISTRYINDEX);
     }
+
+    lua_pushvalue(L, idx);
+    pStr = (jobject *)lua_newuserdata(L, sizeof(jobject));
+    *pStr = (*env)->NewGlobalRef(env, jstr);
+    if (*pStr == NULL) {
+        lua_settop(L, top);
+        return jstr;
+    }
+    if (luaL_newmetatable(L, LUAJAVA_INTERNED_STRING_META)) {
+        lua_pushstring(L, "__gc");
+        lua_pushcfunction(L, &luajavaInternedStringGC);
+        lua_rawset(L, -3);
+    }
+    lua_setmetatable(L, -2);
+    lua_rawset(L, -3);
+    info->internedCount++;
+
+    lua_settop(L, top);
+    return jstr;
+}
+
+/***************************************************************************
+ *
+ *    Function: getEnvFromState
+ *    ****/
+
+JNIEnv *getEnvFromState(lua_State *L) {
+    struct LuaJavaStateInfo *info = luajavaGetStateInfo(L, 0);
+    return info ? info->env : NULL;
+}
+
+/***************************************************************************
+ *
+ *    Function: pushJNIEnv
+ *    ****/
+
+void pushJNIEnv(JNIEnv *env, lua_State *L) {
+    luajavaGetStateInfo(L, 1)->env = env;
 }
 
 /***************************************************************************
@@ -1532,6 +1753,119 @@ const char* luajavaGetObjectFunctionCalled(lua_State *L, int objIdx) {
     return methodName;
 }
 
+/***************************************************************************
+ *
+ *    Function: luajavaPushCachedMethod
+ *    ****/
+
+int luajavaPushCachedMethod(lua_State *L, int objIdx, int keyIdx) {
+    int top = lua_gettop(L);
+
+    LUAJAVA_GET_METATABLE(L, objIdx);
+    if (lua_gettop(L) > top && lua_istable(L, -1)) {
+        lua_pushstring(L, LUAJAVA_METHOD_CACHE_TAG);
+        lua_rawget(L, -2);
+        if (lua_istable(L, -1)) {
+            lua_pushvalue(L, keyIdx);
+            lua_rawget(L, -2);
+            if (lua_isfunction(L, -1)) {
+                lua_replace(L, top + 1);
+                lua_settop(L, top + 1);
+                return 1;
+            }
+        }
+    }
+    lua_settop(L, top);
+    return 0;
+}
+
+/***************************************************************************
+ *
+ *    Function: luajavaCacheMethod
+ *    ****/
+
+void luajavaCacheMethod(lua_State *L, int objIdx, int keyIdx, jint cacheKey) {
+    int top = lua_gettop(L);
+
+    luajavaPushMethodCache(L, cacheKey);
+    luajavaBindMethodCacheTable(L, objIdx);
+
+    lua_pushvalue(L, keyIdx);
+    lua_rawget(L, -2);
+    if (lua_isfunction(L, -1)) {
+        /* resolved by another object of same class, reuse it */
+        lua_replace(L, top);
+    } else {
+        lua_pop(L, 1);
+        lua_pushvalue(L, keyIdx);
+        lua_pushvalue(L, top);
+        lua_rawset(L, -3);
+    }
+    lua_settop(L, top);
+}
+
+/***************************************************************************
+ *
+ *    Function: luajavaPushMethodCache
+ *    ****/
+
+void luajavaPushMethodCache(lua_State *L, jint cacheKey) {
+    lua_pushstring(L, LUAJAVA_METHOD_CACHE_TAG);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    if (!lua_istable(L, -1)) {
+        lua_pop(L, 1);
+        lua_newtable(L);
+        lua_pushstring(L, LUAJAVA_METHOD_CACHE_TAG);
+        lua_pushvalue(L, -2);
+        lua_rawset(L, LUA_REGISTRYINDEX);
+    }
+
+    lua_rawgeti(L, -1, cacheKey);
+    if (!lua_istable(L, -1)) {
+        lua_pop(L, 1);
+        lua_newtable(L);
+        lua_pushvalue(L, -1);
+        lua_rawseti(L, -3, cacheKey);
+    }
+    lua_remove(L, -2);
+}
+
+/***************************************************************************
+ *
+ *    Function: luajavaBindMethodCacheTable
+ *    ****/
+
+void luajavaBindMethodCacheTable(lua_State *L, int objIdx) {
+    int top = lua_gettop(L);
+
+    LUAJAVA_GET_METATABLE(L, objIdx);
+    if (lua_gettop(L) == top || !lua_istable(L, -1)) {
+        lua_settop(L, top);
+        lua_newtable(L);
+        lua_pushvalue(L, -1);
+        LUAJAVA_SET_METATABLE(L, objIdx);
+    }
+
+    lua_pushstring(L, LUAJAVA_METHOD_CACHE_TAG);
+    lua_pushvalue(L, top);
+    lua_rawset(L, -3);
+    lua_settop(L, top);
+}
+
+/***************************************************************************
+ *
+ *    Function: luajavaBindMethodCache
+ *    ****/
+
+void luajavaBindMethodCache(lua_State *L, int objIdx, jint cacheKey) {
+    if (objIdx < 0) {
+        objIdx = lua_gettop(L) + objIdx + 1;
+    }
+    luajavaPushMethodCache(L, cacheKey);
+    luajavaBindMethodCacheTable(L, objIdx);
+    lua_pop(L, 1);
+}
+
 void luajavaNewJavaClassMetatable(lua_State *L) {
     /* Creates metatable */
     lua_newtable(L);
@@ -1840,7 +2174,7 @@ const char* luajavaCopyLuaFunctionReader(lua_State *L, void *ud, size_t *size) {
     return data;
 }
 
-int luajavaCopyLuaFunction(lua_State *srcL, int index, lua_State *destL, HashMap map) {
+int luajavaCopyLuaFunction(lua_State *srcL, int index, lua_State *destL, HashMap map, int metatables) {
     // prepare copy buffer
     struct LuaCopyData *buffer = (struct LuaCopyData *) malloc(sizeof(struct LuaCopyData));
     buffer->size = LUAJAVA_COPY_DATA_BUFFER_SIZE;
@@ -1913,7 +2247,7 @@ int luajavaCopyLuaFunction(lua_State *srcL, int index, lua_State *destL, HashMap
     DEBUGF("[COPY] [Func] Start copy upvalues, n = %d\n", n);
     while ((name = lua_getupvalue(srcL, index, n)) != NULL) {
         DEBUGF("[COPY] [Func] [%d] Copy upvalue '%s' type: %s\n", n, name, lua_typename(srcL, lua_type(srcL, -1)));
-        if (!luajavaCopyLuaValue(srcL, -1, destL, map)) {
+        if (!luajavaCopyLuaValue(srcL, -1, destL, map, metatables)) {
             DEBUGF("[COPY] [Func] [%d] failed copy upvalue '%s' type: %s\n", n, name, lua_typename(srcL, lua_type(srcL, -1)));
             lua_pop(srcL, 1);
             lua_pop(destL, 1);
@@ -1929,7 +2263,7 @@ int luajavaCopyLuaFunction(lua_State *srcL, int index, lua_State *destL, HashMap
     return 1;
 }
 
-int luajavaCopyLuaTable(lua_State *srcL, int index, lua_State *destL, HashMap map) {
+int luajavaCopyLuaTable(lua_State *srcL, int index, lua_State *destL, HashMap map, int metatables) {
     size_t srcPtr = (size_t) lua_topointer(srcL, index);
 
     // after pushed nil, index may need change.
@@ -1946,14 +2280,14 @@ int luajavaCopyLuaTable(lua_State *srcL, int index, lua_State *destL, HashMap ma
     DEBUG("[COPY] [Table] Start foreach source lua state.\n");
     while (lua_next(srcL, offsetIndex) != 0) {
         // copy key to dest lua state top
-        if (!luajavaCopyLuaValue(srcL, -2, destL, map)) {
+        if (!luajavaCopyLuaValue(srcL, -2, destL, map, metatables)) {
             DEBUGF("[COPY] [Table] Copy *key* '%s' failed\n", lua_typename(srcL, lua_type(srcL, -2)));
             lua_pop(srcL, 2);
             return 0;
         }
 
         // copy value to dest lua state top
-        if (!luajavaCopyLuaValue(srcL, -1, destL, map)) {
+        if (!luajavaCopyLuaValue(srcL, -1, destL, map, metatables)) {
             DEBUGF("[COPY] [Table] Copy *value* '%s' failed\n", lua_typename(srcL, lua_type(srcL, -1)));
             lua_pop(srcL, 2);
             lua_pop(destL, 1);
@@ -1967,10 +2301,23 @@ int luajavaCopyLuaTable(lua_State *srcL, int index, lua_State *destL, HashMap ma
         lua_pop(srcL, 1);
         lua_rawset(destL, -3);
     }
+
+    // copy metatable when forking, classes built by metatable need it.
+    if (metatables && lua_getmetatable(srcL, index)) {
+        DEBUG("[COPY] [Table] Copy metatable\n");
+        if (luajavaCopyLuaValue(srcL, -1, destL, map, metatables)) {
+            if (lua_istable(destL, -1)) {
+                lua_setmetatable(destL, -2);
+            } else {
+                lua_pop(destL, 1);
+            }
+        }
+        lua_pop(srcL, 1);
+    }
     return 1;
 }
 
-int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap map) {
+int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap map, int metatables) {
     // copy value
     switch(lua_type(srcL, index)) {
         case LUA_TNIL:
@@ -1989,10 +2336,13 @@ int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap ma
             DEBUG("[COPY] Start copy number\n");
             lua_pushnumber(destL, lua_tonumber(srcL, index));
             return 1;
-        case LUA_TSTRING:
+        case LUA_TSTRING: {
             DEBUG("[COPY] Start copy string\n");
-            lua_pushstring(destL, lua_tostring(srcL, index));
+            size_t len;
+            const char *str = lua_tolstring(srcL, index, &len);
+            lua_pushlstring(destL, str, len);
             return 1;
+        }
         case LUA_TUSERDATA: {
             DEBUG("[COPY] Start copy userdata\n");
             // copy java object
@@ -2018,7 +2368,7 @@ int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap ma
                 lua_rawgeti(destL, LUA_REGISTRYINDEX, ptr);
                 return 1;
             }
-            return luajavaCopyLuaFunction(srcL, index, destL, map);
+            return luajavaCopyLuaFunction(srcL, index, destL, map, metatables);
         }
         case LUA_TTABLE: {
             DEBUG("[COPY] Start copy table\n");
@@ -2028,7 +2378,7 @@ int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap ma
                 lua_rawgeti(destL, LUA_REGISTRYINDEX, ptr);
                 return 1;
             }
-            return luajavaCopyLuaTable(srcL, index, destL, map);
+            return luajavaCopyLuaTable(srcL, index, destL, map, metatables);
         }
     }
     return 0;
@@ -2037,7 +2387,7 @@ int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap ma
 int luajavaCopyLuaValueWrapper(lua_State *srcL, int idx, lua_State *destL) {
     DEBUGF("[COPY] [BEGIN] Start copy index `%d` to another lua state\n", idx);
     HashMap map = hashMap_new(32);
-    int ret = luajavaCopyLuaValue(srcL, idx, destL, map);
+    int ret = luajavaCopyLuaValue(srcL, idx, destL, map, 0);
     hashMap_foreach(map, key, value, {
         DEBUGF("[COPY] [END] [DEST] Unref '%d'\n", value);
         luaL_unref(destL, LUA_REGISTRYINDEX, value);
@@ -2055,7 +2405,7 @@ int luajavaDoCopyTableIfNotExists(lua_State *srcL, int index, lua_State *destL,
         DEBUGF("[COPY_TABLE_IF_NOT_EXISTS] Copy key '%s'\n", 
                         lua_isstring(srcL, -2) ? lua_tostring(srcL, -2) : "Not String");
         // copy key
-        if (!luajavaCopyLuaValue(srcL, -2, destL, map)) {
+        if (!luajavaCopyLuaValue(srcL, -2, destL, map, 0)) {
             lua_pop(srcL, 1);
             continue;
         }
@@ -2073,7 +2423,7 @@ int luajavaDoCopyTableIfNotExists(lua_State *srcL, int index, lua_State *destL,
         lua_pop(destL, 1);
 
         // copy value
-        if (!luajavaCopyLuaValue(srcL, -1, destL, map)) {
+        if (!luajavaCopyLuaValue(srcL, -1, destL, map, 0)) {
             lua_pop(destL, 1);
             lua_pop(srcL, 1);
             continue;
@@ -2096,6 +2446,66 @@ int luajavaCopyTableIfNotExists(lua_State *srcL, int index, lua_State *destL) {
     return ret;
 }
 
+int luajavaDoMergeTable(lua_State *srcL, int index, lua_State *destL, HashMap map) {
+    size_t srcPtr = (size_t) lua_topointer(srcL, index);
+    size_t destRef;
+    // if index is negtive, after pushed nil need change index
+    int offsetIdx = index < 0 ? index - 1 : index;
+
+    // merged or copied before, such as _G._G and package.loaded.string
+    if (hashMap_get(map, srcPtr, &destRef)) {
+        return 1;
+    }
+    lua_pushvalue(destL, -1);
+    destRef = luaL_ref(destL, LUA_REGISTRYINDEX);
+    hashMap_put(map, srcPtr, destRef);
+
+    lua_pushnil(srcL);
+    while (lua_next(srcL, offsetIdx)) {
+        // copy key
+        if (!luajavaCopyLuaValue(srcL, -2, destL, map, 1)) {
+            lua_pop(srcL, 1);
+            continue;
+        }
+
+        lua_pushvalue(destL, -1);
+        lua_rawget(destL, -3);
+        if (lua_istable(destL, -1) && lua_istable(srcL, -1)) {
+            // both have this table, merge it recursively
+            luajavaDoMergeTable(srcL, -1, destL, map);
+            lua_pop(destL, 2);
+        } else if (!lua_isnil(destL, -1)) {
+            // keep dest value, such as c functions opened by libs
+            lua_pop(destL, 2);
+        } else {
+            lua_pop(destL, 1);
+            if (luajavaCopyLuaValue(srcL, -1, destL, map, 1)) {
+                lua_rawset(destL, -3);
+            } else {
+                DEBUGF("[MERGE] Skip value '%s'\n", lua_typename(srcL, lua_type(srcL, -1)));
+                lua_pop(destL, 1);
+            }
+        }
+        lua_pop(srcL, 1);
+    }
+    return 1;
+}
+
+int luajavaMergeGlobals(lua_State *srcL, lua_State *destL) {
+    DEBUG("[MERGE] [BEGIN] Start merge globals to another lua state\n");
+    HashMap map = hashMap_new(64);
+    LUAJAVA_PUSH_GLOBALS(srcL);
+    LUAJAVA_PUSH_GLOBALS(destL);
+    int ret = luajavaDoMergeTable(srcL, -1, destL, map);
+    lua_pop(srcL, 1);
+    lua_pop(destL, 1);
+    hashMap_foreach(map, key, value, {
+        luaL_unref(destL, LUA_REGISTRYINDEX, value);
+    });
+    hashMap_free(map);
+    return ret;
+}
+
 int luajavaNewGlobalEnv(lua_State *L) {
     lua_Integer gRef;
     lua_getglobal(L, "_G");
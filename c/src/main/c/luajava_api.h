@@ -88,6 +88,16 @@
 /* Constant that defines where in the metatable should I place the function name
  */
 #define LUAJAVAOBJFUNCCALLED      "__FunctionCalled"
+/* Defines where in the metatable (or uservalue) and registry the resolved method closures are cached */
+#define LUAJAVA_METHOD_CACHE_TAG  "__LuaJavaMethodCache"
+/* Registry key of the table maps member names to interned java strings */
+#define LUAJAVA_INTERNED_STRING_TAG  "__LuaJavaInternedString"
+/* Registry key of the metatable releases the interned java string */
+#define LUAJAVA_INTERNED_STRING_META "LuaJavaInternedStringMeta"
+/* the interned table will be dropped when it holds so many strings */
+#define LUAJAVA_INTERNED_STRING_MAX_COUNT  1024
+/* longer strings are not interned */
+#define LUAJAVA_INTERNED_STRING_MAX_LENGTH 64
 /* tag the length of array-style table, tag -1 means it's not a array-style table */
 #define LUA_ARRAYLEN_METATABLE_TAG "__LuaArrayLen"
 
@@ -108,6 +118,13 @@
 
 // the LuaCopyData size
 #define LUAJAVA_COPY_DATA_BUFFER_SIZE 1024
+
+/* pushes the global table, no matter _G is replaced or not */
+#ifdef LUA_RIDX_GLOBALS
+#define LUAJAVA_PUSH_GLOBALS( L ) lua_rawgeti(L, LUA_REGISTRYINDEX, LUA_RIDX_GLOBALS)
+#else
+#define LUAJAVA_PUSH_GLOBALS( L ) lua_pushvalue(L, LUA_GLOBALSINDEX)
+#endif
 // a struct used for lua_dump/lua_load function.
 struct LuaCopyData {
     char *data;
@@ -116,6 +133,35 @@ struct LuaCopyData {
     size_t tail;
 };
 
+// value tags used by luajavaSnapshotValues and luajavaPushValues,
+// keep same with LuaValueBuffer.java
+#define LUAJAVA_VALUE_TAG_NIL         0
+#define LUAJAVA_VALUE_TAG_FALSE       1
+#define LUAJAVA_VALUE_TAG_TRUE        2
+#define LUAJAVA_VALUE_TAG_NUMBER      3
+#define LUAJAVA_VALUE_TAG_STRING      4
+#define LUAJAVA_VALUE_TAG_JAVA_OBJECT 5
+// the value can not be written into buffer, java side should read it by itself.
+#define LUAJAVA_VALUE_TAG_FALLBACK    6
+// max size of a value which is not a string: tag + double.
+#define LUAJAVA_VALUE_MAX_FIXED_SIZE  (1 + sizeof(double))
+
+// a struct holds the luajava data of a lua state. it is a full userdata
+// stored in registry with key LUAJAVAJNIENVTAG, so its address never changes
+// and all coroutines of the same lua state share it.
+struct LuaJavaStateInfo {
+    JNIEnv *env;
+    // the id of LuaStateFacade, -1 means not opened by luajava_open yet.
+    jint stateIndex;
+    // count of java strings in interned table.
+    jint internedCount;
+};
+
+// the LuaJavaStateInfo cached in the extra space of lua state.
+// lua_newthread copies the extra space of main thread, so coroutines
+// created after the state opened share the same slot.
+#define LUAJAVA_STATE_INFO_SLOT( L ) (*((struct LuaJavaStateInfo **) lua_getextraspace(L)))
+
 /***************************************************************************
  *
  * $FC Function setupLuaJavaApi
@@ -168,6 +214,48 @@ jobject newCPtr(JNIEnv *env, jlong peer);
 
 lua_Number getLuaStateIndex(lua_State *L);
 
+/***************************************************************************
+ *
+ * $FC Function luajavaGetStateInfo
+ *
+ * $ED Description
+ *    Gets the LuaJavaStateInfo of lua state. Reads the extra space of lua
+ *    state first, then fallback to registry.
+ *
+ * $EP Function Parameters
+ *    $P L      - lua State
+ *    $P create - create the state info if not exists.
+ *
+ * $FV Returned Value
+ *    the state info, or NULL if not exists and create is 0.
+ *
+ *$. **********************************************************************/
+
+struct LuaJavaStateInfo *luajavaGetStateInfo(lua_State *L, int create);
+
+/***************************************************************************
+ *
+ * $FC luajavaInternString
+ *
+ * $ED Description
+ *    Converts the lua string at idx to java string. Short strings are
+ *    cached per state, so member names are created only once instead
+ *    of once per access. The cache is dropped when it is full and
+ *    released with the state.
+ *
+ * $EP Function Parameters
+ *    $P L - lua State
+ *    $P env - java environment
+ *    $P idx - index of the lua string
+ *
+ * $FV Returned Value
+ *    jstring - a new local reference, caller must delete it. NULL if
+ *              the value is not a string.
+ *
+ *$. **********************************************************************/
+
+jstring luajavaInternString(lua_State *L, JNIEnv *env, int idx);
+
 /***************************************************************************
  *
  * $FC Function objectIndex
@@ -192,7 +280,8 @@ int objectIndex(lua_State *L);
  *
  * $ED Description
  *    Function returned by the metamethod __index of a java Object. It is
- *    the actual function that is going to call the java method.
+ *    the actual function that is going to call the java method. It is
+ *    shared by the objects of a class, the object is the first argument.
  *
  * $EP Function Parameters
  *    $P L - lua State
@@ -564,17 +653,37 @@ int isJavaObject(lua_State *L, int idx);
 
 /***************************************************************************
  *
- * $FC isJavaObject
+ * $FC isLuaArrayCandidate
  *
  * $ED Description
- *    Returns 1 is given index represents a java object
+ *    Checks given table may be an array-style table by its first key only,
+ *    it is O(1) and used to pick the wrapper type. Use isLuaArray to prove it.
  *
  * $EP Function Parameters
  *    $P L - lua State
  *    $P idx - index on the stack
  *
  * $FV Returned Value
- *    int - Boolean.
+ *    int - Boolean, 1 if table is empty or first key is a positive integer.
+ *
+ *$. **********************************************************************/
+
+int isLuaArrayCandidate(lua_State *L, int idx);
+
+/***************************************************************************
+ *
+ * $FC isLuaArray
+ *
+ * $ED Description
+ *    Checks given index is an array-style table. Tables whose first key is
+ *    not a positive integer are rejected at once, others are fully traversed.
+ *
+ * $EP Function Parameters
+ *    $P L - lua State
+ *    $P idx - index on the stack
+ *
+ * $FV Returned Value
+ *    int - array length, or -1 if it is not an array.
  *
  *$. **********************************************************************/
 
@@ -600,56 +709,91 @@ int luajavaGetJavaObjectType(lua_State *L, int idx);
 
 /***************************************************************************
  *
- * $FC isJavaObject
+ * $FC luajavaSnapshotValues
  *
  * $ED Description
- *    Returns 1 is given index represents a java object
+ *    Writes the values from index from to from + count - 1 into buffer.
+ *    Every value starts with a LUAJAVA_VALUE_TAG_* byte, numbers follow
+ *    a double, strings follow a jint length and the raw bytes. java objects
+ *    are stored into objects at the same position of value.
  *
  * $EP Function Parameters
  *    $P L - lua State
- *    $P idx - index on the stack
+ *    $P env - java environment
+ *    $P from - first absolute index on the stack
+ *    $P count - values count
+ *    $P buffer - target buffer
+ *    $P capacity - buffer capacity
+ *    $P objects - java object array, length must not less than count
  *
  * $FV Returned Value
- *    int - Boolean.
+ *    int - written bytes, -1 if buffer is too small.
  *
  *$. **********************************************************************/
 
-jboolean isJavaFunctionInstance(JNIEnv *env, jobject *obj);
+int luajavaSnapshotValues(lua_State *L, JNIEnv *env, int from, int count,
+                          jbyte *buffer, jlong capacity, jobjectArray objects);
 
 /***************************************************************************
  *
- * $FC getStateFromCPtr
+ * $FC luajavaPushValues
  *
  * $ED Description
- *    Returns the lua_State from the CPtr Java Object
+ *    Pushes the values encoded by LuaValueBuffer.java into stack, the
+ *    format is same as luajavaSnapshotValues.
  *
  * $EP Function Parameters
  *    $P L - lua State
- *    $P cptr - CPtr object
+ *    $P env - java environment
+ *    $P count - values count
+ *    $P buffer - source buffer
+ *    $P capacity - buffer capacity
+ *    $P objects - java object array, hold the java objects to push
  *
  * $FV Returned Value
- *    int - Number of values to be returned by the function.
+ *    int - pushed values count, -1 if stack can not grow or buffer broken.
  *
  *$. **********************************************************************/
 
-lua_State *getStateFromCPtr(JNIEnv *env, jobject cptr);
+int luajavaPushValues(lua_State *L, JNIEnv *env, int count,
+                      const jbyte *buffer, jlong capacity, jobjectArray objects);
 
 /***************************************************************************
  *
- * $FC resetCPtr
+ * $FC isJavaObject
  *
  * $ED Description
- *    Returns the lua_State from the CPtr Java Object
+ *    Returns 1 is given index represents a java object
  *
  * $EP Function Parameters
  *    $P L - lua State
- *    $P cptr - CPtr object
+ *    $P idx - index on the stack
  *
  * $FV Returned Value
- *    int - Number of values to be returned by the function.
+ *    int - Boolean.
  *
  *$. **********************************************************************/
-void resetCPtr(JNIEnv *env, jobject cptr);
+
+jboolean isJavaFunctionInstance(JNIEnv *env, jobject *obj);
+
+/***************************************************************************
+ *
+ * $FC getStateFromPeer
+ *
+ * $ED Description
+ *    Returns the lua_State from the raw pointer passed by java side
+ *    and refreshes the JNIEnv cached for the state.
+ *
+ * $EP Function Parameters
+ *    $P env - java environment
+ *    $P peer - lua_State pointer
+ *
+ * $FV Returned Value
+ *    lua_State * - lua State, NULL if peer is 0.
+ *
+ *$. **********************************************************************/
+
+lua_State *getStateFromPeer(JNIEnv *env, jlong peer);
 
 /***************************************************************************
  *
@@ -674,7 +818,9 @@ int luaJavaFunctionCall(lua_State *L);
  * $FC pushJNIEnv
  *
  * $ED Description
- *    function that pushes the jni environment into the lua state
+ *    function that pushes the jni environment into the lua state.
+ *    if lua_getextraspace is available then the state info is cached in
+ *    the extra space of lua state and the registry will not be touched.
  *
  * $EP Function Parameters
  *    $P env - java environment
@@ -759,6 +905,106 @@ inline void luajavaSetObjectFunctionCalled(lua_State *L, int objIdx, const char
 
 inline const char* luajavaGetObjectFunctionCalled(lua_State *L, int objIdx);
 
+/***************************************************************************
+ *
+ * $FC luajavaPushCachedMethod
+ *
+ * $ED Description
+ *    push the method closure which resolved before for the java object.
+ *
+ * $EP Function Parameters
+ *    $P L - lua State
+ *    $P objIdx - target object index in stack
+ *    $P keyIdx - method name index in stack
+ *
+ * $FV Returned Value
+ *    1 if the closure pushed, otherwise 0 and nothing pushed.
+ *
+ *$. **********************************************************************/
+
+int luajavaPushCachedMethod(lua_State *L, int objIdx, int keyIdx);
+
+/***************************************************************************
+ *
+ * $FC luajavaCacheMethod
+ *
+ * $ED Description
+ *    cache the method closure on stack top to the method cache table of the
+ *    class, and bind the table to the java object. if another object of the
+ *    class cached the method before, the closure on stack top is replaced by it.
+ *
+ * $EP Function Parameters
+ *    $P L - lua State
+ *    $P objIdx - target object index in stack
+ *    $P keyIdx - method name index in stack
+ *    $P cacheKey - method cache key of the class, from java
+ *
+ * $FV Returned Value
+ *    void
+ *
+ *$. **********************************************************************/
+
+void luajavaCacheMethod(lua_State *L, int objIdx, int keyIdx, jint cacheKey);
+
+/***************************************************************************
+ *
+ * $FC luajavaPushMethodCache
+ *
+ * $ED Description
+ *    push the method cache table of a class, it is kept in registry and
+ *    created if not exists. the closures in it take the object as the
+ *    first argument, so all objects of the class share them.
+ *
+ * $EP Function Parameters
+ *    $P L - lua State
+ *    $P cacheKey - method cache key of the class, negative for static methods
+ *
+ * $FV Returned Value
+ *    void
+ *
+ *$. **********************************************************************/
+
+void luajavaPushMethodCache(lua_State *L, jint cacheKey);
+
+/***************************************************************************
+ *
+ * $FC luajavaBindMethodCacheTable
+ *
+ * $ED Description
+ *    set the method cache table on stack top to the metatable (or uservalue)
+ *    of java object, the table will stay on stack top.
+ *
+ * $EP Function Parameters
+ *    $P L - lua State
+ *    $P objIdx - target object index in stack, must be absolute
+ *
+ * $FV Returned Value
+ *    void
+ *
+ *$. **********************************************************************/
+
+void luajavaBindMethodCacheTable(lua_State *L, int objIdx);
+
+/***************************************************************************
+ *
+ * $FC luajavaBindMethodCache
+ *
+ * $ED Description
+ *    bind the method cache table of a class to a new pushed java object,
+ *    so methods resolved by other objects of the class are found directly.
+ *
+ * $EP Function Parameters
+ *    $P L - lua State
+ *    $P objIdx - target object index in stack
+ *    $P cacheKey - method cache key of the class, from java
+ *
+ * $FV Returned Value
+ *    void
+ *
+ *$. **********************************************************************/
+
+void luajavaBindMethodCache(lua_State *L, int objIdx, jint cacheKey);
+
 inline void luajavaNewJavaClassMetatable(lua_State *L);
 
 inline void luajavaNewJavaObjectMetatable(lua_State *L);
@@ -866,9 +1112,10 @@ int luajavaCopyLuaValueWrapper(lua_State *srcL, int idx, lua_State *destL);
  * @param index value index
  * @param destL other lua state
  * @param map map
+ * @param metatables copy metatables of tables too, only used when forking a state.
  * @return int boolean result.
  */
-int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap map);
+int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap map, int metatables);
 
 /**
  * @brief copy target table value to anther lua state stack top, 
@@ -877,9 +1124,10 @@ int luajavaCopyLuaValue(lua_State *srcL, int index, lua_State *destL, HashMap ma
  * @param index table index
  * @param destL other lua state
  * @param map map
+ * @param metatables copy metatables of tables too, only used when forking a state.
  * @return int boolean result.
  */
-int luajavaCopyLuaTable(lua_State *srcL, int index, lua_State *destL, HashMap map);
+int luajavaCopyLuaTable(lua_State *srcL, int index, lua_State *destL, HashMap map, int metatables);
 
 /**
  * @brief copy target function value to anther lua state stack top, 
@@ -888,9 +1136,10 @@ int luajavaCopyLuaTable(lua_State *srcL, int index, lua_State *destL, HashMap ma
  * @param index function index
  * @param destL other lua state
  * @param map map
+ * @param metatables copy metatables of tables too, only used when forking a state.
  * @return int boolean result.
  */
-int luajavaCopyLuaFunction(lua_State *srcL, int index, lua_State *destL, HashMap map);
+int luajavaCopyLuaFunction(lua_State *srcL, int index, lua_State *destL, HashMap map, int metatables);
 
 const char* luajavaCopyLuaFunctionReader(lua_State *L, void *ud, size_t *size);
 
@@ -919,6 +1168,29 @@ int luajavaDoCopyTableIfNotExists(lua_State *srcL, int index, lua_State *destL,
  */
 int luajavaCopyTableIfNotExists(lua_State *srcL, int index, lua_State *destL);
 
+/**
+ * @brief merge source table into the table at dest lua state stack top.
+ *        missing fields are deep copied, fields exist in both states as tables
+ *        are merged recursively, other existing fields are kept.
+ *
+ * @param srcL lua state
+ * @param index table index
+ * @param destL other lua state
+ * @param map copied source pointer to dest registry ref
+ * @return int boolean result.
+ */
+int luajavaDoMergeTable(lua_State *srcL, int index, lua_State *destL, HashMap map);
+
+/**
+ * @brief merge globals of srcL into globals of destL in one pass, see luajavaDoMergeTable.
+ *        c functions can not be copied, so dest should open the same libs before merge.
+ *
+ * @param srcL lua state
+ * @param destL other lua state
+ * @return int boolean result.
+ */
+int luajavaMergeGlobals(lua_State *srcL, lua_State *destL);
+
 /**
  * @brief create a table, make it metatable __index to _G, and replace _G table to the new table.
  *        but has some issue on lua 5.1
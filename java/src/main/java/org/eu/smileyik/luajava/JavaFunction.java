@@ -58,8 +58,9 @@ public abstract class JavaFunction {
 
     /**
      * This is the state in which this function will exist.
+     * While called from a coroutine it is the facade of that coroutine.
      */
-    protected final LuaStateFacade L;
+    protected LuaStateFacade L;
 
     /**
      * Constructor that receives a LuaState.
@@ -80,6 +81,28 @@ public abstract class JavaFunction {
      */
     public abstract int execute() throws LuaException;
 
+    /**
+     * Called by lua instead of <code>execute</code> directly, records pinned callbacks.
+     *
+     * @param peer running lua_State
+     */
+    final int invoke(long peer) throws LuaException {
+        // parameters are on the stack of the running lua_State, restored after nested calls.
+        LuaStateFacade state = L;
+        L = state.forPeer(peer);
+        // stack indexes of the outer java call are not valid in this call.
+        LuaBorrowFrame frame = LuaBorrowFrame.suspend(L);
+        LuaStateMetrics metrics = L.getMetrics();
+        long token = metrics.enterCallback();
+        try {
+            return execute();
+        } finally {
+            metrics.exitCallback(token);
+            LuaBorrowFrame.resume(L, frame);
+            L = state;
+        }
+    }
+
     /**
      * Returns a parameter received from Lua. Parameters are numbered from 1.
      * A reference to the JavaFunction itself is always the first parameter
@@ -0,0 +1,136 @@
+/*
+ * LuaArena.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A scope for lua objects, opened by {@link LuaStateFacade#openArena()}.
+ * <p>
+ * Lua objects of the same state created by current thread while the arena is open
+ * are not registered to {@link org.eu.smileyik.luajava.util.ResourceCleaner}.
+ * Their references are released in one native call when the arena is closed,
+ * so they must not be used after that. Use it with try-with-resources:
+ * <pre>
+ * try (LuaArena arena = facade.openArena()) {
+ *     LuaObject config = facade.getLuaObject("config").getOrThrow();
+ *     ...
+ * }
+ * </pre>
+ * Arenas could be nested, and must be closed in reverse order by the thread opened them.
+ */
+public final class LuaArena implements AutoCloseable {
+    private static final ThreadLocal<LuaArena> CURRENT = new ThreadLocal<>();
+    /**
+     * count of open arenas, skips the thread local lookup if none.
+     */
+    private static final AtomicInteger OPEN_COUNT = new AtomicInteger(0);
+
+    private final LuaStateFacade facade;
+    private final Lock lock;
+    private final LuaArena previous;
+    private final Thread owner;
+    private LuaObject.CleanTask[] tasks = new LuaObject.CleanTask[16];
+    private int size = 0;
+    private boolean closed = false;
+
+    LuaArena(LuaStateFacade facade) {
+        this.facade = facade;
+        this.lock = facade.getLock();
+        this.previous = CURRENT.get();
+        this.owner = Thread.currentThread();
+        OPEN_COUNT.incrementAndGet();
+        CURRENT.set(this);
+    }
+
+    /**
+     * @return the innermost open arena of current thread for state, or null.
+     */
+    static LuaArena current(LuaStateFacade facade) {
+        if (OPEN_COUNT.get() == 0) return null;
+        // coroutines share the lock of their main state.
+        Lock lock = facade.getLock();
+        for (LuaArena arena = CURRENT.get(); arena != null; arena = arena.previous) {
+            if (arena.lock == lock) return arena;
+        }
+        return null;
+    }
+
+    void add(LuaObject.CleanTask task) {
+        if (size == tasks.length) {
+            LuaObject.CleanTask[] newTasks = new LuaObject.CleanTask[size << 1];
+            System.arraycopy(tasks, 0, newTasks, 0, size);
+            tasks = newTasks;
+        }
+        tasks[size++] = task;
+    }
+
+    /**
+     * @return count of objects created in this arena.
+     */
+    public int size() {
+        return size;
+    }
+
+    public LuaStateFacade getFacade() {
+        return facade;
+    }
+
+    /**
+     * Releases references of objects created in this arena, objects closed already are skipped.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        if (Thread.currentThread() != owner || CURRENT.get() != this) {
+            throw new IllegalStateException("LuaArena must be closed in reverse order by its owner thread");
+        }
+        closed = true;
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+        OPEN_COUNT.decrementAndGet();
+
+        int[] refs = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            Integer ref = tasks[i].takeRef();
+            if (ref != null) refs[n++] = ref;
+        }
+        tasks = null;
+        if (n == 0) return;
+        lock.lock();
+        try {
+            // refs of closed state are already freed by lua_close.
+            if (!facade.getLuaState().isClosed()) {
+                facade.getLuaState().unrefBatch(LuaState.LUA_REGISTRYINDEX, refs, n);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
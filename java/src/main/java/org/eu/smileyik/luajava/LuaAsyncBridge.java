@@ -0,0 +1,219 @@
+/*
+ * LuaAsyncBridge.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.exception.Result;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Suspends lua coroutines on pending java results.
+ * <p>
+ * An async function is a lua wrapper which yields itself and its arguments. The resumer
+ * sees the request after <code>lua_resume</code> returned, so the java function runs
+ * outside any JNI frame and without the state lock, and the thread is not pinned while
+ * waiting. The coroutine is resumed with the result when the future completed.
+ */
+final class LuaAsyncBridge {
+    private static final String WRAPPER_SCRIPT = "" +
+            "local yield, error, fn = coroutine.yield, error, ...\n" +
+            "local function check(ok, ...)\n" +
+            "    if ok then return ... end\n" +
+            "    error((...), 2)\n" +
+            "end\n" +
+            "return function(...) return check(yield(fn, ...)) end";
+
+    private LuaAsyncBridge() {
+    }
+
+    static Result<Void, ? extends LuaException> register(LuaStateFacade facade, String name,
+                                                         LuaAsyncFunction function) {
+        return facade.lockThrow(l -> {
+            int top = l.getTop();
+            try {
+                int exp = l.LloadString(WRAPPER_SCRIPT);
+                if (exp == 0) {
+                    l.pushJavaObject(function);
+                    exp = l.pcall(1, 1, 0);
+                }
+                if (exp != 0) {
+                    throw new LuaException(l.toString(-1));
+                }
+                l.setGlobal(name);
+            } finally {
+                l.setTop(top);
+            }
+        }).justCast();
+    }
+
+    /**
+     * Resumes coroutine until it finished or yielded by lua code.
+     *
+     * @param facade       owner state of coroutine
+     * @param thread       coroutine
+     * @param nArgs        arguments count on coroutine stack.
+     * @param continuation runs the resuming after a pending result completed.
+     * @return count of values returned or yielded on coroutine stack.
+     */
+    static CompletableFuture<Integer> resume(LuaStateFacade facade, LuaStateFacade thread,
+                                             int nArgs, Executor continuation) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        drive(facade, thread, nArgs, result, continuation);
+        return result;
+    }
+
+    /**
+     * Resumes coroutine in a loop while the pending results are already completed,
+     * so a lua loop of synchronous completions does not grow the java stack.
+     */
+    private static void drive(LuaStateFacade facade, LuaStateFacade thread, int nArgs,
+                              CompletableFuture<Integer> result, Executor continuation) {
+        while (true) {
+            Request request = step(facade, thread, nArgs, result);
+            if (request == null) return;
+            CompletableFuture<?> pending = request.invoke();
+            if (pending.isDone()) {
+                if (!pushDone(facade, thread, pending, result)) return;
+                nArgs = 2;
+                continue;
+            }
+            pending.whenComplete((value, error) -> {
+                try {
+                    continuation.execute(() -> {
+                        if (pushDone(facade, thread, pending, result)) {
+                            drive(facade, thread, 2, result, continuation);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            return;
+        }
+    }
+
+    /**
+     * Resumes coroutine once.
+     *
+     * @return the request if coroutine is suspended by an async function, otherwise result is completed and null returned.
+     */
+    private static Request step(LuaStateFacade facade, LuaStateFacade thread, int nArgs,
+                                CompletableFuture<Integer> result) {
+        facade.lock();
+        try {
+            if (thread.isClosed()) {
+                result.completeExceptionally(new LuaException("Coroutine is closed"));
+                return null;
+            }
+            LuaState co = thread.getLuaState();
+            int status = co.resumeFrom(facade.getLuaState(), nArgs);
+            int top = co.getTop();
+            Object request = null;
+            if (status == LuaState.LUA_YIELD && top > 0 && co.isObject(1)) {
+                request = co.getObjectFromUserdata(1);
+            }
+            if (request instanceof LuaAsyncFunction) {
+                Object[] args = thread.rawToJavaObjects(2, top - 1).getOrThrow();
+                co.setTop(0);
+                facade.getMetrics().asyncSuspended();
+                return new Request((LuaAsyncFunction) request, args);
+            } else if (status == 0 || status == LuaState.LUA_YIELD) {
+                result.complete(top);
+            } else {
+                String message = top > 0 ? co.toString(-1) : null;
+                result.completeExceptionally(new LuaException(message == null ? "resume failed: " + status : message));
+            }
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        } finally {
+            facade.unlock();
+        }
+        return null;
+    }
+
+    /**
+     * Pushes <code>ok, value</code> or <code>false, message</code> of a completed future to coroutine.
+     *
+     * @return false if failed and result is completed exceptionally.
+     */
+    private static boolean pushDone(LuaStateFacade facade, LuaStateFacade thread,
+                                    CompletableFuture<?> pending, CompletableFuture<Integer> result) {
+        Object value = null;
+        Throwable error = null;
+        try {
+            value = pending.join();
+        } catch (CompletionException | CancellationException e) {
+            error = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        }
+        facade.lock();
+        try {
+            // coroutine may be released while the result was pending.
+            if (thread.isClosed()) {
+                result.completeExceptionally(new LuaException("Coroutine is closed"));
+                return false;
+            }
+            LuaState co = thread.getLuaState();
+            co.pushBoolean(error == null);
+            if (error == null) {
+                thread.rawPushObjectValue(value).justThrow();
+            } else {
+                co.pushString(error.getMessage() == null ? error.toString() : error.getMessage());
+            }
+            return true;
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return false;
+        } finally {
+            facade.unlock();
+        }
+    }
+
+    private static final class Request {
+        private final LuaAsyncFunction function;
+        private final Object[] args;
+
+        private Request(LuaAsyncFunction function, Object[] args) {
+            this.function = function;
+            this.args = args;
+        }
+
+        /**
+         * Calls async function without the state lock.
+         */
+        private CompletableFuture<?> invoke() {
+            CompletableFuture<?> pending;
+            try {
+                pending = function.apply(args);
+                if (pending == null) pending = CompletableFuture.completedFuture(null);
+            } catch (Exception e) {
+                pending = new CompletableFuture<>();
+                pending.completeExceptionally(e);
+            }
+            return pending;
+        }
+    }
+}
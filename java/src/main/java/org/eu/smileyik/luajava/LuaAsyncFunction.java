@@ -0,0 +1,42 @@
+/*
+ * LuaAsyncFunction.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A java function which returns a pending result, registered by
+ * {@link LuaStateFacade#registerAsyncFunction(String, LuaAsyncFunction)}.
+ * <p>
+ * It is called when the coroutine calling it is suspended and the state lock is released,
+ * so it must not block, just start the work and return a future.
+ */
+@FunctionalInterface
+public interface LuaAsyncFunction {
+    /**
+     * @param args arguments from lua
+     * @return pending result, its value is returned to lua. Null means returns nil immediately.
+     */
+    public CompletableFuture<?> apply(Object[] args) throws Exception;
+}
@@ -0,0 +1,109 @@
+/*
+ * LuaBorrowFrame.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+/**
+ * A java call from lua, whose lua object parameters are borrowed from stack.
+ * <p>
+ * While the frame is armed (converting parameters), new lua objects of positive stack index
+ * keep the index instead of a registry reference. Stack indexes are relative to the running
+ * lua call, so a borrowed object still open is anchored by registry before control leaves
+ * luajava, that is before the java method is invoked, because it may call lua again.
+ * Objects closed before that, such as tables converted to java arrays, never touch the registry.
+ * <p>
+ * Frames are guarded by the state lock.
+ */
+final class LuaBorrowFrame {
+    private final LuaBorrowFrame previous;
+    private LuaObject[] objects = null;
+    private int size = 0;
+    private boolean armed = false;
+
+    private LuaBorrowFrame(LuaBorrowFrame previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Starts a frame. Objects borrowed by outer frame are kept, their indexes are valid again
+     * when this frame exits.
+     */
+    static LuaBorrowFrame enter(LuaStateFacade facade) {
+        LuaBorrowFrame frame = new LuaBorrowFrame(facade.getBorrowFrame());
+        facade.setBorrowFrame(frame);
+        return frame;
+    }
+
+    /**
+     * Hides current frame while other java code called from lua is running,
+     * so its objects are never borrowed by the indexes of that call.
+     *
+     * @return the hidden frame, pass it to {@link #resume(LuaStateFacade, LuaBorrowFrame)}.
+     */
+    static LuaBorrowFrame suspend(LuaStateFacade facade) {
+        LuaBorrowFrame frame = facade.getBorrowFrame();
+        if (frame != null) facade.setBorrowFrame(null);
+        return frame;
+    }
+
+    static void resume(LuaStateFacade facade, LuaBorrowFrame frame) {
+        if (frame != null) facade.setBorrowFrame(frame);
+    }
+
+    void exit(LuaStateFacade facade) {
+        armed = false;
+        promoteAll();
+        facade.setBorrowFrame(previous);
+    }
+
+    boolean isArmed() {
+        return armed;
+    }
+
+    void setArmed(boolean armed) {
+        this.armed = armed;
+    }
+
+    void add(LuaObject object) {
+        if (objects == null) {
+            objects = new LuaObject[4];
+        } else if (size == objects.length) {
+            LuaObject[] newObjects = new LuaObject[size << 1];
+            System.arraycopy(objects, 0, newObjects, 0, size);
+            objects = newObjects;
+        }
+        objects[size++] = object;
+    }
+
+    /**
+     * Anchors objects still borrowed, must be called before control leaves luajava
+     * in this lua call, such as invoking the java method.
+     */
+    void promoteAll() {
+        for (int i = 0; i < size; i++) {
+            objects[i].promote();
+            objects[i] = null;
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * LuaCoroutineScheduler.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs many lua coroutines on one state.
+ * <p>
+ * Each spawned call runs in a pooled coroutine (see {@link LuaThread}) on the owner thread of a {@link LuaStateExecutor}.
+ * When it calls an async function (see {@link LuaStateFacade#registerAsyncFunction(String, LuaAsyncFunction)}),
+ * the coroutine is suspended and the owner thread goes on with other coroutines. The completed
+ * results are put in the executor queue, and the owner thread resumes their coroutines one by one.
+ * Async functions are called without the state lock, so the lock is never held while waiting for I/O.
+ */
+public class LuaCoroutineScheduler implements AutoCloseable {
+    private final LuaStateFacade facade;
+    private final LuaStateExecutor executor;
+    private final boolean ownExecutor;
+    private final Executor completionQueue;
+    private final Set<CompletableFuture<Object[]>> running = ConcurrentHashMap.newKeySet();
+    /**
+     * coroutines of started calls not finished, guarded by state lock.
+     */
+    private final Map<CompletableFuture<Object[]>, LuaThread> threads = new HashMap<>();
+    /**
+     * guarded by state lock.
+     */
+    private boolean closed = false;
+
+    /**
+     * Creates a scheduler with its own owner thread.
+     */
+    public LuaCoroutineScheduler(LuaStateFacade facade) {
+        this(facade.newExecutor(), true);
+    }
+
+    /**
+     * Creates a scheduler on an existing executor, the executor will not be closed with scheduler.
+     */
+    public LuaCoroutineScheduler(LuaStateExecutor executor) {
+        this(executor, false);
+    }
+
+    private LuaCoroutineScheduler(LuaStateExecutor executor, boolean ownExecutor) {
+        this.facade = executor.getFacade();
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.completionQueue = executor::post;
+    }
+
+    /**
+     * Calls a global function in a new coroutine.
+     *
+     * @param functionName global function name
+     * @param args         arguments
+     * @return values returned by function, or the lua error.
+     */
+    public CompletableFuture<Object[]> spawn(String functionName, Object... args) {
+        CompletableFuture<Object[]> result = new CompletableFuture<>();
+        running.add(result);
+        result.whenComplete((v, e) -> running.remove(result));
+        try {
+            executor.post(() -> start(result, functionName, args));
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Runs on owner thread without the state lock, so async functions are not called under the lock.
+     */
+    private void start(CompletableFuture<Object[]> result, String functionName, Object[] args) {
+        LuaThread thread = null;
+        facade.lock();
+        try {
+            if (closed) {
+                result.completeExceptionally(new IllegalStateException("LuaCoroutineScheduler is closed"));
+                return;
+            }
+            thread = facade.newLuaThread();
+            thread.getLuaState().getGlobal(functionName);
+            thread.rawPushObjectValues(args).justThrow(LuaException.class);
+            threads.put(result, thread);
+        } catch (Exception e) {
+            if (thread != null) {
+                threads.remove(result);
+                thread.close();
+            }
+            result.completeExceptionally(e);
+            return;
+        } finally {
+            facade.unlock();
+        }
+
+        LuaThread coroutine = thread;
+        LuaAsyncBridge.resume(facade, coroutine, args.length, completionQueue).whenComplete((n, e) -> {
+            facade.lock();
+            try {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(coroutine.rawToJavaObjects(1, n).getOrThrow());
+                }
+            } catch (Exception ex) {
+                result.completeExceptionally(ex);
+            } finally {
+                threads.remove(result);
+                coroutine.close();
+                facade.unlock();
+            }
+        });
+    }
+
+    /**
+     * @return count of spawned coroutines not finished.
+     */
+    public int getRunningCount() {
+        return running.size();
+    }
+
+    public LuaStateExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Fails all unfinished coroutines and releases them, and closes executor if it is created by this scheduler.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor) executor.close();
+        facade.lock();
+        try {
+            closed = true;
+            // suspended coroutines are never resumed, give their registry references back.
+            for (LuaThread thread : threads.values()) {
+                thread.close();
+            }
+            threads.clear();
+        } finally {
+            facade.unlock();
+        }
+        IllegalStateException e = new IllegalStateException("LuaCoroutineScheduler is closed");
+        for (CompletableFuture<Object[]> future : running) {
+            future.completeExceptionally(e);
+        }
+    }
+}
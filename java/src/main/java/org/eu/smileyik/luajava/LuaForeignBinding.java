@@ -0,0 +1,218 @@
+/*
+ * LuaForeignBinding.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+/**
+ * Optional binding for trivial lua stack functions which uses
+ * <code>java.lang.foreign</code> downcalls with critical linkage instead of JNI.
+ * It passes the raw lua state pointer, so there is no CPtr field read and no JNI transition.
+ * <p>
+ * Enable it by <code>-Dluajava.binding=ffm</code> on JDK 22+ (and <code>--enable-native-access</code>),
+ * the native library must be loaded before {@link LuaState} is initialized.
+ * If the foreign API or the leaf symbols is unavailable, {@link LuaState} falls back to JNI,
+ * and the reason is reported by {@link #getUnavailableReason()}.
+ * The API is accessed by reflection, so this class still compiles on old JDKs.
+ * <p>
+ * Only functions which can not run lua code are linked. <code>lua_settop</code> and
+ * <code>lua_pop</code> stay on JNI, they may call <code>__close</code> metamethods on lua 5.4.
+ */
+final class LuaForeignBinding {
+    /**
+     * system property to select the binding: <code>jni</code> (default) or <code>ffm</code>.
+     */
+    public static final String BINDING_PROPERTY = "luajava.binding";
+    public static final String BINDING_FFM = "ffm";
+
+    static final boolean ENABLED =
+            BINDING_FFM.equalsIgnoreCase(System.getProperty(BINDING_PROPERTY)) && isAvailable();
+
+    private LuaForeignBinding() {
+    }
+
+    /**
+     * Links the leaf functions if not linked yet.
+     *
+     * @return true if leaf functions could be called, no matter the binding is selected or not.
+     */
+    static boolean isAvailable() {
+        return Leaf.AVAILABLE;
+    }
+
+    /**
+     * Links the leaf functions if not linked yet.
+     *
+     * @return why leaf functions could not be linked, null if they are available.
+     */
+    static Throwable getUnavailableReason() {
+        return Leaf.UNAVAILABLE_REASON;
+    }
+
+    /**
+     * holds the linked handles, it is initialized on first use.
+     */
+    private static final class Leaf {
+        private static final boolean AVAILABLE;
+        private static final Throwable UNAVAILABLE_REASON;
+        private static final MethodHandle GET_TOP;
+        private static final MethodHandle TYPE;
+        private static final MethodHandle TO_NUMBER;
+        private static final MethodHandle PUSH_NUMBER;
+        private static final MethodHandle PUSH_BOOLEAN;
+        private static final MethodHandle RAW_GET_I;
+
+        static {
+            MethodHandle[] handles = null;
+            Throwable reason = null;
+            try {
+                handles = link();
+            } catch (InvocationTargetException e) {
+                reason = e.getCause();
+            } catch (Throwable e) {
+                reason = e;
+            }
+            AVAILABLE = handles != null;
+            UNAVAILABLE_REASON = reason;
+            GET_TOP = AVAILABLE ? handles[0] : null;
+            TYPE = AVAILABLE ? handles[1] : null;
+            TO_NUMBER = AVAILABLE ? handles[2] : null;
+            PUSH_NUMBER = AVAILABLE ? handles[3] : null;
+            PUSH_BOOLEAN = AVAILABLE ? handles[4] : null;
+            RAW_GET_I = AVAILABLE ? handles[5] : null;
+        }
+    }
+
+    /**
+     * link the leaf functions exported by luajava.c
+     */
+    private static MethodHandle[] link() throws Exception {
+        Class<?> linkerClass = Class.forName("java.lang.foreign.Linker");
+        Class<?> optionClass = Class.forName("java.lang.foreign.Linker$Option");
+        Class<?> lookupClass = Class.forName("java.lang.foreign.SymbolLookup");
+        Class<?> segmentClass = Class.forName("java.lang.foreign.MemorySegment");
+        Class<?> layoutClass = Class.forName("java.lang.foreign.MemoryLayout");
+        Class<?> valueLayoutClass = Class.forName("java.lang.foreign.ValueLayout");
+        Class<?> descriptorClass = Class.forName("java.lang.foreign.FunctionDescriptor");
+        Class<?> layoutArrayClass = Array.newInstance(layoutClass, 0).getClass();
+
+        Object linker = linkerClass.getMethod("nativeLinker").invoke(null);
+        Object lookup = lookupClass.getMethod("loaderLookup").invoke(null);
+        Object options = Array.newInstance(optionClass, 1);
+        Array.set(options, 0, optionClass.getMethod("critical", boolean.class).invoke(null, false));
+
+        Object jint = valueLayoutClass.getField("JAVA_INT").get(null);
+        Object jlong = valueLayoutClass.getField("JAVA_LONG").get(null);
+        Object jdouble = valueLayoutClass.getField("JAVA_DOUBLE").get(null);
+
+        Method find = lookupClass.getMethod("find", String.class);
+        Method of = descriptorClass.getMethod("of", layoutClass, layoutArrayClass);
+        Method ofVoid = descriptorClass.getMethod("ofVoid", layoutArrayClass);
+        Method downcall = linkerClass.getMethod("downcallHandle", segmentClass, descriptorClass, options.getClass());
+
+        Object[][] signatures = new Object[][] {
+                {"luajavaLeafGetTop", jint, new Object[] {jlong}},
+                {"luajavaLeafType", jint, new Object[] {jlong, jint}},
+                {"luajavaLeafToNumber", jdouble, new Object[] {jlong, jint}},
+                {"luajavaLeafPushNumber", null, new Object[] {jlong, jdouble}},
+                {"luajavaLeafPushBoolean", null, new Object[] {jlong, jint}},
+                {"luajavaLeafRawGetI", null, new Object[] {jlong, jint, jint}},
+        };
+        MethodHandle[] handles = new MethodHandle[signatures.length];
+        for (int i = 0; i < signatures.length; i++) {
+            Object[] signature = signatures[i];
+            Optional<?> symbol = (Optional<?>) find.invoke(lookup, signature[0]);
+            if (!symbol.isPresent()) {
+                throw new UnsatisfiedLinkError("symbol not found: " + signature[0]);
+            }
+            Object[] args = (Object[]) signature[2];
+            Object argLayouts = Array.newInstance(layoutClass, args.length);
+            for (int j = 0; j < args.length; j++) {
+                Array.set(argLayouts, j, args[j]);
+            }
+            Object descriptor = signature[1] == null ?
+                    ofVoid.invoke(null, argLayouts) : of.invoke(null, signature[1], argLayouts);
+            handles[i] = (MethodHandle) downcall.invoke(linker, symbol.get(), descriptor, options);
+        }
+        return handles;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new RuntimeException(t);
+    }
+
+    static int getTop(long peer) {
+        try {
+            return (int) Leaf.GET_TOP.invokeExact(peer);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int type(long peer, int idx) {
+        try {
+            return (int) Leaf.TYPE.invokeExact(peer, idx);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static double toNumber(long peer, int idx) {
+        try {
+            return (double) Leaf.TO_NUMBER.invokeExact(peer, idx);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void pushNumber(long peer, double number) {
+        try {
+            Leaf.PUSH_NUMBER.invokeExact(peer, number);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void pushBoolean(long peer, int bool) {
+        try {
+            Leaf.PUSH_BOOLEAN.invokeExact(peer, bool);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void rawGetI(long peer, int idx, int n) {
+        try {
+            Leaf.RAW_GET_I.invokeExact(peer, idx, n);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
@@ -92,6 +92,18 @@ public final class LuaJavaAPI {
         return reflectUtil;
     }
 
+    /**
+     * Finds the facade of the lua_State which called java, a coroutine reads its own stack.
+     *
+     * @param luaState state id
+     * @param peer     running lua_State
+     * @return facade of the running lua_State
+     */
+    private static LuaStateFacade getRunningState(int luaState, long peer) {
+        LuaStateFacade facade = LuaStateFactory.getExistingState(luaState);
+        return facade == null ? null : facade.forPeer(peer);
+    }
+
     public static int objectIter(int luaState) throws LuaException {
         LuaStateFacade facade = LuaStateFactory.getExistingState(luaState);
         LuaState l = facade.getLuaState();
@@ -137,11 +149,12 @@ public final class LuaJavaAPI {
     /**
      * concat object to string, at lease one string type.
      * @param luaState lua state
+     * @param peer     running lua_State
      * @return number of returned objects.
      * @throws LuaException
      */
-    public static int objectConcat(int luaState) throws LuaException {
-        LuaStateFacade facade = LuaStateFactory.getExistingState(luaState);
+    public static int objectConcat(int luaState, long peer) throws LuaException {
+        LuaStateFacade facade = getRunningState(luaState, peer);
         Object a = facade.rawToJavaObject(1).getOrThrow(LuaException.class);
         Object b = facade.rawToJavaObject(2).getOrThrow(LuaException.class);
         String ret = null;
@@ -160,12 +173,13 @@ public final class LuaJavaAPI {
      * Java implementation of the metamethod __index for normal objects
      *
      * @param luaState   int that indicates the state used
+     * @param peer       running lua_State
      * @param obj        Object to be indexed
      * @param methodName the name of the method
      * @param classIndex is class static method or object method.
      * @return number of returned objects
      */
-    public static int objectIndex(int luaState, Object obj, String methodName, boolean classIndex) throws Exception {
+    public static int objectIndex(int luaState, long peer, Object obj, String methodName, boolean classIndex) throws Exception {
         // remove method prefix
         if (methodName != null && methodName.startsWith(FORCE_ACCESS_METHOD_PREFIX)) {
             methodName = methodName.substring(FORCE_ACCESS_METHOD_PREFIX.length());
@@ -183,39 +197,54 @@ public final class LuaJavaAPI {
             clazz = obj.getClass();
         }
 
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
         LuaState L = luaStateFacade.getLuaState();
 
-        int top = L.getTop();
-        Object[] objs = new Object[top - 1];
-        IExecutable<Method> methodWrapper = findMethod(luaStateFacade, clazz, methodName, objs, top);
+        LuaBorrowFrame frame = LuaBorrowFrame.enter(luaStateFacade);
+        try {
+            int top = L.getTop();
+            Object[] objs = new Object[top - 1];
+            IExecutable<Method> methodWrapper = findMethod(luaStateFacade, clazz, methodName, objs, top);
 
-        // If method is null means there isn't one receiving the given arguments
-        if (methodWrapper == null) {
-            throw new LuaException(String.format("Invalid method call. No such method named '%s' in class %s", methodName, clazz.getName()));
-        }
+            // If method is null means there isn't one receiving the given arguments
+            if (methodWrapper == null) {
+                throw new LuaException(String.format("Invalid method call. No such method named '%s' in class %s", methodName, clazz.getName()));
+            }
 
-        Method method = methodWrapper.getExecutable();
-        Object ret = methodWrapper.invoke(Modifier.isStatic(method.getModifiers()) ? null : obj, objs);
+            Method method = methodWrapper.getExecutable();
+            // the method may call lua again, stack indexes are not valid in that call.
+            frame.promoteAll();
+            LuaStateMetrics metrics = luaStateFacade.getMetrics();
+            long token = metrics.enterCallback();
+            Object ret;
+            try {
+                ret = methodWrapper.invoke(Modifier.isStatic(method.getModifiers()) ? null : obj, objs);
+            } finally {
+                metrics.exitCallback(token);
+            }
 
-        // Void function returns null
-        if (ret == null) return 0;
-        // push result
-        luaStateFacade.rawPushObjectValue(ret).justThrow(LuaException.class);
-        return 1;
+            // Void function returns null
+            if (ret == null) return 0;
+            // push result
+            luaStateFacade.rawPushObjectValue(ret).justThrow(LuaException.class);
+            return 1;
+        } finally {
+            frame.exit(luaStateFacade);
+        }
     }
 
     /**
      * Java function that implements the __index for Java arrays
      *
      * @param luaState int that indicates the state used
+     * @param peer     running lua_State
      * @param obj      Object to be indexed
      * @param index    index number of array. Since Lua index starts from 1,
      *                 the number used will be (index - 1)
      * @return number of returned objects
      */
-    public static int arrayIndex(int luaState, Object obj, int index) throws LuaException {
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
+    public static int arrayIndex(int luaState, long peer, Object obj, int index) throws LuaException {
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
         if (!obj.getClass().isArray())
             throw new LuaException("Object indexed is not an array.");
         else if (Array.getLength(obj) < index)
@@ -228,19 +257,22 @@ public final class LuaJavaAPI {
     /**
      * Java function to be called when a java Class metamethod __index is called.
      * This function returns 1 if there is a field with searchName and 2 if there
-     * is a method if the searchName
+     * is a method if the searchName, the method cache key of the class is pushed for method.
      *
      * @param luaState   int that represents the state to be used
+     * @param peer       running lua_State
      * @param clazz      class to be indexed
      * @param searchName name of the field or method to be accessed
      * @return number of returned objects
      * @throws LuaException
      */
-    public static int classIndex(int luaState, Class<?> clazz, String searchName) throws LuaException {
-        int res = checkField(luaState, clazz, searchName);
+    public static int classIndex(int luaState, long peer, Class<?> clazz, String searchName) throws LuaException {
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
+        int res = checkField(luaStateFacade, clazz, searchName);
         if (res != 0) {
             return 1;
         } else if (checkClassMethod(luaState, clazz, searchName)) {
+            luaStateFacade.getLuaState().pushInteger(LuaState.methodCacheKey(clazz, true));
             return 2;
         }
         return 0;
@@ -250,14 +282,15 @@ public final class LuaJavaAPI {
      * Java function to be called when a java object metamethod __newindex is called.
      *
      * @param luaState  int that represents the state to be used
+     * @param peer      running lua_State
      * @param obj       to be used
      * @param fieldName name of the field to be set
      * @return number of returned objects
      * @throws LuaException
      */
-    public static int objectNewIndex(int luaState, Object obj, String fieldName) throws LuaException {
+    public static int objectNewIndex(int luaState, long peer, Object obj, String fieldName) throws LuaException {
         // like a.b = 1
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
         Class<?> targetClass = obj instanceof Class<?> ? (Class<?>) obj : obj.getClass();
         IFieldAccessor fieldAccessor = reflectUtil.findFieldByName(targetClass, fieldName,
                 false, false, false, luaStateFacade.isIgnoreNotPublic());
@@ -282,13 +315,14 @@ public final class LuaJavaAPI {
      * Java function to be called when a java array metamethod __newindex is called.
      *
      * @param luaState int that represents the state to be used
+     * @param peer     running lua_State
      * @param obj      to be used
      * @param index    index number of array. Since Lua index starts from 1,
      *                 the number used will be (index - 1)
      * @return number of returned objects
      * @throws LuaException
      */
-    public static int arrayNewIndex(int luaState, Object obj, int index)
+    public static int arrayNewIndex(int luaState, long peer, Object obj, int index)
             throws LuaException {
         if (!obj.getClass().isArray())
             throw new LuaException("Object indexed is not an array.");
@@ -296,7 +330,7 @@ public final class LuaJavaAPI {
             throw new LuaException("Index out of bounds.");
         Class<?> type = obj.getClass().getComponentType();
 
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
         LuaState l = luaStateFacade.getLuaState();
         Result<Object, Object> result = compareTypes(luaStateFacade, l, type, 3);
         if (result.isError()) {
@@ -312,27 +346,34 @@ public final class LuaJavaAPI {
      * Pushes a new instance of a java Object of the type className
      *
      * @param luaState  int that represents the state to be used
+     * @param peer      running lua_State
      * @param className name of the class
      * @return number of returned objects
      * @throws LuaException
      */
-    public static int javaNewInstance(int luaState, String className) throws Exception {
-        return javaNew(luaState, Class.forName(className));
+    public static int javaNewInstance(int luaState, long peer, String className) throws Exception {
+        return javaNew(luaState, peer, Class.forName(className));
     }
 
     /**
      * javaNew returns a new instance of a given clazz
      *
      * @param luaState int that represents the state to be used
+     * @param peer     running lua_State
      * @param clazz    class to be instanciated
      * @return number of returned objects
      * @throws LuaException
      */
-    public static int javaNew(int luaState, Class<?> clazz) throws LuaException {
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
-        Object ret = getObjInstance(luaStateFacade, luaStateFacade.getLuaState(), clazz);
-        luaStateFacade.rawPushObjectValue(ret);
-        return 1;
+    public static int javaNew(int luaState, long peer, Class<?> clazz) throws LuaException {
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
+        LuaBorrowFrame frame = LuaBorrowFrame.enter(luaStateFacade);
+        try {
+            Object ret = getObjInstance(luaStateFacade, luaStateFacade.getLuaState(), clazz);
+            luaStateFacade.rawPushObjectValue(ret);
+            return 1;
+        } finally {
+            frame.exit(luaStateFacade);
+        }
     }
 
     /**
@@ -340,14 +381,15 @@ public final class LuaJavaAPI {
      * that receives a LuaState as first parameter.
      *
      * @param luaState   int that represents the state to be used
+     * @param peer       running lua_State
      * @param className  name of the class that has the open library method
      * @param methodName method to open library
      * @return number of returned objects
      * @throws LuaException
      */
-    public static int javaLoadLib(int luaState, String className, String methodName) throws Exception {
+    public static int javaLoadLib(int luaState, long peer, String className, String methodName) throws Exception {
         Class<?> clazz = Class.forName(className);
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
         try {
             Method mt = clazz.getMethod(methodName, LuaState.class);
             Object obj = mt.invoke(null, luaStateFacade.getLuaState());
@@ -362,6 +404,30 @@ public final class LuaJavaAPI {
         }
     }
 
+    /**
+     * Java implementation of the metamethod __index for normal objects,
+     * checks field and method in one call.
+     * If there is a field with the given name then push it value to stack.
+     *
+     * @param luaState  int that represents the state to be used
+     * @param peer      running lua_State
+     * @param obj       object to be inspected
+     * @param name      name of the field or method
+     * @return 1 if field value pushed, 2 if there is a method with the given name
+     *         and the method cache key of the class pushed, otherwise 0
+     */
+    public static int objectMemberIndex(int luaState, long peer, Object obj, String name) throws LuaException {
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
+        if (checkField(luaStateFacade, obj, name) != 0) {
+            return 1;
+        }
+        if (!checkMethod(luaStateFacade, obj, name)) {
+            return 0;
+        }
+        luaStateFacade.getLuaState().pushInteger(LuaState.methodCacheKey(obj.getClass(), false));
+        return 2;
+    }
+
     /**
      * Checks if there is a field on the obj with the given name
      *
@@ -371,11 +437,14 @@ public final class LuaJavaAPI {
      * @return number of returned objects
      */
     public static int checkField(int luaState, Object obj, String fieldName) throws LuaException {
+        return checkField(LuaStateFactory.getExistingState(luaState), obj, fieldName);
+    }
+
+    private static int checkField(LuaStateFacade luaStateFacade, Object obj, String fieldName) throws LuaException {
         if (obj == null) return 0;
         // if it has force access method prefix then ignore check field.
         if (fieldName == null || fieldName.startsWith(FORCE_ACCESS_METHOD_PREFIX)) return 0;
 
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
         Class<?> targetClass = obj instanceof Class<?> ? (Class<?>) obj : obj.getClass();
         boolean isStatic = targetClass == obj;
         IFieldAccessor fieldAccessor = reflectUtil.findFieldByName(targetClass, fieldName,
@@ -398,6 +467,10 @@ public final class LuaJavaAPI {
      * @return return 1 then means has method named target name
      */
     public static boolean checkMethod(int luaState, Object obj, String methodName) {
+        return checkMethod(LuaStateFactory.getExistingState(luaState), obj, methodName);
+    }
+
+    private static boolean checkMethod(LuaStateFacade luaStateFacade, Object obj, String methodName) {
         if (obj == null) return false;
         // remove method prefix
         if (methodName != null && methodName.startsWith(FORCE_ACCESS_METHOD_PREFIX)) {
@@ -406,7 +479,6 @@ public final class LuaJavaAPI {
         }
 
         Class<?> clazz = obj.getClass();
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
         return reflectUtil.existsMethodByName(
                 clazz, methodName, luaStateFacade.isIgnoreNotPublic(), false, false);
     }
@@ -432,13 +504,14 @@ public final class LuaJavaAPI {
      * Function that creates an object proxy and pushes it into the stack
      *
      * @param luaState int that represents the state to be used
+     * @param peer     running lua_State
      * @param implem   interfaces implemented separated by comma (<code>,</code>)
      * @return number of returned objects
      * @throws LuaException
      */
-    public static int createProxyObject(int luaState, String implem)
+    public static int createProxyObject(int luaState, long peer, String implem)
             throws LuaException {
-        LuaStateFacade luaStateFacade = LuaStateFactory.getExistingState(luaState);
+        LuaStateFacade luaStateFacade = getRunningState(luaState, peer);
         LuaState L = luaStateFacade.getLuaState();
         if (!(L.isTable(2))) {
             throw new LuaException("Parameter is not a table. Can't create proxy.");
@@ -468,11 +541,13 @@ public final class LuaJavaAPI {
      * get lua params from lua state stack
      */
     private static Object[] getLuaParams(LuaStateFacade luaStateFacade, int paramsCount) throws LuaException {
-        Object[] objs = new Object[paramsCount];
-        for (int i = 0; i < paramsCount; i++) {
-            objs[i] = luaStateFacade.rawToJavaObject(i + 2).getOrThrow(LuaException.class);
+        LuaBorrowFrame frame = luaStateFacade.getBorrowFrame();
+        if (frame != null) frame.setArmed(true);
+        try {
+            return luaStateFacade.rawToJavaObjects(2, paramsCount).getOrThrow(LuaException.class);
+        } finally {
+            if (frame != null) frame.setArmed(false);
         }
-        return objs;
     }
 
     /**
@@ -498,6 +573,9 @@ public final class LuaJavaAPI {
                 closeParamsObject(old);
             }
         });
+        // the constructor may call lua again, stack indexes are not valid in that call.
+        LuaBorrowFrame frame = luaStateFacade.getBorrowFrame();
+        if (frame != null) frame.promoteAll();
         Object ret;
         try {
             ret = result.getExecutable().invoke(null, objs);
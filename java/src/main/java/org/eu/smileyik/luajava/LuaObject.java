@@ -51,6 +51,7 @@ import org.eu.smileyik.luajava.exception.Result;
 import org.eu.smileyik.luajava.type.*;
 import org.eu.smileyik.luajava.util.ResourceCleaner;
 
+import java.lang.ref.PhantomReference;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 import java.util.Objects;
@@ -81,16 +82,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * @author Thiago Ponte
  */
 public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
-    private static final class CleanTask implements Runnable {
+    static final class CleanTask implements Runnable {
         private final LuaStateFacade luaState;
         private final Integer ref;
         private final AtomicBoolean closed = new AtomicBoolean(false);
+        private PhantomReference<Object> reference;
 
         private CleanTask(LuaStateFacade luaState, Integer ref) {
             this.luaState = luaState;
             this.ref = ref;
         }
 
+        /**
+         * Called by cleaner thread, just queues the reference, it will be released with others
+         * next time the state locked.
+         */
         @Override
         public void run() {
             if (!closed.compareAndSet(false, true)) {
@@ -100,6 +106,37 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
             else if (luaState.isClosed()) {
                 return;
             }
+            luaState.getRefQueue().add(ref);
+        }
+
+        /**
+         * Marks this task done without releasing the reference, used by arena.
+         *
+         * @return the reference if it is not released yet, otherwise null.
+         */
+        Integer takeRef() {
+            return closed.compareAndSet(false, true) ? ref : null;
+        }
+
+        /**
+         * @return true if the reference is released or taken by arena, it may be reused by other values.
+         */
+        boolean isReleased() {
+            return closed.get();
+        }
+
+        /**
+         * Called by close, releases the reference immediately.
+         */
+        private void release() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            ResourceCleaner.getInstance().cancel(reference);
+            // if lua state is closed that means this object also be cleaned.
+            if (luaState.isClosed()) {
+                return;
+            }
             try {
                 luaState.lock(L -> {
                     if (L.getCPtrPeer() != 0)
@@ -114,9 +151,24 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
     protected Integer ref;
     protected long luaPointer;
     protected boolean gotLuaPointer = false;
+    /**
+     * lua type captured when object created.
+     */
+    protected int luaType = LuaType.NONE;
 
     protected final LuaStateFacade luaState;
-    private final CleanTask cleanTask;
+    /**
+     * null if object is borrowed from stack and not anchored yet.
+     */
+    private CleanTask cleanTask;
+    /**
+     * positive stack index if object is borrowed from stack, guarded by state lock.
+     */
+    private int stackIndex = 0;
+    /**
+     * true if a borrowed object is closed before anchored.
+     */
+    private boolean released = false;
 
     /**
      * Creates a reference to an object in the given index of the stack
@@ -127,15 +179,65 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
      * @see LuaObject#create(LuaStateFacade, int)
      */
     protected LuaObject(LuaStateFacade luaState, int index) {
-        this.luaState = luaState;
+        // objects read from a coroutine stack are bound to its parent.
+        this.luaState = luaState.getOwner();
         LuaState L = luaState.getLuaState();
-        L.pushValue(index);
-        ref = L.Lref(LuaState.LUA_REGISTRYINDEX);
+        LuaBorrowFrame frame = luaState.getBorrowFrame();
+        if (frame != null && frame.isArmed() && index > 0 && this.luaState == luaState) {
+            // parameter of a java call, anchor it only if it outlives the call.
+            long[] info = L.valueInfoBuffer;
+            L.valueInfo(index, info);
+            setValueInfo(info);
+            stackIndex = index;
+            frame.add(this);
+        } else {
+            anchor(L, index);
+        }
+    }
+
+    /**
+     * Creates a detached object, it holds no registry reference and is not registered to cleaner.
+     * Subclass must keep the value by itself and override {@link #rawPush()}.
+     *
+     * @param luaState lua state
+     */
+    protected LuaObject(LuaStateFacade luaState) {
+        this.luaState = luaState.getOwner();
+        this.luaPointer = 0;
+        this.gotLuaPointer = true;
+    }
+
+    private void setValueInfo(long[] info) {
+        luaType = (int) info[0];
+        luaPointer = info[1];
+        gotLuaPointer = true;
+    }
+
+    private void anchor(LuaState L, int index) {
+        long[] info = L.valueInfoBuffer;
+        ref = L.refValue(index, info);
+        setValueInfo(info);
         CleanTask cleanTask = new CleanTask(luaState, ref);
-        ResourceCleaner.getInstance().register(this, cleanTask);
+        LuaArena arena = LuaArena.current(luaState);
+        if (arena == null) {
+            cleanTask.reference = ResourceCleaner.getInstance().register(this, cleanTask);
+        } else {
+            arena.add(cleanTask);
+        }
         this.cleanTask = cleanTask;
     }
 
+    /**
+     * Anchors a stack borrowed object by registry, called when its call frame ends
+     * or another java call starts. State lock must be held.
+     */
+    void promote() {
+        if (ref != null || stackIndex == 0) return;
+        int index = stackIndex;
+        stackIndex = 0;
+        anchor(luaState.getLuaState(), index);
+    }
+
     /**
      * Creates a reference to an object in the given index of the stack
      *
@@ -257,12 +359,28 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
 
     @Override
     public void close() {
-        cleanTask.run();
+        if (cleanTask == null) {
+            // borrowed object is not anchored, just forget its stack slot.
+            if (stackIndex != 0) {
+                stackIndex = 0;
+                released = true;
+            }
+            return;
+        }
+        cleanTask.release();
     }
 
     @Override
     public boolean isClosed() {
-        return luaState == null || luaState.isClosed();
+        return luaState == null || luaState.isClosed() || isReleased();
+    }
+
+    /**
+     * @return true if the reference is released by {@link #close()} or {@link LuaArena},
+     *         the registry slot may hold another value now.
+     */
+    private boolean isReleased() {
+        return released || cleanTask != null && cleanTask.isReleased();
     }
 
     /**
@@ -280,17 +398,24 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
     public void push() {
         if (isClosed()) return;
         luaState.lock(l -> {
-            l.rawGetI(LuaState.LUA_REGISTRYINDEX, ref);
+            rawPush();
         });
     }
 
     @Override
     public void rawPush() {
-        luaState.getLuaState().rawGetI(LuaState.LUA_REGISTRYINDEX, ref);
+        if (isReleased()) {
+            // keep the stack balanced, never push the value reused the reference.
+            luaState.getLuaState().pushNil();
+        } else if (ref == null) {
+            luaState.getLuaState().pushValue(stackIndex);
+        } else {
+            luaState.getLuaState().rawGetI(LuaState.LUA_REGISTRYINDEX, ref);
+        }
     }
 
     public boolean isJavaObject() {
-        if (isClosed()) return false;
+        if (isClosed() || type() != LuaType.USERDATA) return false;
         return luaState.lock(luaState -> {
             push();
             boolean bool = luaState.isObject(-1);
@@ -300,7 +425,7 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
     }
 
     public boolean isJavaFunction() {
-        if (isClosed()) return false;
+        if (isClosed() || type() != LuaType.USERDATA) return false;
         return luaState.lock(luaState -> {
             push();
             boolean bool = luaState.isJavaFunction(-1);
@@ -311,12 +436,7 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
 
     public int type() {
         if (isClosed()) return LuaType.NIL;
-        return luaState.lock(luaState -> {
-            push();
-            int type = luaState.type(-1);
-            luaState.pop(1);
-            return type;
-        });
+        return luaType;
     }
 
     public boolean getBoolean() {
@@ -360,32 +480,28 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
     }
 
     public String toString() {
-        return luaState.lock(luaState -> {
-            try {
-                if (isNil())
-                    return "nil";
-                else if (isBoolean())
-                    return String.valueOf(getBoolean());
-                else if (isNumber())
-                    return String.valueOf(getNumber());
-                else if (isString())
-                    return getString();
-                else if (isFunction())
-                    return "Lua Function";
-                else if (isJavaObject())
-                    return getObject().toString();
-                else if (isUserdata())
-                    return "Userdata";
-                else if (isTable())
-                    return "Lua Table";
-                else if (isJavaFunction())
-                    return "Java Function";
-                else
+        switch (type()) {
+            case LuaType.NIL:
+                return "nil";
+            case LuaType.BOOLEAN:
+                return String.valueOf(getBoolean());
+            case LuaType.NUMBER:
+                return String.valueOf(getNumber());
+            case LuaType.STRING:
+                return getString();
+            case LuaType.FUNCTION:
+                return "Lua Function";
+            case LuaType.USERDATA:
+                try {
+                    return isJavaObject() ? getObject().toString() : "Userdata";
+                } catch (LuaException e) {
                     return null;
-            } catch (LuaException e) {
+                }
+            case LuaType.TABLE:
+                return "Lua Table";
+            default:
                 return null;
-            }
-        });
+        }
     }
 
     @Override
@@ -419,6 +535,7 @@ public class LuaObject implements ILuaObject, IInnerLuaObject, AutoCloseable {
 
     public long getLuaPointer() {
         if (isClosed()) return 0;
+        if (gotLuaPointer) return luaPointer;
         return luaState.lock(l -> {
             return rawGetLuaPointer();
         });
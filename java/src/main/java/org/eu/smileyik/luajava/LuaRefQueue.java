@@ -0,0 +1,130 @@
+/*
+ * LuaRefQueue.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.util.ResourceCleaner;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Registry references of a lua state released by {@link ResourceCleaner}.
+ * <p>
+ * The cleaner thread only appends references here, it never waits for the state lock.
+ * They are released in one native call when the state lock is taken next time,
+ * or by the cleaner thread if the lock is free when it is idle or too many are pending.
+ */
+final class LuaRefQueue {
+    private static final int FLUSH_THRESHOLD = 256;
+    private static final Set<LuaRefQueue> PENDING = ConcurrentHashMap.newKeySet();
+
+    static {
+        ResourceCleaner.getInstance().addIdleTask(LuaRefQueue::flushPending);
+    }
+
+    private final LuaStateFacade facade;
+    /**
+     * guarded by this.
+     */
+    private int[] refs = new int[16];
+    private int size = 0;
+    /**
+     * swapped with refs when draining, guarded by state lock.
+     */
+    private int[] spare = new int[16];
+    private volatile boolean pending = false;
+
+    LuaRefQueue(LuaStateFacade facade) {
+        this.facade = facade;
+    }
+
+    void add(int ref) {
+        boolean flush;
+        synchronized (this) {
+            if (size == refs.length) {
+                int[] newRefs = new int[size << 1];
+                System.arraycopy(refs, 0, newRefs, 0, size);
+                refs = newRefs;
+            }
+            refs[size++] = ref;
+            pending = true;
+            flush = size >= FLUSH_THRESHOLD;
+        }
+        PENDING.add(this);
+        if (flush) tryFlush();
+    }
+
+    boolean hasPending() {
+        return pending;
+    }
+
+    /**
+     * Releases pending references, state lock must be held by current thread.
+     */
+    void drain() {
+        if (!pending) return;
+        int[] batch;
+        int n;
+        synchronized (this) {
+            batch = refs;
+            n = size;
+            refs = spare;
+            size = 0;
+            pending = false;
+        }
+        spare = batch;
+        // refs of closed state are already freed by lua_close.
+        if (!facade.isClosed()) {
+            facade.getLuaState().unrefBatch(LuaState.LUA_REGISTRYINDEX, batch, n);
+        }
+    }
+
+    /**
+     * Drains if state lock is free.
+     *
+     * @return true if drained.
+     */
+    boolean tryFlush() {
+        Lock lock = facade.getLock();
+        if (!lock.tryLock()) return false;
+        try {
+            drain();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    private static void flushPending() {
+        for (LuaRefQueue queue : PENDING) {
+            PENDING.remove(queue);
+            if (queue.facade.isClosed()) continue;
+            // new refs may be added while flushing, keep it for next time.
+            if (!queue.tryFlush() || queue.hasPending()) {
+                PENDING.add(queue);
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * LuaSession.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.exception.Result;
+
+/**
+ * A session holds the lock of {@link LuaStateFacade} until closed,
+ * so a batch of stack operations can be done without locking for each call.
+ * Use it with try-with-resources and do not pass it to other threads:
+ * <pre>
+ * try (LuaSession session = facade.openSession()) {
+ *     session.getGlobal("a");
+ *     double a = session.toNumber(-1);
+ *     session.pop(1);
+ * }
+ * </pre>
+ * Set system property <code>luajava.session.check=true</code> to verify the
+ * owner thread on every operation, this check is removed by JIT when disabled.
+ */
+public final class LuaSession implements AutoCloseable {
+    public static final String CHECK_PROPERTY = "luajava.session.check";
+    private static final boolean CHECK_OWNER = Boolean.getBoolean(CHECK_PROPERTY);
+
+    private final LuaStateFacade facade;
+    private final LuaState luaState;
+    private final Thread owner;
+    private boolean closed;
+
+    /**
+     * facade's lock must be held by current thread.
+     */
+    LuaSession(LuaStateFacade facade, LuaState luaState) {
+        this.facade = facade;
+        this.luaState = luaState;
+        this.owner = CHECK_OWNER ? Thread.currentThread() : null;
+    }
+
+    private void checkOwner() {
+        if (closed) {
+            throw new IllegalStateException("LuaSession is closed");
+        }
+        if (owner != Thread.currentThread()) {
+            throw new IllegalStateException("LuaSession is owned by " + owner.getName() +
+                    ", but accessed by " + Thread.currentThread().getName());
+        }
+    }
+
+    private LuaState state() {
+        if (CHECK_OWNER) checkOwner();
+        return luaState;
+    }
+
+    public LuaStateFacade getFacade() {
+        return facade;
+    }
+
+    /**
+     * @return lua state, it is safe to use until session closed.
+     */
+    public LuaState getLuaState() {
+        return state();
+    }
+
+    /**
+     * Releases the lock, calling it more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        if (CHECK_OWNER) checkOwner();
+        closed = true;
+        facade.unlock();
+    }
+
+    // STACK MANIPULATION
+
+    public int getTop() {
+        return state().getTop();
+    }
+
+    public void setTop(int idx) {
+        state().setTop(idx);
+    }
+
+    public void pop(int n) {
+        state().pop(n);
+    }
+
+    public void pushValue(int idx) {
+        state().pushValue(idx);
+    }
+
+    public void remove(int idx) {
+        state().remove(idx);
+    }
+
+    public void insert(int idx) {
+        state().insert(idx);
+    }
+
+    public void replace(int idx) {
+        state().replace(idx);
+    }
+
+    public int checkStack(int sz) {
+        return state().checkStack(sz);
+    }
+
+    // ACCESS FUNCTION
+
+    public boolean isNumber(int idx) {
+        return state().isNumber(idx);
+    }
+
+    public boolean isString(int idx) {
+        return state().isString(idx);
+    }
+
+    public boolean isFunction(int idx) {
+        return state().isFunction(idx);
+    }
+
+    public boolean isUserdata(int idx) {
+        return state().isUserdata(idx);
+    }
+
+    public boolean isTable(int idx) {
+        return state().isTable(idx);
+    }
+
+    public boolean isBoolean(int idx) {
+        return state().isBoolean(idx);
+    }
+
+    public boolean isNil(int idx) {
+        return state().isNil(idx);
+    }
+
+    public boolean isNone(int idx) {
+        return state().isNone(idx);
+    }
+
+    public boolean isNoneOrNil(int idx) {
+        return state().isNoneOrNil(idx);
+    }
+
+    public int type(int idx) {
+        return state().type(idx);
+    }
+
+    public double toNumber(int idx) {
+        return state().toNumber(idx);
+    }
+
+    public int toInteger(int idx) {
+        return state().toInteger(idx);
+    }
+
+    public boolean toBoolean(int idx) {
+        return state().toBoolean(idx);
+    }
+
+    public String toString(int idx) {
+        return state().toString(idx);
+    }
+
+    public int strLen(int idx) {
+        return state().strLen(idx);
+    }
+
+    public int objLen(int idx) {
+        return state().objLen(idx);
+    }
+
+    public int rawLen(int idx) {
+        return state().rawLen(idx);
+    }
+
+    // PUSH FUNCTIONS
+
+    public void pushNil() {
+        state().pushNil();
+    }
+
+    public void pushNumber(double db) {
+        state().pushNumber(db);
+    }
+
+    public void pushInteger(int integer) {
+        state().pushInteger(integer);
+    }
+
+    public void pushString(String str) {
+        state().pushString(str);
+    }
+
+    public void pushString(byte[] bytes) {
+        state().pushString(bytes);
+    }
+
+    public void pushBoolean(boolean bool) {
+        state().pushBoolean(bool);
+    }
+
+    // GET FUNCTIONS
+
+    public void getTable(int idx) {
+        state().getTable(idx);
+    }
+
+    public void getField(int idx, String k) {
+        state().getField(idx, k);
+    }
+
+    public void rawGet(int idx) {
+        state().rawGet(idx);
+    }
+
+    public void rawGetI(int idx, int n) {
+        state().rawGetI(idx, n);
+    }
+
+    public void getGlobal(String global) {
+        state().getGlobal(global);
+    }
+
+    public void createTable(int narr, int nrec) {
+        state().createTable(narr, nrec);
+    }
+
+    public void newTable() {
+        state().newTable();
+    }
+
+    public int next(int idx) {
+        return state().next(idx);
+    }
+
+    // SET FUNCTIONS
+
+    public void setTable(int idx) {
+        state().setTable(idx);
+    }
+
+    public void setField(int idx, String k) {
+        state().setField(idx, k);
+    }
+
+    public void rawSet(int idx) {
+        state().rawSet(idx);
+    }
+
+    public void rawSetI(int idx, int n) {
+        state().rawSetI(idx, n);
+    }
+
+    public void setGlobal(String name) {
+        state().setGlobal(name);
+    }
+
+    // JAVA OBJECTS
+
+    public Result<Void, LuaException> pcall(int nArgs, int nResults, int errFunc) {
+        state();
+        return facade.doPcall(nArgs, nResults, errFunc);
+    }
+
+    public Result<Object, ? extends LuaException> toJavaObject(int idx) {
+        state();
+        return facade.rawToJavaObject(idx);
+    }
+
+    public Result<Object[], ? extends LuaException> toJavaObjects(int from, int count) {
+        state();
+        return facade.rawToJavaObjects(from, count);
+    }
+
+    public Result<Void, ? extends LuaException> pushObjectValue(Object obj) {
+        state();
+        return facade.rawPushObjectValue(obj);
+    }
+
+    public Result<Void, ? extends LuaException> pushObjectValues(Object[] objs) {
+        state();
+        return facade.rawPushObjectValues(objs);
+    }
+
+    public Result<LuaObject, ? extends LuaException> getLuaObject(int idx) {
+        state();
+        return facade.rawGetLuaObject(idx);
+    }
+}
@@ -48,9 +48,15 @@
 package org.eu.smileyik.luajava;
 
 import org.eu.smileyik.luajava.debug.LuaDebug;
+import org.eu.smileyik.luajava.util.Utf8CharSequence;
+import org.eu.smileyik.luajava.util.Utf8Helper;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * LuaState if the main class of LuaJava for the Java developer.
@@ -161,6 +167,20 @@ public class LuaState {
     public static final int LUA_OPLT = 1;
     public static final int LUA_OPLE = 2;
 
+    private static final int STRING_BUFFER_SIZE = 256;
+    private static final int MAX_STRING_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * key of the method cache table of each class in registry, objects of same class share one table.
+     */
+    private static final AtomicInteger METHOD_CACHE_KEY_COUNTER = new AtomicInteger();
+    private static final ClassValue<Integer> METHOD_CACHE_KEYS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return METHOD_CACHE_KEY_COUNTER.incrementAndGet();
+        }
+    };
+
     /**
      * Opens the library containing the luajava API
      */
@@ -205,8 +225,25 @@ public class LuaState {
         }
     }
 
-    private CPtr luaState;
-    private final AtomicBoolean closed = new AtomicBoolean(false);
+    /**
+     * raw lua_State pointer, it will never change during the lifetime of this object.
+     * do not pass it to native after state closed, use {@link #peer()} instead.
+     */
+    private final long peer;
+    /**
+     * coroutines share the closed flag of their main state.
+     */
+    private final AtomicBoolean closed;
+    private final boolean coroutine;
+    /**
+     * reusable buffer to move strings between lua and java, guarded by state lock.
+     */
+    private byte[] stringBuffer = new byte[STRING_BUFFER_SIZE];
+
+    /**
+     * reusable buffer for {@link #refValue(int, long[])}, guarded by state lock.
+     */
+    final long[] valueInfoBuffer = new long[2];
 
     /**
      * Constructor to instance a new LuaState and initialize it with LuaJava's functions
@@ -214,8 +251,7 @@ public class LuaState {
      * @param stateId
      */
     protected LuaState(int stateId) {
-        luaState = _open();
-        luajava_open(luaState, stateId);
+        this(_open(), stateId);
     }
 
     /**
@@ -224,37 +260,70 @@ public class LuaState {
      * @param luaState
      */
     protected LuaState(CPtr luaState, int stateId) {
-        this.luaState = luaState;
-        luajava_open(luaState, stateId);
+        this.peer = luaState == null ? 0 : luaState.getPeer();
+        this.closed = new AtomicBoolean(false);
+        this.coroutine = false;
+        if (this.peer == 0) {
+            closed.set(true);
+        } else {
+            luajava_open(peer, stateId);
+        }
+    }
+
+    /**
+     * Wraps a coroutine of an opened state. It shares the luajava data of main state,
+     * so it is not opened again, and it is closed together with main state.
+     *
+     * @param main       main state
+     * @param threadPeer lua_State pointer of coroutine
+     */
+    LuaState(LuaState main, long threadPeer) {
+        this.peer = threadPeer;
+        this.closed = main.closed;
+        this.coroutine = true;
     }
 
     // LuaLibAux
-    private static native int _LdoFile(CPtr ptr, String fileName);
+    private static native int _LdoFile(long ptr, String fileName);
 
     /**
      * Closes state and removes the object from the LuaStateFactory
      */
     protected void clearRef() {
-        if (!isClosed() && closed.compareAndSet(false, true)) {
-            _close(luaState);
-            this.luaState = null;
+        if (coroutine) return;
+        if (closed.compareAndSet(false, true)) {
+            _close(peer);
         }
     }
 
+    /**
+     * Returns the lua_State pointer that can be passed to native.
+     * The pointer of a closed state is already freed, so it must not be reused.
+     *
+     * @return lua_State pointer
+     * @throws IllegalStateException if state is closed.
+     */
+    private long peer() {
+        if (closed.get()) {
+            throw new IllegalStateException("LuaState is closed");
+        }
+        return peer;
+    }
+
     /**
      * Returns <code>true</code> if state is closed.
      */
     public boolean isClosed() {
-        return luaState == null || luaState.getPeer() == 0 || closed.get();
+        return closed.get();
     }
 
     /**
      * Return the long representing the LuaState pointer
      *
-     * @return long
+     * @return long, 0 if state is closed.
      */
     public long getCPtrPeer() {
-        return (luaState != null) ? luaState.getPeer() : 0;
+        return closed.get() ? 0 : peer;
     }
 
     @Override
@@ -262,12 +331,12 @@ public class LuaState {
         if (this == object) return true;
         if (object == null || getClass() != object.getClass()) return false;
         LuaState luaState1 = (LuaState) object;
-        return Objects.equals(luaState, luaState1.luaState);
+        return peer == luaState1.peer;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(luaState);
+        return Long.hashCode(peer);
     }
 
     /********************* Lua Native Interface *************************/
@@ -277,109 +346,111 @@ public class LuaState {
     private static native int _luaGlobalsIndex();
     private static native int _longSize();
 
-    private native CPtr _open();
+    private static native CPtr _open();
 
-    private native void _close(CPtr ptr);
+    private native void _close(long ptr);
 
-    private native CPtr _newthread(CPtr ptr);
+    private native CPtr _newthread(long ptr);
 
     // Stack manipulation
-    private native int _getTop(CPtr ptr);
+    private native int _getTop(long ptr);
 
-    private native void _setTop(CPtr ptr, int idx);
+    private native void _setTop(long ptr, int idx);
 
-    private native void _pushValue(CPtr ptr, int idx);
+    private native void _pushValue(long ptr, int idx);
 
-    private native void _remove(CPtr ptr, int idx);
+    private native void _remove(long ptr, int idx);
 
-    private native void _insert(CPtr ptr, int idx);
+    private native void _insert(long ptr, int idx);
 
-    private native void _replace(CPtr ptr, int idx);
+    private native void _replace(long ptr, int idx);
 
-    private native int _checkStack(CPtr ptr, int sz);
+    private native int _checkStack(long ptr, int sz);
 
-    private native void _xmove(CPtr from, CPtr to, int n);
+    private native void _xmove(long from, long to, int n);
 
     // Access functions
-    private native int _isNumber(CPtr ptr, int idx);
+    private native int _isNumber(long ptr, int idx);
 
-    private native int _isString(CPtr ptr, int idx);
+    private native int _isString(long ptr, int idx);
 
-    private native int _isCFunction(CPtr ptr, int idx);
+    private native int _isCFunction(long ptr, int idx);
 
-    private native int _isUserdata(CPtr ptr, int idx);
+    private native int _isUserdata(long ptr, int idx);
 
-    private native int _type(CPtr ptr, int idx);
+    private native int _type(long ptr, int idx);
 
-    private native String _typeName(CPtr ptr, int tp);
+    private native String _typeName(long ptr, int tp);
 
-    private native int _equal(CPtr ptr, int idx1, int idx2);
+    private native int _equal(long ptr, int idx1, int idx2);
 
-    private native int _rawequal(CPtr ptr, int idx1, int idx2);
+    private native int _rawequal(long ptr, int idx1, int idx2);
 
-    private native int _lessthan(CPtr ptr, int idx1, int idx2);
+    private native int _lessthan(long ptr, int idx1, int idx2);
 
-    private native double _toNumber(CPtr ptr, int idx);
+    private native double _toNumber(long ptr, int idx);
 
-    private native int _toInteger(CPtr ptr, int idx);
+    private native int _toInteger(long ptr, int idx);
 
-    private native int _toBoolean(CPtr ptr, int idx);
+    private native int _toNumberValue(long ptr, int idx, long[] value);
 
-    private native String _toString(CPtr ptr, int idx);
+    private native int _toBoolean(long ptr, int idx);
 
-    private native long _toPointer(CPtr ptr, int idx);
+    private native int _toStringBytes(long ptr, int idx, byte[] buffer);
 
-    private native int _objlen(CPtr ptr, int idx);
+    private native long _toPointer(long ptr, int idx);
 
-    private native CPtr _toThread(CPtr ptr, int idx);
+    private native int _objlen(long ptr, int idx);
+
+    private native CPtr _toThread(long ptr, int idx);
 
     // Push functions
-    private native void _pushNil(CPtr ptr);
+    private native void _pushNil(long ptr);
 
-    private native void _pushNumber(CPtr ptr, double number);
+    private native void _pushNumber(long ptr, double number);
 
-    private native void _pushInteger(CPtr ptr, int integer);
+    private native void _pushInteger(long ptr, int integer);
 
-    private native void _pushString(CPtr ptr, String str);
+    private native void _pushLong(long ptr, long integer);
 
-    private native void _pushString(CPtr ptr, byte[] bytes, int n);
+    private native void _pushString(long ptr, byte[] bytes, int n);
 
-    private native void _pushBoolean(CPtr ptr, int bool);
+    private native void _pushBoolean(long ptr, int bool);
 
     // Get functions
-    private native void _getTable(CPtr ptr, int idx);
+    private native void _getTable(long ptr, int idx);
 
-    private native void _getField(CPtr ptr, int idx, String k);
+    private native void _getField(long ptr, int idx, String k);
 
-    private native void _rawGet(CPtr ptr, int idx);
+    private native void _rawGet(long ptr, int idx);
 
-    private native void _rawGetI(CPtr ptr, int idx, int n);
+    private native void _rawGetI(long ptr, int idx, int n);
 
-    private native void _createTable(CPtr ptr, int narr, int nrec);
+    private native void _createTable(long ptr, int narr, int nrec);
 
-    private native int _getMetaTable(CPtr ptr, int idx);
+    private native int _getMetaTable(long ptr, int idx);
 
-    private native void _getFEnv(CPtr ptr, int idx);
+    private native void _getFEnv(long ptr, int idx);
 
     // Set functions
-    private native void _setTable(CPtr ptr, int idx);
+    private native void _setTable(long ptr, int idx);
 
-    private native void _setField(CPtr ptr, int idx, String k);
+    private native void _setField(long ptr, int idx, String k);
 
-    private native void _rawSet(CPtr ptr, int idx);
+    private native void _rawSet(long ptr, int idx);
 
-    private native void _rawSetI(CPtr ptr, int idx, int n);
+    private native void _rawSetI(long ptr, int idx, int n);
 
-    private native int _setMetaTable(CPtr ptr, int idx);
+    private native int _setMetaTable(long ptr, int idx);
 
-    private native int _setFEnv(CPtr ptr, int idx);
+    private native int _setFEnv(long ptr, int idx);
 
-    private native void _call(CPtr ptr, int nArgs, int nResults);
+    private native void _call(long ptr, int nArgs, int nResults);
 
-    private native int _pcall(CPtr ptr, int nArgs, int Results, int errFunc);
+    private native int _pcall(long ptr, int nArgs, int Results, int errFunc);
 
     // Coroutine Functions
-    private native int _yield(CPtr ptr, int nResults);
+    private native int _yield(long ptr, int nResults);
 
     /**
      * removed since lua 5.2
@@ -387,174 +458,192 @@ public class LuaState {
      * @param nargs
      * @return
      */
-    private native int _resume(CPtr ptr, int nargs);
+    private native int _resume(long ptr, int nargs);
 
-    private native int _status(CPtr ptr);
+    private native int _status(long ptr);
 
-    private native int _gc(CPtr ptr, int what, int data);
+    private native int _gc(long ptr, int what, int data);
 
     // Miscellaneous Functions
-    private native int _error(CPtr ptr);
+    private native int _error(long ptr);
 
-    private native int _next(CPtr ptr, int idx);
+    private native int _next(long ptr, int idx);
 
-    private native void _concat(CPtr ptr, int n);
+    private native void _concat(long ptr, int n);
 
     // Some macros
-    private native void _pop(CPtr ptr, int n);
+    private native void _pop(long ptr, int n);
+
+    private native void _newTable(long ptr);
 
-    private native void _newTable(CPtr ptr);
+    private native int _strlen(long ptr, int idx);
 
-    private native int _strlen(CPtr ptr, int idx);
+    private native int _isFunction(long ptr, int idx);
 
-    private native int _isFunction(CPtr ptr, int idx);
+    private native int _isTable(long ptr, int idx);
 
-    private native int _isTable(CPtr ptr, int idx);
+    private native int _isNil(long ptr, int idx);
 
-    private native int _isNil(CPtr ptr, int idx);
+    private native int _isBoolean(long ptr, int idx);
 
-    private native int _isBoolean(CPtr ptr, int idx);
+    private native int _isThread(long ptr, int idx);
 
-    private native int _isThread(CPtr ptr, int idx);
+    private native int _isNone(long ptr, int idx);
 
-    private native int _isNone(CPtr ptr, int idx);
+    private native int _isNoneOrNil(long ptr, int idx);
 
-    private native int _isNoneOrNil(CPtr ptr, int idx);
+    private native void _setGlobal(long ptr, String name);
 
-    private native void _setGlobal(CPtr ptr, String name);
+    private native void _getGlobal(long ptr, String name);
 
-    private native void _getGlobal(CPtr ptr, String name);
+    private native int _getGcCount(long ptr);
+    //private native int _doBuffer(long ptr, byte[] buff, long sz, String n);
 
-    private native int _getGcCount(CPtr ptr);
-    //private native int _doBuffer(CPtr ptr, byte[] buff, long sz, String n);
+    private native int _LdoString(long ptr, String string);
 
-    private native int _LdoString(CPtr ptr, String string);
+    private native int _LgetMetaField(long ptr, int obj, String e);
 
-    private native int _LgetMetaField(CPtr ptr, int obj, String e);
+    private native int _LcallMeta(long ptr, int obj, String e);
 
-    private native int _LcallMeta(CPtr ptr, int obj, String e);
+    private native int _Ltyperror(long ptr, int nArg, String tName);
 
-    private native int _Ltyperror(CPtr ptr, int nArg, String tName);
+    private native int _LargError(long ptr, int numArg, String extraMsg);
 
-    private native int _LargError(CPtr ptr, int numArg, String extraMsg);
+    private native String _LcheckString(long ptr, int numArg);
 
-    private native String _LcheckString(CPtr ptr, int numArg);
+    private native String _LoptString(long ptr, int numArg, String def);
 
-    private native String _LoptString(CPtr ptr, int numArg, String def);
+    private native double _LcheckNumber(long ptr, int numArg);
 
-    private native double _LcheckNumber(CPtr ptr, int numArg);
+    private native double _LoptNumber(long ptr, int numArg, double def);
 
-    private native double _LoptNumber(CPtr ptr, int numArg, double def);
+    private native int _LcheckInteger(long ptr, int numArg);
 
-    private native int _LcheckInteger(CPtr ptr, int numArg);
+    private native int _LoptInteger(long ptr, int numArg, int def);
 
-    private native int _LoptInteger(CPtr ptr, int numArg, int def);
+    private native void _LcheckStack(long ptr, int sz, String msg);
 
-    private native void _LcheckStack(CPtr ptr, int sz, String msg);
+    private native void _LcheckType(long ptr, int nArg, int t);
 
-    private native void _LcheckType(CPtr ptr, int nArg, int t);
+    private native void _LcheckAny(long ptr, int nArg);
 
-    private native void _LcheckAny(CPtr ptr, int nArg);
+    private native int _LnewMetatable(long ptr, String tName);
 
-    private native int _LnewMetatable(CPtr ptr, String tName);
+    private native void _LgetMetatable(long ptr, String tName);
 
-    private native void _LgetMetatable(CPtr ptr, String tName);
+    private native void _Lwhere(long ptr, int lvl);
 
-    private native void _Lwhere(CPtr ptr, int lvl);
+    private native int _Lref(long ptr, int t);
 
-    private native int _Lref(CPtr ptr, int t);
+    private native void _LunRef(long ptr, int t, int ref);
 
-    private native void _LunRef(CPtr ptr, int t, int ref);
+    private native void _unrefBatch(long ptr, int t, int[] refs, int n);
+
+    private native int _refValue(long ptr, int idx, long[] info);
+
+    private native void _valueInfo(long ptr, int idx, long[] info);
+
+    private native int _copyNumbers(long ptr, int idx, double[] dst, int n);
+
+    private native int _copyInts(long ptr, int idx, int[] dst, int n);
+
+    private native int _copyLongs(long ptr, int idx, long[] dst, int n);
+
+    private native int _copyBooleans(long ptr, int idx, boolean[] dst, int n);
+
+    private native int _copyStrings(long ptr, int idx, int[] ends, int n, byte[] buffer);
 
     // luaL_getn 方法在 LuaJIT 2.1.1748459687 中不存在
-    // private native int _LgetN(CPtr ptr, int t);
+    // private native int _LgetN(long ptr, int t);
 
     // luaL_setn 方法在 LuaJIT 2.1.1748459687 中不存在
-    // private native void _LsetN(CPtr ptr, int t, int n);
+    // private native void _LsetN(long ptr, int t, int n);
 
-    private native int _LloadFile(CPtr ptr, String fileName);
+    private native int _LloadFile(long ptr, String fileName);
 
-    private native int _LloadBuffer(CPtr ptr, byte[] buff, long sz, String name);
+    private native int _LloadBuffer(long ptr, byte[] buff, long sz, String name);
 
-    private native int _LloadString(CPtr ptr, String s);
+    private native int _LloadString(long ptr, String s);
 
-    private native String _Lgsub(CPtr ptr, String s, String p, String r);
+    private native String _Lgsub(long ptr, String s, String p, String r);
 
-    private native String _LfindTable(CPtr ptr, int idx, String fname, int szhint);
+    private native String _LfindTable(long ptr, int idx, String fname, int szhint);
 
-    private native void _openBase(CPtr ptr);
+    private native void _openBase(long ptr);
 
-    private native void _openTable(CPtr ptr);
+    private native void _openTable(long ptr);
 
-    private native void _openIo(CPtr ptr);
+    private native void _openIo(long ptr);
 
-    private native void _openOs(CPtr ptr);
+    private native void _openOs(long ptr);
 
-    private native void _openString(CPtr ptr);
+    private native void _openString(long ptr);
 
-    private native void _openMath(CPtr ptr);
+    private native void _openMath(long ptr);
 
-    private native void _openDebug(CPtr ptr);
+    private native void _openDebug(long ptr);
 
-    private native void _openPackage(CPtr ptr);
+    private native void _openPackage(long ptr);
 
-    private native int _luaDump(CPtr ptr, ILuaReadWriteEntity userdata, int strip);
+    private native int _luaDump(long ptr, ILuaReadWriteEntity userdata, int strip);
 
-    private native int _luaLoad(CPtr ptr, ILuaReadWriteEntity userdata, String chunkName, String mode);
+    private native int _luaLoad(long ptr, ILuaReadWriteEntity userdata, String chunkName, String mode);
 
     /**
      * copy value from a lua state to another lua state stack top.
      * @return true / false
      */
-    private native int _copyValue(CPtr srcL, int idx, CPtr destL);
+    private native int _copyValue(long srcL, int idx, long destL);
 
-    private native int _copyTableIfNotExists(CPtr srcL, int idx, CPtr destL);
+    private native int _copyTableIfNotExists(long srcL, int idx, long destL);
 
-    private native int _newGlobalEnv(CPtr ptr);
+    private native int _newGlobalEnv(long ptr);
+
+    private native int _mergeGlobals(long srcL, long destL);
 
     // ************************* debug method start ****************************
 
-    private native void _setHook(CPtr ptr, int mask, int count);
+    private native void _setHook(long ptr, int mask, int count);
 
-    private native int _getHookMask(CPtr ptr);
+    private native int _getHookMask(long ptr);
 
-    private native int _getHookCount(CPtr ptr);
+    private native int _getHookCount(long ptr);
 
     /**
      * need manual free LuaDebug.
      */
-    private native LuaDebug _getStack(CPtr ptr, int level);
+    private native LuaDebug _getStack(long ptr, int level);
 
     /**
      * need manual free LuaDebug.
      */
-    private native LuaDebug _getInfo(CPtr ptr, long arPtr, String what);
+    private native LuaDebug _getInfo(long ptr, long arPtr, String what);
 
     /**
      * return local variable to lua state stack top
      * @param ar lua debug pointer
      * @return local variable name or null
      */
-    private native String _getLocal(CPtr ptr, long ar, int n);
+    private native String _getLocal(long ptr, long ar, int n);
 
     /**
      * pop the lua state stack top and set to target local variable
      * @param ar lua debug pointer
      * @return local variable name or null
      */
-    private native String _setLocal(CPtr ptr, long ar, int n);
+    private native String _setLocal(long ptr, long ar, int n);
 
     /**
      * get closure up value and set to stack top.
      * @return the up value name or null
      */
-    private native String _getUpValue(CPtr ptr, int funcIndex, int n);
+    private native String _getUpValue(long ptr, int funcIndex, int n);
 
     /**
      * pop the value of stack top and set
      * @return the up value name or null
      */
-    private native String _setUpValue(CPtr ptr, int funcIndex, int n);
+    private native String _setUpValue(long ptr, int funcIndex, int n);
 
     /**
      * manual free LuaDebug pointer
@@ -567,7 +656,7 @@ public class LuaState {
 
     // ******************** addition since lua 5.2 start ***********************
 
-    private native void _getGlobalTable(CPtr ptr);
+    private native void _getGlobalTable(long ptr);
 
     /**
      * added since lua 5.2
@@ -575,7 +664,7 @@ public class LuaState {
      * @param idx
      * @return
      */
-    private native int _rawlen(CPtr ptr, int idx);
+    private native int _rawlen(long ptr, int idx);
 
     /**
      * added since lua 5.2
@@ -585,11 +674,11 @@ public class LuaState {
      * @param op
      * @return
      */
-    private native int _compare(CPtr ptr, int idx1, int idx2, int op);
+    private native int _compare(long ptr, int idx1, int idx2, int op);
 
-    private native void _arith(CPtr ptr, int op);
+    private native void _arith(long ptr, int op);
 
-    private native void _len(CPtr ptr, int idx);
+    private native void _len(long ptr, int idx);
 
     /**
      * added since lua 5.2
@@ -598,41 +687,41 @@ public class LuaState {
      * @param nargs
      * @return
      */
-    private native int _resume(CPtr ptr, CPtr threadPtr, int nargs);
+    private native int _resume(long ptr, long threadPtr, int nargs);
 
-    private native int _pushthread(CPtr ptr, CPtr threadPtr);
+    private native int _pushthread(long ptr, long threadPtr);
 
-    private native void _setuservalue(CPtr ptr, int idx);
-    private native void _getuservalue(CPtr ptr, int idx);
-    private native int _absindex(CPtr ptr, int idx);
-    private native void _openCoroutine(CPtr ptr);
+    private native void _setuservalue(long ptr, int idx);
+    private native void _getuservalue(long ptr, int idx);
+    private native int _absindex(long ptr, int idx);
+    private native void _openCoroutine(long ptr);
 
     // ******************** addition since lua 5.2 stop ************************
 
     // ******************** addition since lua 5.3 start ***********************
 
-    private native void _rotate(CPtr ptr, int idx, int n);
+    private native void _rotate(long ptr, int idx, int n);
 
-    private native void _openUtf8(CPtr ptr);
+    private native void _openUtf8(long ptr);
 
     // ******************** addition since lua 5.3 stop ************************
 
     // ******************** addition since lua 5.4 start ***********************
 
     public int getIUserValue(int idx, int n) {
-        return _getiuservalue(luaState, idx, n);
+        return _getiuservalue(peer(), idx, n);
     }
 
     public int setIUserValue(int idx, int n) {
-        return _setiuservalue(luaState, idx, n);
+        return _setiuservalue(peer(), idx, n);
     }
 
     public void warning(String msg, int tocont) {
-        _warning(luaState, msg, tocont);
+        _warning(peer(), msg, tocont);
     }
 
     public int resume(LuaState threadL, int nargs, int nrets) {
-        return _resume(luaState, threadL.luaState, nargs, nrets);
+        return _resume(peer(), threadL.peer(), nargs, nrets);
     }
 
     // ******************** addition since lua 5.4 stop ************************
@@ -640,250 +729,343 @@ public class LuaState {
 
     // Java Interface -----------------------------------------------------
 
-    private native void _openLibs(CPtr ptr);
+    private native void _openLibs(long ptr);
 
     // STACK MANIPULATION
 
     public CPtr newThread() {
-        return _newthread(luaState);
+        return _newthread(peer());
     }
 
     public int getTop() {
-        return _getTop(luaState);
+        if (LuaForeignBinding.ENABLED) return LuaForeignBinding.getTop(peer());
+        return _getTop(peer());
     }
 
     public void setTop(int idx) {
-        _setTop(luaState, idx);
+        _setTop(peer(), idx);
     }
 
     public void pushValue(int idx) {
-        _pushValue(luaState, idx);
+        _pushValue(peer(), idx);
     }
 
     public void remove(int idx) {
-        _remove(luaState, idx);
+        _remove(peer(), idx);
     }
 
     public void insert(int idx) {
-        _insert(luaState, idx);
+        _insert(peer(), idx);
     }
 
     public void replace(int idx) {
-        _replace(luaState, idx);
+        _replace(peer(), idx);
     }
 
     public int checkStack(int sz) {
-        return _checkStack(luaState, sz);
+        return _checkStack(peer(), sz);
     }
 
     // ACCESS FUNCTION
 
     protected void xmove(LuaState to, int n) {
-        _xmove(luaState, to.luaState, n);
+        _xmove(peer(), to.peer(), n);
     }
 
     public boolean isNumber(int idx) {
-        return (_isNumber(luaState, idx) != 0);
+        return (_isNumber(peer(), idx) != 0);
     }
 
     public boolean isString(int idx) {
-        return (_isString(luaState, idx) != 0);
+        return (_isString(peer(), idx) != 0);
     }
 
     public boolean isFunction(int idx) {
-        return (_isFunction(luaState, idx) != 0);
+        return (_isFunction(peer(), idx) != 0);
     }
 
     public boolean isCFunction(int idx) {
-        return (_isCFunction(luaState, idx) != 0);
+        return (_isCFunction(peer(), idx) != 0);
     }
 
     public boolean isUserdata(int idx) {
-        return (_isUserdata(luaState, idx) != 0);
+        return (_isUserdata(peer(), idx) != 0);
     }
 
     public boolean isTable(int idx) {
-        return (_isTable(luaState, idx) != 0);
+        return (_isTable(peer(), idx) != 0);
     }
 
     public boolean isBoolean(int idx) {
-        return (_isBoolean(luaState, idx) != 0);
+        return (_isBoolean(peer(), idx) != 0);
     }
 
     public boolean isNil(int idx) {
-        return (_isNil(luaState, idx) != 0);
+        return (_isNil(peer(), idx) != 0);
     }
 
     public boolean isThread(int idx) {
-        return (_isThread(luaState, idx) != 0);
+        return (_isThread(peer(), idx) != 0);
     }
 
     public boolean isNone(int idx) {
-        return (_isNone(luaState, idx) != 0);
+        return (_isNone(peer(), idx) != 0);
     }
 
     public boolean isNoneOrNil(int idx) {
-        return (_isNoneOrNil(luaState, idx) != 0);
+        return (_isNoneOrNil(peer(), idx) != 0);
     }
 
     public int type(int idx) {
-        return _type(luaState, idx);
+        if (LuaForeignBinding.ENABLED) return LuaForeignBinding.type(peer(), idx);
+        return _type(peer(), idx);
     }
 
     public String typeName(int tp) {
-        return _typeName(luaState, tp);
+        return _typeName(peer(), tp);
     }
 
     public int equal(int idx1, int idx2) {
-        return _equal(luaState, idx1, idx2);
+        return _equal(peer(), idx1, idx2);
     }
 
     public boolean rawequal(int idx1, int idx2) {
-        return _rawequal(luaState, idx1, idx2) == 1;
+        return _rawequal(peer(), idx1, idx2) == 1;
     }
 
     public int lessthan(int idx1, int idx2) {
-        return _lessthan(luaState, idx1, idx2);
+        return _lessthan(peer(), idx1, idx2);
     }
 
     public double toNumber(int idx) {
-        return _toNumber(luaState, idx);
+        if (LuaForeignBinding.ENABLED) return LuaForeignBinding.toNumber(peer(), idx);
+        return _toNumber(peer(), idx);
     }
 
     public int toInteger(int idx) {
-        return _toInteger(luaState, idx);
+        return _toInteger(peer(), idx);
+    }
+
+    /**
+     * Reads a number and its subtype in one call.
+     *
+     * @param idx   index of the lua stack
+     * @param value <code>value[0]</code> is set to the integer value if it is an integer,
+     *              otherwise the raw bits of the float value.
+     * @return true if it is an integer, always false before lua 5.3.
+     */
+    public boolean toNumberValue(int idx, long[] value) {
+        return _toNumberValue(peer(), idx, value) != 0;
     }
 
     public boolean toBoolean(int idx) {
-        return (_toBoolean(luaState, idx) != 0);
+        return (_toBoolean(peer(), idx) != 0);
     }
 
     public String toString(int idx) {
-        return _toString(luaState, idx);
+        long ptr = peer();
+        byte[] buffer = stringBuffer;
+        int len = _toStringBytes(ptr, idx, buffer);
+        if (len < 0) return null;
+        if (len > buffer.length) {
+            buffer = growStringBuffer(len);
+            _toStringBytes(ptr, idx, buffer);
+        }
+        return Utf8Helper.decode(buffer, 0, len);
+    }
+
+    /**
+     * Copies bytes of lua string at idx (embedded zeros are kept).
+     *
+     * @param idx index
+     * @return bytes, or null if value is neither string nor number.
+     */
+    public byte[] toBytes(int idx) {
+        long ptr = peer();
+        byte[] buffer = stringBuffer;
+        int len = _toStringBytes(ptr, idx, buffer);
+        if (len < 0) return null;
+        if (len > buffer.length) {
+            buffer = new byte[len];
+            _toStringBytes(ptr, idx, buffer);
+            return buffer;
+        }
+        return Arrays.copyOf(buffer, len);
+    }
+
+    /**
+     * Same as {@link #toString(int)}, but the string is copied once as UTF-8 bytes
+     * and decoded lazily. Useful for large payloads.
+     *
+     * @param idx index
+     * @return char sequence, or null if value is neither string nor number.
+     */
+    public Utf8CharSequence toCharSequence(int idx) {
+        byte[] bytes = toBytes(idx);
+        return bytes == null ? null : new Utf8CharSequence(bytes);
+    }
+
+    private byte[] growStringBuffer(int len) {
+        byte[] buffer = new byte[len];
+        // do not retain huge buffer.
+        if (len <= MAX_STRING_BUFFER_SIZE) {
+            stringBuffer = buffer;
+        }
+        return buffer;
     }
 
     public long toPointer(int idx) {
-        return _toPointer(luaState, idx);
+        return _toPointer(peer(), idx);
     }
 
     public int strLen(int idx) {
-        return _strlen(luaState, idx);
+        return _strlen(peer(), idx);
     }
 
     public int objLen(int idx) {
-        return _objlen(luaState, idx);
+        return _objlen(peer(), idx);
     }
 
     //PUSH FUNCTIONS
 
     public CPtr toThread(int idx) {
-        return _toThread(luaState, idx);
+        return _toThread(peer(), idx);
     }
 
     public void pushNil() {
-        _pushNil(luaState);
+        _pushNil(peer());
     }
 
     public void pushNumber(double db) {
-        _pushNumber(luaState, db);
+        if (LuaForeignBinding.ENABLED) {
+            LuaForeignBinding.pushNumber(peer(), db);
+            return;
+        }
+        _pushNumber(peer(), db);
     }
 
     public void pushInteger(int integer) {
-        _pushInteger(luaState, integer);
+        _pushInteger(peer(), integer);
+    }
+
+    /**
+     * Pushes a <code>lua_Integer</code>, it is an integer subtype since lua 5.3.
+     *
+     * @param integer value
+     */
+    public void pushLong(long integer) {
+        _pushLong(peer(), integer);
     }
 
     public void pushString(String str) {
-        if (str == null)
-            _pushNil(luaState);
-        else
-            _pushString(luaState, str);
+        if (str == null) {
+            _pushNil(peer());
+            return;
+        }
+        long ptr = peer();
+        int length = str.length();
+        byte[] buffer = stringBuffer;
+        if (length <= buffer.length && Utf8Helper.encodeAscii(str, buffer)) {
+            _pushString(ptr, buffer, length);
+        } else {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            _pushString(ptr, bytes, bytes.length);
+        }
     }
 
     public void pushString(byte[] bytes) {
         if (bytes == null)
-            _pushNil(luaState);
+            _pushNil(peer());
         else
-            _pushString(luaState, bytes, bytes.length);
+            _pushString(peer(), bytes, bytes.length);
     }
 
     // GET FUNCTIONS
 
     public void pushBoolean(boolean bool) {
-        _pushBoolean(luaState, bool ? 1 : 0);
+        if (LuaForeignBinding.ENABLED) {
+            LuaForeignBinding.pushBoolean(peer(), bool ? 1 : 0);
+            return;
+        }
+        _pushBoolean(peer(), bool ? 1 : 0);
     }
 
     public void getTable(int idx) {
-        _getTable(luaState, idx);
+        _getTable(peer(), idx);
     }
 
     public void getField(int idx, String k) {
-        _getField(luaState, idx, k);
+        _getField(peer(), idx, k);
     }
 
     public void rawGet(int idx) {
-        _rawGet(luaState, idx);
+        _rawGet(peer(), idx);
     }
 
     public void rawGetI(int idx, int n) {
-        _rawGetI(luaState, idx, n);
+        if (LuaForeignBinding.ENABLED) {
+            LuaForeignBinding.rawGetI(peer(), idx, n);
+            return;
+        }
+        _rawGetI(peer(), idx, n);
     }
 
     public void createTable(int narr, int nrec) {
-        _createTable(luaState, narr, nrec);
+        _createTable(peer(), narr, nrec);
     }
 
     public void newTable() {
-        _newTable(luaState);
+        _newTable(peer());
     }
 
     // if returns false, there is no metatable
     public boolean getMetaTable(int idx) {
-        return _getMetaTable(luaState, idx) != 0;
+        return _getMetaTable(peer(), idx) != 0;
     }
 
     // SET FUNCTIONS
 
     public void getFEnv(int idx) {
-        _getFEnv(luaState, idx);
+        _getFEnv(peer(), idx);
     }
 
     public void setTable(int idx) {
-        _setTable(luaState, idx);
+        _setTable(peer(), idx);
     }
 
     public void setField(int idx, String k) {
-        _setField(luaState, idx, k);
+        _setField(peer(), idx, k);
     }
 
     public void rawSet(int idx) {
-        _rawSet(luaState, idx);
+        _rawSet(peer(), idx);
     }
 
     public void rawSetI(int idx, int n) {
-        _rawSetI(luaState, idx, n);
+        _rawSetI(peer(), idx, n);
     }
 
     // if returns 0, cannot set the metatable to the given object
     public int setMetaTable(int idx) {
-        return _setMetaTable(luaState, idx);
+        return _setMetaTable(peer(), idx);
     }
 
     // if object is not a function returns 0
     public int setFEnv(int idx) {
-        return _setFEnv(luaState, idx);
+        return _setFEnv(peer(), idx);
     }
 
     public void call(int nArgs, int nResults) {
-        _call(luaState, nArgs, nResults);
+        _call(peer(), nArgs, nResults);
     }
 
     // returns 0 if ok of one of the error codes defined
     public int pcall(int nArgs, int nResults, int errFunc) {
-        return _pcall(luaState, nArgs, nResults, errFunc);
+        return _pcall(peer(), nArgs, nResults, errFunc);
     }
 
     public int yield(int nResults) {
-        return _yield(luaState, nResults);
+        return _yield(peer(), nResults);
     }
 
     /**
@@ -892,157 +1074,269 @@ public class LuaState {
      * @return
      */
     public int resume(int nArgs) {
-        return _resume(luaState, nArgs);
+        return _resume(peer(), nArgs);
+    }
+
+    /**
+     * Resumes this coroutine by the <code>lua_resume</code> of current lua version.
+     *
+     * @param from  the state which resumes this coroutine, ignored in lua 5.1.
+     * @param nArgs arguments count on this coroutine stack.
+     * @return status
+     */
+    public int resumeFrom(LuaState from, int nArgs) {
+        switch (LUA_VERSION) {
+            case "Lua 5.1":
+                return resume(nArgs);
+            case "Lua 5.2":
+            case "Lua 5.3":
+                return resume(from, nArgs);
+            default:
+                return resume(from, nArgs, 0);
+        }
     }
 
     public int status() {
-        return _status(luaState);
+        return _status(peer());
     }
 
     public int gc(int what, int data) {
-        return _gc(luaState, what, data);
+        return _gc(peer(), what, data);
     }
 
     public int getGcCount() {
-        return _getGcCount(luaState);
+        return _getGcCount(peer());
     }
 
     public int next(int idx) {
-        return _next(luaState, idx);
+        return _next(peer(), idx);
     }
 
     public int error() {
-        return _error(luaState);
+        return _error(peer());
     }
 
     public void concat(int n) {
-        _concat(luaState, n);
+        _concat(peer(), n);
     }
 
     // FUNCTION FROM lauxlib
     // returns 0 if ok
     public int LdoFile(String fileName) {
-        return _LdoFile(luaState, fileName);
+        return _LdoFile(peer(), fileName);
     }
 
     // returns 0 if ok
     public int LdoString(String str) {
-        return _LdoString(luaState, str);
+        return _LdoString(peer(), str);
     }
 
     public int LgetMetaField(int obj, String e) {
-        return _LgetMetaField(luaState, obj, e);
+        return _LgetMetaField(peer(), obj, e);
     }
 
     public int LcallMeta(int obj, String e) {
-        return _LcallMeta(luaState, obj, e);
+        return _LcallMeta(peer(), obj, e);
     }
 
     public int Ltyperror(int nArg, String tName) {
-        return _Ltyperror(luaState, nArg, tName);
+        return _Ltyperror(peer(), nArg, tName);
     }
 
     public int LargError(int numArg, String extraMsg) {
-        return _LargError(luaState, numArg, extraMsg);
+        return _LargError(peer(), numArg, extraMsg);
     }
 
     public String LcheckString(int numArg) {
-        return _LcheckString(luaState, numArg);
+        return _LcheckString(peer(), numArg);
     }
 
     public String LoptString(int numArg, String def) {
-        return _LoptString(luaState, numArg, def);
+        return _LoptString(peer(), numArg, def);
     }
 
     public double LcheckNumber(int numArg) {
-        return _LcheckNumber(luaState, numArg);
+        return _LcheckNumber(peer(), numArg);
     }
 
     public double LoptNumber(int numArg, double def) {
-        return _LoptNumber(luaState, numArg, def);
+        return _LoptNumber(peer(), numArg, def);
     }
 
     public int LcheckInteger(int numArg) {
-        return _LcheckInteger(luaState, numArg);
+        return _LcheckInteger(peer(), numArg);
     }
 
     public int LoptInteger(int numArg, int def) {
-        return _LoptInteger(luaState, numArg, def);
+        return _LoptInteger(peer(), numArg, def);
     }
 
     public void LcheckStack(int sz, String msg) {
-        _LcheckStack(luaState, sz, msg);
+        _LcheckStack(peer(), sz, msg);
     }
 
     public void LcheckType(int nArg, int t) {
-        _LcheckType(luaState, nArg, t);
+        _LcheckType(peer(), nArg, t);
     }
 
     public void LcheckAny(int nArg) {
-        _LcheckAny(luaState, nArg);
+        _LcheckAny(peer(), nArg);
     }
 
     public int LnewMetatable(String tName) {
-        return _LnewMetatable(luaState, tName);
+        return _LnewMetatable(peer(), tName);
     }
 
     public void LgetMetatable(String tName) {
-        _LgetMetatable(luaState, tName);
+        _LgetMetatable(peer(), tName);
     }
 
     public void Lwhere(int lvl) {
-        _Lwhere(luaState, lvl);
+        _Lwhere(peer(), lvl);
     }
 
     public int Lref(int t) {
-        return _Lref(luaState, t);
+        return _Lref(peer(), t);
     }
 
     public void LunRef(int t, int ref) {
-        _LunRef(luaState, t, ref);
+        _LunRef(peer(), t, ref);
+    }
+
+    /**
+     * Releases references in one native call.
+     *
+     * @param t    table index
+     * @param refs references
+     * @param n    count of references in refs
+     */
+    public void unrefBatch(int t, int[] refs, int n) {
+        _unrefBatch(peer(), t, refs, n);
+    }
+
+    /**
+     * Creates a registry reference of value at idx, same as <code>pushValue(idx)</code>
+     * and <code>Lref(LUA_REGISTRYINDEX)</code>, and fills type and
+     * <code>lua_topointer</code> of the value into info in the same call.
+     *
+     * @param idx  index of value
+     * @param info array at least 2 length, info[0] is type and info[1] is pointer.
+     * @return reference
+     */
+    public int refValue(int idx, long[] info) {
+        return _refValue(peer(), idx, info);
+    }
+
+    /**
+     * Fills type and <code>lua_topointer</code> of value at idx into info.
+     *
+     * @param idx  index of value
+     * @param info array at least 2 length, info[0] is type and info[1] is pointer.
+     */
+    public void valueInfo(int idx, long[] info) {
+        _valueInfo(peer(), idx, info);
+    }
+
+    /**
+     * Copies numbers of sequence <code>t[1]..t[dst.length]</code> of table at idx into dst in one call.
+     * Copy stops at the first element which is not a number (numeric strings are not converted).
+     *
+     * @param idx index of table
+     * @param dst destination
+     * @return count of copied elements, equals <code>dst.length</code> if all elements are copied.
+     */
+    public int copyNumbers(int idx, double[] dst) {
+        return _copyNumbers(peer(), idx, dst, dst.length);
+    }
+
+    /**
+     * Same as {@link #copyNumbers(int, double[])}, numbers are narrowed like java <code>(int)</code> cast.
+     */
+    public int copyInts(int idx, int[] dst) {
+        return _copyInts(peer(), idx, dst, dst.length);
+    }
+
+    /**
+     * Same as {@link #copyNumbers(int, double[])}, numbers are narrowed like java <code>(long)</code> cast.
+     */
+    public int copyLongs(int idx, long[] dst) {
+        return _copyLongs(peer(), idx, dst, dst.length);
+    }
+
+    /**
+     * Same as {@link #copyNumbers(int, double[])}, but for booleans.
+     */
+    public int copyBooleans(int idx, boolean[] dst) {
+        return _copyBooleans(peer(), idx, dst, dst.length);
+    }
+
+    /**
+     * Same as {@link #copyNumbers(int, double[])}, but for strings. Bytes of all strings
+     * are copied in one call then decoded as UTF-8.
+     */
+    public int copyStrings(int idx, String[] dst) {
+        int n = dst.length;
+        if (n == 0) return 0;
+        long ptr = peer();
+        int[] ends = new int[n];
+        byte[] buffer = stringBuffer;
+        int total = _copyStrings(ptr, idx, ends, n, buffer);
+        if (total < 0) return 0;
+        if (total > buffer.length) {
+            buffer = growStringBuffer(total);
+            _copyStrings(ptr, idx, ends, n, buffer);
+        }
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            int end = ends[i];
+            if (end < 0) return i;
+            dst[i] = Utf8Helper.decode(buffer, start, end - start);
+            start = end;
+        }
+        return n;
     }
 
     // luaL_getn 方法在 LuaJIT 2.1.1748459687 中不存在
     // public int LgetN(int t) {
-    //     return _LgetN(luaState, t);
+    //     return _LgetN(peer(), t);
     // }
 
     // luaL_setn 方法在 LuaJIT 2.1.1748459687 中不存在
     // public void LsetN(int t, int n) {
-    //     _LsetN(luaState, t, n);
+    //     _LsetN(peer(), t, n);
     // }
 
     public int LloadFile(String fileName) {
-        return _LloadFile(luaState, fileName);
+        return _LloadFile(peer(), fileName);
     }
 
     public int LloadString(String s) {
-        return _LloadString(luaState, s);
+        return _LloadString(peer(), s);
     }
 
     public int LloadBuffer(byte[] buff, String name) {
-        return _LloadBuffer(luaState, buff, buff.length, name);
+        return _LloadBuffer(peer(), buff, buff.length, name);
     }
 
     public String Lgsub(String s, String p, String r) {
-        return _Lgsub(luaState, s, p, r);
+        return _Lgsub(peer(), s, p, r);
     }
 
     //IMPLEMENTED C MACROS
 
     public String LfindTable(int idx, String fname, int szhint) {
-        return _LfindTable(luaState, idx, fname, szhint);
+        return _LfindTable(peer(), idx, fname, szhint);
     }
 
     public void pop(int n) {
         //setTop(- (n) - 1);
-        _pop(luaState, n);
+        _pop(peer(), n);
     }
 
     public void getGlobal(String global) {
 //    pushString(global);
 //    getTable(LUA_GLOBALSINDEX.intValue());
-        _getGlobal(luaState, global);
+        _getGlobal(peer(), global);
     }
 
     /**
@@ -1053,48 +1347,48 @@ public class LuaState {
         //pushString(name);
         //insert(-2);
         //setTable(LUA_GLOBALSINDEX.intValue());
-        _setGlobal(luaState, name);
+        _setGlobal(peer(), name);
     }
 
     // Functions to open lua libraries
     public void openBase() {
-        _openBase(luaState);
+        _openBase(peer());
     }
 
     public void openTable() {
-        _openTable(luaState);
+        _openTable(peer());
     }
 
     public void openIo() {
-        _openIo(luaState);
+        _openIo(peer());
     }
 
     public void openOs() {
-        _openOs(luaState);
+        _openOs(peer());
     }
 
     public void openString() {
-        _openString(luaState);
+        _openString(peer());
     }
 
     public void openMath() {
-        _openMath(luaState);
+        _openMath(peer());
     }
 
     public void openDebug() {
-        _openDebug(luaState);
+        _openDebug(peer());
     }
 
     public void openPackage() {
-        _openPackage(luaState);
+        _openPackage(peer());
     }
 
     public int dump(ILuaReadWriteEntity userdata, boolean strip) {
-        return _luaDump(luaState, userdata, strip ? 1 : 0);
+        return _luaDump(peer(), userdata, strip ? 1 : 0);
     }
 
     public int load(ILuaReadWriteEntity userdata, String chunkName, String mode) {
-        return _luaLoad(luaState, userdata, chunkName, mode);
+        return _luaLoad(peer(), userdata, chunkName, mode);
     }
 
     /**
@@ -1105,7 +1399,7 @@ public class LuaState {
      * @return if success then return true
      */
     public boolean copyValue(int idx, LuaState dest) {
-        return _copyValue(luaState, idx, dest.luaState) == 1;
+        return _copyValue(peer(), idx, dest.peer()) == 1;
     }
 
     /**
@@ -1116,7 +1410,20 @@ public class LuaState {
      * @return if success then return true.
      */
     public boolean copyTableIfNotExists(int idx, LuaState dest) {
-        return _copyTableIfNotExists(luaState, idx, dest.luaState) == 1;
+        return _copyTableIfNotExists(peer(), idx, dest.peer()) == 1;
+    }
+
+    /**
+     * deep copy globals to another lua state in one native call.
+     * missing globals are copied, tables exist in both states (such as <code>string</code>,
+     * <code>package.loaded</code>) are merged recursively and other existing globals are kept.
+     * c functions and java functions can't be copied, so open libs and register them in
+     * dest before merging.
+     * @param dest target lua state
+     * @return if success then return true.
+     */
+    public boolean mergeGlobals(LuaState dest) {
+        return _mergeGlobals(peer(), dest.peer()) == 1;
     }
 
     /**
@@ -1124,21 +1431,21 @@ public class LuaState {
      * if you used lua51 / luajit, it's not work.
      */
     public boolean newGlobalTable() {
-        return _newGlobalEnv(luaState) == 1;
+        return _newGlobalEnv(peer()) == 1;
     }
 
     // ************************* debug method start ****************************
 
     public void setHook(int mask, int count) {
-        _setHook(luaState, mask, count);
+        _setHook(peer(), mask, count);
     }
 
     public int getHookMask() {
-        return _getHookMask(luaState);
+        return _getHookMask(peer());
     }
 
     public int getHookCount() {
-        return _getHookCount(luaState);
+        return _getHookCount(peer());
     }
 
     /**
@@ -1146,7 +1453,7 @@ public class LuaState {
      * @return nullable
      */
     public LuaDebug getStack(int level) {
-        return _getStack(luaState, level);
+        return _getStack(peer(), level);
     }
 
     /**
@@ -1154,7 +1461,7 @@ public class LuaState {
      * @return nullable
      */
     public LuaDebug getInfo(LuaDebug ar, String what) {
-        return _getInfo(luaState, ar.getPtr(), what);
+        return _getInfo(peer(), ar.getPtr(), what);
     }
 
     /**
@@ -1163,7 +1470,7 @@ public class LuaState {
      * @return local variable name or null
      */
     public String getLocal(LuaDebug ar, int n) {
-        return _getLocal(luaState, ar.getPtr(), n);
+        return _getLocal(peer(), ar.getPtr(), n);
     }
 
     /**
@@ -1172,7 +1479,7 @@ public class LuaState {
      * @return local variable name or null
      */
     public String setLocal(LuaDebug ar, int n) {
-        return _setLocal(luaState, ar.getPtr(), n);
+        return _setLocal(peer(), ar.getPtr(), n);
     }
 
     /**
@@ -1180,7 +1487,7 @@ public class LuaState {
      * @return the up value name or null
      */
     public String getUpValue(int funcIndex, int n) {
-        return _getUpValue(luaState, funcIndex, n);
+        return _getUpValue(peer(), funcIndex, n);
     }
 
     /**
@@ -1188,7 +1495,7 @@ public class LuaState {
      * @return the up value name or null
      */
     public String setUpValue(int funcIndex, int n) {
-        return _setUpValue(luaState, funcIndex, n);
+        return _setUpValue(peer(), funcIndex, n);
     }
 
     public void freeLuaDebug(LuaDebug ar) {
@@ -1200,7 +1507,7 @@ public class LuaState {
     // ******************** addition since lua 5.2 start ***********************
 
     public void pushGlobalTable() {
-        _getGlobalTable(luaState);
+        _getGlobalTable(peer());
     }
 
     /**
@@ -1209,7 +1516,7 @@ public class LuaState {
      * @return
      */
     public int rawLen(int idx) {
-        return _rawlen(luaState, idx);
+        return _rawlen(peer(), idx);
     }
 
     /**
@@ -1220,11 +1527,11 @@ public class LuaState {
      * @return
      */
     public boolean compare(int idx1, int idx2, int op) {
-        return 0 != _compare(luaState, idx1, idx2, op);
+        return 0 != _compare(peer(), idx1, idx2, op);
     }
 
     public void arith(int op) {
-        _arith(luaState, op);
+        _arith(peer(), op);
     }
 
     /**
@@ -1232,7 +1539,7 @@ public class LuaState {
      * @param idx target object index.
      */
     public void len(int idx) {
-        _len(luaState, idx);
+        _len(peer(), idx);
     }
 
     /**
@@ -1242,11 +1549,11 @@ public class LuaState {
      * @return
      */
     public int resume(LuaState thread, int nargs) {
-        return _resume(luaState, thread.luaState, nargs);
+        return _resume(peer(), thread.peer(), nargs);
     }
 
     public int pushThread(LuaState thread) {
-        return _pushthread(luaState, thread.luaState);
+        return _pushthread(peer(), thread.peer());
     }
 
     /**
@@ -1255,7 +1562,7 @@ public class LuaState {
      * @param idx userdata index
      */
     public void setUserValue(int idx) {
-        _setuservalue(luaState, idx);
+        _setuservalue(peer(), idx);
     }
 
     /**
@@ -1263,7 +1570,7 @@ public class LuaState {
      * @param idx userdata index
      */
     public void getUserValue(int idx) {
-        _getuservalue(luaState, idx);
+        _getuservalue(peer(), idx);
     }
 
     /**
@@ -1272,11 +1579,11 @@ public class LuaState {
      * @return index.
      */
     public int absIndex(int idx) {
-        return _absindex(luaState, idx);
+        return _absindex(peer(), idx);
     }
 
     public void openCoroutine() {
-        _openCoroutine(luaState);
+        _openCoroutine(peer());
     }
 
     // ******************** addition since lua 5.2 stop ***********************
@@ -1284,21 +1591,21 @@ public class LuaState {
     // ******************** addition since lua 5.3 start ***********************
 
     public void rotate(int idx, int n) {
-        _rotate(luaState, idx, n);
+        _rotate(peer(), idx, n);
     }
 
     public void openUtf8() {
-        _openUtf8(luaState);
+        _openUtf8(peer());
     }
 
     // ******************** addition since lua 5.3 stop ************************
 
     // ******************** addition since lua 5.4 start ***********************
 
-    private native int _getiuservalue(CPtr ptr, int idx, int n);
-    private native int _setiuservalue(CPtr ptr, int idx, int n);
-    private native void _warning(CPtr ptr, String msg, int tocont);
-    private native int _resume(CPtr ptr, CPtr threadPtr, int nargs, int nrets);
+    private native int _getiuservalue(long ptr, int idx, int n);
+    private native int _setiuservalue(long ptr, int idx, int n);
+    private native void _warning(long ptr, String msg, int tocont);
+    private native int _resume(long ptr, long threadPtr, int nargs, int nrets);
 
     // ******************** addition since lua 5.4 stop ************************
 
@@ -1306,7 +1613,7 @@ public class LuaState {
     /********************** Luajava API Library **********************/
 
     public void openLibs() {
-        _openLibs(luaState);
+        _openLibs(peer());
     }
 
     /**
@@ -1315,7 +1622,7 @@ public class LuaState {
      * @param cptr
      * @param stateId
      */
-    private native void luajava_open(CPtr cptr, int stateId);
+    private native void luajava_open(long cptr, int stateId);
 
     /**
      * Gets a Object from a userdata
@@ -1324,7 +1631,7 @@ public class LuaState {
      * @param idx index of the lua stack
      * @return Object
      */
-    private native Object _getObjectFromUserdata(CPtr L, int idx) throws LuaException;
+    private native Object _getObjectFromUserdata(long L, int idx) throws LuaException;
 
     /**
      * Returns whether a userdata contains a Java Object
@@ -1333,7 +1640,7 @@ public class LuaState {
      * @param idx index of the lua stack
      * @return boolean
      */
-    private native boolean _isObject(CPtr L, int idx);
+    private native boolean _isObject(long L, int idx);
 
     /**
      * Pushes a Java Object into the state stack
@@ -1341,7 +1648,7 @@ public class LuaState {
      * @param L
      * @param obj
      */
-    private native void _pushJavaObject(CPtr L, Object obj);
+    private native void _pushJavaObject(long L, Object obj, int cacheKey);
 
     /**
      * Pushes a Java Class into the state stack
@@ -1349,7 +1656,7 @@ public class LuaState {
      * @param L
      * @param clazz
      */
-    private native void _pushJavaClass(CPtr L, Class<?> clazz);
+    private native void _pushJavaClass(long L, Class<?> clazz, int cacheKey);
 
     /**
      * Pushes a Java Array into the state stack
@@ -1357,7 +1664,7 @@ public class LuaState {
      * @param L
      * @param obj
      */
-    private native void _pushJavaArray(CPtr L, Object obj);
+    private native void _pushJavaArray(long L, Object obj);
 
     /**
      * Pushes a JavaFunction into the state stack
@@ -1365,7 +1672,7 @@ public class LuaState {
      * @param L
      * @param func
      */
-    private native void _pushJavaFunction(CPtr L, JavaFunction func) throws LuaException;
+    private native void _pushJavaFunction(long L, JavaFunction func) throws LuaException;
 
     /**
      * Returns whether a userdata contains a Java Function
@@ -1374,12 +1681,28 @@ public class LuaState {
      * @param idx index of the lua stack
      * @return boolean
      */
-    private native boolean _isJavaFunction(CPtr L, int idx);
+    private native boolean _isJavaFunction(long L, int idx);
 
     /**
      * if is lua array then return the array length, else return -1
      */
-    private native int _isLuaArray(CPtr L, int idx);
+    private native int _isLuaArray(long L, int idx);
+
+    private native boolean _isLuaArrayCandidate(long L, int idx);
+
+    /**
+     * Writes values from index <code>from</code> to <code>from + count - 1</code> into direct buffer.
+     *
+     * @return written bytes, -1 if buffer is too small.
+     */
+    private native int _snapshotValues(long L, int from, int count, ByteBuffer buffer, Object[] objects);
+
+    /**
+     * Pushes values encoded in direct buffer into stack.
+     *
+     * @return pushed values count, -1 if failed.
+     */
+    private native int _pushValues(long L, ByteBuffer buffer, int count, Object[] objects);
 
     /**
      * Gets a Object from Lua
@@ -1389,7 +1712,7 @@ public class LuaState {
      * @throws LuaException if the lua object does not represent a java object.
      */
     public Object getObjectFromUserdata(int idx) throws LuaException {
-        return _getObjectFromUserdata(luaState, idx);
+        return _getObjectFromUserdata(peer(), idx);
     }
 
     /**
@@ -1399,7 +1722,7 @@ public class LuaState {
      * @return boolean
      */
     public boolean isObject(int idx) {
-        return _isObject(luaState, idx);
+        return _isObject(peer(), idx);
     }
 
     /**
@@ -1408,7 +1731,7 @@ public class LuaState {
      * @param clazz Java Class instance to be pushed into lua
      */
     public void pushJavaClass(Class<?> clazz) {
-        _pushJavaClass(luaState, clazz);
+        _pushJavaClass(peer(), clazz, clazz == null ? 0 : methodCacheKey(clazz, true));
     }
 
     /**
@@ -1419,14 +1742,26 @@ public class LuaState {
      * @param obj Object to be pushed into lua
      */
     public void pushJavaObject(Object obj) {
-        _pushJavaObject(luaState, obj);
+        _pushJavaObject(peer(), obj, obj == null ? 0 : methodCacheKey(obj.getClass(), false));
+    }
+
+    /**
+     * Returns the key of method cache table which shared by the objects of class.
+     *
+     * @param clazz        class
+     * @param staticMethod for static methods called on class, or instance methods called on objects.
+     * @return non-zero key, negative for static methods.
+     */
+    static int methodCacheKey(Class<?> clazz, boolean staticMethod) {
+        int key = METHOD_CACHE_KEYS.get(clazz);
+        return staticMethod ? -key : key;
     }
 
     public void pushJavaArray(Object obj) throws LuaException {
         if (!obj.getClass().isArray())
             throw new LuaException("Object is not an array.");
 
-        _pushJavaArray(luaState, obj);
+        _pushJavaArray(peer(), obj);
     }
 
     /**
@@ -1435,7 +1770,7 @@ public class LuaState {
      * @param func
      */
     public void pushJavaFunction(JavaFunction func) throws LuaException {
-        _pushJavaFunction(luaState, func);
+        _pushJavaFunction(peer(), func);
     }
 
     /**
@@ -1445,7 +1780,7 @@ public class LuaState {
      * @return boolean
      */
     public boolean isJavaFunction(int idx) {
-        return _isJavaFunction(luaState, idx);
+        return _isJavaFunction(peer(), idx);
     }
 
     /**
@@ -1453,6 +1788,43 @@ public class LuaState {
      * @return if is lua array then return the array length, else return -1
      */
     public int isLuaArray(int idx) {
-        return _isLuaArray(luaState, idx);
+        return _isLuaArray(peer(), idx);
+    }
+
+    /**
+     * check a table may be array-style table by its first key only, without traversing it.
+     * @return true if table is empty or its first key is a positive integer.
+     * @see #isLuaArray(int)
+     */
+    public boolean isLuaArrayCandidate(int idx) {
+        return _isLuaArrayCandidate(peer(), idx);
+    }
+
+    /**
+     * Writes values from index <code>from</code> to <code>from + count - 1</code> into direct buffer
+     * in one native call, java objects will be stored into <code>objects</code>.
+     *
+     * @param from    first absolute index of lua stack
+     * @param count   values count
+     * @param buffer  direct buffer in native byte order
+     * @param objects java object array, length must not less than count
+     * @return written bytes, -1 if buffer is too small.
+     * @see LuaValueBuffer
+     */
+    public int snapshotValues(int from, int count, ByteBuffer buffer, Object[] objects) {
+        return _snapshotValues(peer(), from, count, buffer, objects);
+    }
+
+    /**
+     * Pushes <code>count</code> values encoded in direct buffer into stack in one native call.
+     *
+     * @param buffer  direct buffer in native byte order
+     * @param count   values count
+     * @param objects java objects referenced by buffer
+     * @return pushed values count, -1 if failed and nothing pushed.
+     * @see LuaValueBuffer
+     */
+    public int pushValues(ByteBuffer buffer, int count, Object[] objects) {
+        return _pushValues(peer(), buffer, count, objects);
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * LuaStateExecutor.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs tasks of one lua state on a single owner thread.
+ * <p>
+ * Producers submit tasks instead of taking the state lock themselves. The owner thread drains
+ * all queued tasks and runs them back to back with the state lock taken once per batch, so
+ * many producers do not contend on the lock. The lock is still taken, which keeps direct
+ * calls to the facade from other threads safe.
+ * <p>
+ * Use {@link LuaStateFacade#newExecutor(ThreadFactory)} with a virtual thread factory to own
+ * the state by a virtual thread.
+ */
+public class LuaStateExecutor implements AutoCloseable {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private static final class Task<T> {
+        private final LuaStateFacade.LuaStateFunction<T> function;
+        private final CompletableFuture<T> future;
+        /**
+         * run without the state lock, task takes the lock by itself if needed.
+         */
+        private final boolean unlocked;
+
+        private Task(LuaStateFacade.LuaStateFunction<T> function, CompletableFuture<T> future) {
+            this(function, future, false);
+        }
+
+        private Task(LuaStateFacade.LuaStateFunction<T> function, CompletableFuture<T> future, boolean unlocked) {
+            this.function = function;
+            this.future = future;
+            this.unlocked = unlocked;
+        }
+
+        private void run(LuaState luaState) {
+            if (future.isDone()) return;
+            try {
+                future.complete(function.apply(luaState));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static final Task<Void> STOP = new Task<>(null, null);
+
+    private final LuaStateFacade facade;
+    private final BlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final Thread owner;
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private volatile boolean closed = false;
+
+    LuaStateExecutor(LuaStateFacade facade, ThreadFactory threadFactory) {
+        this.facade = facade;
+        this.owner = threadFactory.newThread(this::loop);
+        this.owner.start();
+    }
+
+    /**
+     * Submits a task. Tasks run in submission order on the owner thread.
+     * If called from the owner thread, the task runs immediately to avoid waiting for itself.
+     *
+     * @param function task
+     * @return future of task result, completed exceptionally if task failed or executor closed.
+     */
+    public <T> CompletableFuture<T> submit(LuaStateFacade.LuaStateFunction<T> function) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task<T> task = new Task<>(function, future);
+        if (Thread.currentThread() == owner) {
+            task.run(facade.getLuaState());
+        } else if (closed) {
+            future.completeExceptionally(new IllegalStateException("LuaStateExecutor is closed"));
+        } else {
+            queue.add(task);
+            if (closed && queue.remove(task)) {
+                future.completeExceptionally(new IllegalStateException("LuaStateExecutor is closed"));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Queues a task which runs on the owner thread without the state lock. Unlike
+     * {@link #submit(LuaStateFacade.LuaStateFunction)}, the task is always queued
+     * even if called from the owner thread, so continuations never run nested.
+     *
+     * @param runnable task, takes the state lock by itself if needed.
+     * @throws RejectedExecutionException if executor is closed.
+     */
+    void post(Runnable runnable) {
+        Task<Void> task = new Task<>(l -> {
+            runnable.run();
+            return null;
+        }, new CompletableFuture<>(), true);
+        if (closed) {
+            throw new RejectedExecutionException("LuaStateExecutor is closed");
+        }
+        queue.add(task);
+        // owner thread may have finished its last drain, then nobody takes this task.
+        if (closed && queue.remove(task)) {
+            throw new RejectedExecutionException("LuaStateExecutor is closed");
+        }
+    }
+
+    /**
+     * @param maxBatchSize max tasks run in one lock, at least 1.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public LuaStateFacade getFacade() {
+        return facade;
+    }
+
+    public boolean isOwnerThread() {
+        return Thread.currentThread() == owner;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stops owner thread after queued tasks finished. Not closes the lua state.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        queue.add(STOP);
+    }
+
+    private void loop() {
+        List<Task<?>> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                closed = true;
+                break;
+            }
+            queue.drainTo(batch, maxBatchSize - 1);
+            int i = 0;
+            while (i < batch.size()) {
+                if (batch.get(i).unlocked) {
+                    runTask(batch.get(i++));
+                    continue;
+                }
+                // consecutive locked tasks share one lock.
+                facade.lock();
+                try {
+                    for (; i < batch.size() && !batch.get(i).unlocked; i++) {
+                        Task<?> task = batch.get(i);
+                        if (task == STOP) {
+                            running = false;
+                        } else {
+                            runTask(task);
+                        }
+                    }
+                } finally {
+                    facade.unlock();
+                }
+            }
+            batch.clear();
+        }
+
+        Task<?> task;
+        while ((task = queue.poll()) != null) {
+            if (task.unlocked) {
+                runTask(task);
+                continue;
+            }
+            if (task != STOP) {
+                task.future.completeExceptionally(new IllegalStateException("LuaStateExecutor is closed"));
+            }
+        }
+    }
+
+    private void runTask(Task<?> task) {
+        // unlocked tasks are continuations, they fail their own results if state is closed.
+        if (!task.unlocked && facade.isClosed()) {
+            task.future.completeExceptionally(new IllegalStateException("LuaState is closed"));
+        } else {
+            task.run(facade.getLuaState());
+        }
+    }
+}
@@ -29,9 +29,14 @@ import org.eu.smileyik.luajava.type.IInnerLuaObject;
 import org.eu.smileyik.luajava.type.ILuaCallable;
 import org.eu.smileyik.luajava.util.ParamRef;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 
@@ -62,7 +67,11 @@ public class LuaStateFacade implements AutoCloseable {
         public void accept(LuaState luaState);
     }
 
-    private final Lock lock = new ReentrantLock();
+    private static final int MAX_POOLED_THREADS = 64;
+
+    private final LuaStateMetrics metrics;
+    private final LuaRefQueue refQueue;
+    private final Lock lock;
     private final int stateId;
     private final LuaState luaState;
     private final boolean ignoreNotPublic;
@@ -73,14 +82,37 @@ public class LuaStateFacade implements AutoCloseable {
     private boolean justUseFirstMethod;
     private BiConsumer<LuaStateFacade, LuaDebug> debugHook = null;
     private Function<Throwable, Throwable> throwableHook = null;
+    private final LuaValueBuffer valueBuffer = new LuaValueBuffer(this);
+    /**
+     * finished coroutines for reuse, guarded by lock.
+     */
+    private final Deque<LuaThread> threadPool = new ArrayDeque<>();
+    /**
+     * live coroutines created by {@link #newLuaThread()}, keyed by lua_State pointer. guarded by lock.
+     */
+    private final Map<Long, LuaThread> threads = new HashMap<>();
+    /**
+     * wrapper of the last coroutine created by lua which called java, guarded by lock.
+     */
+    private LuaThread foreignThread = null;
+    /**
+     * current java call from lua, guarded by lock.
+     */
+    private LuaBorrowFrame borrowFrame = null;
 
     protected LuaStateFacade(int stateId, boolean ignoreNotPublic) {
+        this.metrics = new LuaStateMetrics();
+        this.refQueue = new LuaRefQueue(this);
+        this.lock = new LuaStateLock(metrics, refQueue);
         this.stateId = stateId;
         this.luaState = new LuaState(stateId);
         this.ignoreNotPublic = ignoreNotPublic;
     }
 
     protected LuaStateFacade(CPtr cPtr) {
+        this.metrics = new LuaStateMetrics();
+        this.refQueue = new LuaRefQueue(this);
+        this.lock = new LuaStateLock(metrics, refQueue);
         ParamRef<LuaStateFacade> existLuaState = ParamRef.wrapper();
         this.stateId = LuaStateFactory.insertLuaState(this, cPtr, existLuaState);
         this.luaState = existLuaState.isEmpty() ?
@@ -88,6 +120,21 @@ public class LuaStateFacade implements AutoCloseable {
         this.ignoreNotPublic = existLuaState.isEmpty() || existLuaState.getParamAndClear().ignoreNotPublic;
     }
 
+    /**
+     * Wraps a coroutine of parent, shares the lock, metrics and id of parent.
+     */
+    protected LuaStateFacade(LuaStateFacade parent, LuaState threadState) {
+        this.metrics = parent.metrics;
+        this.refQueue = parent.refQueue;
+        this.lock = parent.lock;
+        this.stateId = parent.stateId;
+        this.luaState = threadState;
+        this.ignoreNotPublic = parent.ignoreNotPublic;
+        this.justUseFirstMethod = parent.justUseFirstMethod;
+        this.debugHook = parent.debugHook;
+        this.throwableHook = parent.throwableHook;
+    }
+
     public long getCPtrPeer() {
         return luaState.getCPtrPeer();
     }
@@ -250,6 +297,135 @@ public class LuaStateFacade implements AutoCloseable {
         });
     }
 
+    /**
+     * Locks this state once and returns a session for batched stack operations.
+     * The lock is released when session closed, so use it with try-with-resources.
+     *
+     * @return session
+     */
+    public LuaSession openSession() {
+        lock.lock();
+        return new LuaSession(this, luaState);
+    }
+
+    /**
+     * Starts a daemon owner thread which runs submitted tasks of this state in batches.
+     *
+     * @return executor, close it when no longer used.
+     */
+    public LuaStateExecutor newExecutor() {
+        return newExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LuaStateExecutor-" + stateId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts an owner thread which runs submitted tasks of this state in batches.
+     *
+     * @param threadFactory creates owner thread, may create a virtual thread.
+     * @return executor, close it when no longer used.
+     */
+    public LuaStateExecutor newExecutor(ThreadFactory threadFactory) {
+        return new LuaStateExecutor(this, threadFactory);
+    }
+
+    /**
+     * Registers a global lua function which suspends the calling coroutine until
+     * the future returned by function completed. The coroutine must be resumed by
+     * {@link #resumeAsync(LuaStateFacade, int)}, the result is returned in lua,
+     * and a failed future raises a lua error.
+     *
+     * @param name     global name
+     * @param function async java function
+     */
+    public Result<Void, ? extends LuaException> registerAsyncFunction(String name, LuaAsyncFunction function) {
+        return LuaAsyncBridge.register(this, name, function);
+    }
+
+    /**
+     * Resumes a coroutine of this state and handles its async function calls.
+     * The lock is released while a result is pending, and the coroutine is resumed
+     * on the thread which completed the result.
+     *
+     * @param thread coroutine created by {@link #newLuaThread()}, arguments should be pushed on its stack.
+     * @param nArgs  arguments count
+     * @return count of values returned (or yielded by lua) on coroutine stack.
+     */
+    public CompletableFuture<Integer> resumeAsync(LuaStateFacade thread, int nArgs) {
+        return LuaAsyncBridge.resume(this, thread, nArgs, Runnable::run);
+    }
+
+    public LuaStateMetrics getMetrics() {
+        return metrics;
+    }
+
+    LuaRefQueue getRefQueue() {
+        return refQueue;
+    }
+
+    /**
+     * Lua objects created by this facade are bound to the returned facade,
+     * a coroutine facade returns its parent so that objects outlive the coroutine.
+     */
+    LuaStateFacade getOwner() {
+        return this;
+    }
+
+    /**
+     * Finds the facade of the lua_State which called java, so that the callback reads its own stack.
+     * A coroutine created by {@link #newLuaThread()} is mapped to its LuaThread, a coroutine created
+     * by lua is wrapped. Lock must be held by current thread.
+     *
+     * @param peer running lua_State pointer
+     * @return facade of the running lua_State
+     */
+    LuaStateFacade forPeer(long peer) {
+        if (peer == 0 || peer == luaState.getCPtrPeer()) return this;
+        LuaThread thread = threads.get(peer);
+        if (thread != null) return thread;
+        // the wrapper holds nothing but the pointer, reuse it while same coroutine calls java.
+        thread = foreignThread;
+        if (thread == null || thread.getCPtrPeer() != peer) {
+            thread = LuaThread.wrap(this, peer);
+            foreignThread = thread;
+        }
+        return thread;
+    }
+
+    /**
+     * lock must be held by current thread.
+     */
+    void registerThread(LuaThread thread) {
+        threads.put(thread.getCPtrPeer(), thread);
+    }
+
+    /**
+     * lock must be held by current thread.
+     */
+    void unregisterThread(LuaThread thread) {
+        threads.remove(thread.getCPtrPeer(), thread);
+    }
+
+    LuaBorrowFrame getBorrowFrame() {
+        return borrowFrame;
+    }
+
+    void setBorrowFrame(LuaBorrowFrame borrowFrame) {
+        this.borrowFrame = borrowFrame;
+    }
+
+    /**
+     * Opens an arena on current thread, lua objects created in it are released together
+     * when it closed instead of by the cleaner.
+     *
+     * @return arena
+     */
+    public LuaArena openArena() {
+        return new LuaArena(this);
+    }
+
     public void lock() {
         lock.lock();
     }
@@ -274,7 +450,7 @@ public class LuaStateFacade implements AutoCloseable {
     public void close() {
         lock.lock();
         try {
-            LuaStateFactory.removeLuaState(stateId);
+            LuaStateFactory.removeLuaState(stateId, this);
             if (luaState != null && !luaState.isClosed()) {
                 luaState.clearRef();
             }
@@ -336,7 +512,7 @@ public class LuaStateFacade implements AutoCloseable {
      * @throws LuaException if parent is not a table or userdata
      */
     public Result<LuaObject, ? extends LuaException> getLuaObject(LuaObject parent, String name) {
-        if (parent.luaState.getCPtrPeer() != luaState.getCPtrPeer()) {
+        if (parent.luaState.getCPtrPeer() != getOwner().getCPtrPeer()) {
             return Result.failure(new LuaException("Object must have the same LuaState as the parent!"));
         }
         return LuaObject.create(parent, name);
@@ -361,7 +537,7 @@ public class LuaStateFacade implements AutoCloseable {
      * @throws LuaException When the parent object isn't a Table or Userdata
      */
     public Result<LuaObject, ? extends LuaException> getLuaObject(LuaObject parent, Number name) {
-        if (parent.luaState.getCPtrPeer() != luaState.getCPtrPeer()) {
+        if (parent.luaState.getCPtrPeer() != getOwner().getCPtrPeer()) {
             return Result.failure(new LuaException("Object must have the same LuaState as the parent!"));
         }
 
@@ -377,7 +553,7 @@ public class LuaStateFacade implements AutoCloseable {
      * @throws LuaException When the parent object isn't a Table or Userdata
      */
     public Result<LuaObject, ? extends LuaException> getLuaObject(LuaObject parent, LuaObject name) {
-        if (parent.getLuaState().getCPtrPeer() != luaState.getCPtrPeer() ||
+        if (parent.getLuaState().getCPtrPeer() != getOwner().getCPtrPeer() ||
                 parent.getLuaState().getCPtrPeer() != name.getLuaState().getCPtrPeer()) {
             return Result.failure(new LuaException("Object must have the same LuaState as the parent!"));
         }
@@ -456,6 +632,36 @@ public class LuaStateFacade implements AutoCloseable {
         return Result.success(null);
     }
 
+    /**
+     * Function that returns Java Objects equivalent to the values from <code>from</code>
+     * to <code>from + count - 1</code> of the Lua Stack.
+     *
+     * @param from  first index in the Lua Stack, must be a positive index
+     * @param count values count
+     * @return Java objects equivalent to the Lua ones
+     */
+    public Result<Object[], ? extends LuaException> toJavaObjects(int from, int count) {
+        lock.lock();
+        try {
+            return rawToJavaObjects(from, count);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Function that returns Java Objects equivalent to the values from <code>from</code>
+     * to <code>from + count - 1</code> of the Lua Stack.
+     * Primitive values, strings and java objects are read in one native call.
+     *
+     * @param from  first index in the Lua Stack, must be a positive index
+     * @param count values count
+     * @return Java objects equivalent to the Lua ones
+     */
+    public Result<Object[], ? extends LuaException> rawToJavaObjects(int from, int count) {
+        return valueBuffer.snapshot(from, count);
+    }
+
     /**
      * Pushes into the stack any object value.<br>
      * This function checks if the object could be pushed as a lua type, if not
@@ -512,8 +718,75 @@ public class LuaStateFacade implements AutoCloseable {
         return Result.success();
     }
 
+    /**
+     * Pushes into the stack object values in order.
+     *
+     * @param objs values
+     * @see #rawPushObjectValues(Object[])
+     */
+    public Result<Void, ? extends LuaException> pushObjectValues(Object[] objs) {
+        lock.lock();
+        try {
+            return rawPushObjectValues(objs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Pushes into the stack object values in order, same as calling
+     * {@link #rawPushObjectValue(Object)} for each value. Null, booleans, numbers,
+     * strings and plain java objects are pushed in one native call.
+     * If failed, the values already pushed stay in stack.
+     *
+     * @param objs values
+     */
+    public Result<Void, ? extends LuaException> rawPushObjectValues(Object[] objs) {
+        return valueBuffer.push(objs);
+    }
+
     // STACK MANIPULATION
 
+    /**
+     * Gets a coroutine of this state, reuses a finished one if possible.
+     * Unlike {@link #newThread()}, it shares the lock and id of this state and is not
+     * registered in {@link LuaStateFactory}. Close it to give it back.
+     *
+     * @return coroutine
+     */
+    public LuaThread newLuaThread() {
+        lock.lock();
+        try {
+            LuaThread thread = threadPool.pollFirst();
+            if (thread != null) {
+                thread.setPooled(false);
+                return thread;
+            }
+            return LuaThread.create(this);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the closed coroutine for reuse, or releases it.
+     */
+    void recycleThread(LuaThread thread) {
+        lock.lock();
+        try {
+            if (thread.isPooled()) return;
+            if (!isClosed() && threadPool.size() < MAX_POOLED_THREADS && thread.isReusable()) {
+                thread.getLuaState().setTop(0);
+                thread.setPooled(true);
+                threadPool.offerFirst(thread);
+            } else {
+                thread.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public LuaStateFacade newThread() {
         lock.lock();
         try {
@@ -921,13 +1194,11 @@ public class LuaStateFacade implements AutoCloseable {
             innerObject.rawPush();
             if (args != null) {
                 nargs = args.length;
-                for (Object obj : args) {
-                    Result<Void, ? extends LuaException> pushResult = rawPushObjectValue(obj);
-                    if (pushResult.isError()) {
-                        // return Result.failure(pushResult.getError(),
-                        // "Convert Java object to lua function params failed");
-                        return pushResult.justCast();
-                    }
+                Result<Void, ? extends LuaException> pushResult = rawPushObjectValues(args);
+                if (pushResult.isError()) {
+                    // return Result.failure(pushResult.getError(),
+                    // "Convert Java object to lua function params failed");
+                    return pushResult.justCast();
                 }
             }
 
@@ -941,14 +1212,7 @@ public class LuaStateFacade implements AutoCloseable {
                     return Result.failure(new LuaException("Invalid Number of Results .")).justCast();
                 }
 
-                Object[] res = new Object[nres];
-                for (int i = nres - 1; i >= 0; i--) {
-                    Result<Object, ? extends LuaException> ret = rawToJavaObject(-1);
-                    if (ret.isError()) return ret.justCast();
-                    res[i] = ret.getValue();
-                    luaState.pop(1);
-                }
-                return Result.success(res);
+                return rawToJavaObjects(currentTop - nres + 1, nres);
             });
         } finally {
             luaState.setTop(top);
@@ -1377,4 +1641,50 @@ public class LuaStateFacade implements AutoCloseable {
         });
     }
 
+    /**
+     * Forks this state, libs are opened in new state then globals are merged from this state.
+     *
+     * @see #fork(LuaStateInitializer)
+     */
+    public Result<LuaStateFacade, ? extends Exception> fork() {
+        return fork(LuaStateFacade::openLibs);
+    }
+
+    /**
+     * Forks this state. New state is prepared by <code>prepare</code>, then the globals,
+     * loaded modules and their upvalues are deep copied from this state in one native call.
+     * Values already set by <code>prepare</code> are kept, tables exist in both are merged.
+     * <p>
+     * C functions and {@link JavaFunction} are bound to their state, so they can't be copied.
+     * Open the same libs and register java functions in <code>prepare</code>.
+     *
+     * @param prepare prepares new state before merging.
+     * @return independent new state.
+     */
+    public Result<LuaStateFacade, ? extends Exception> fork(LuaStateInitializer prepare) {
+        LuaStateFacade facade = LuaStateFactory.newLuaState(ignoreNotPublic);
+        facade.setJustUseFirstMethod(justUseFirstMethod);
+        try {
+            prepare.initialize(facade);
+        } catch (Exception e) {
+            facade.close();
+            return Result.failure(e);
+        }
+
+        lock.lock();
+        try {
+            facade.lock.lock();
+            try {
+                if (!luaState.mergeGlobals(facade.luaState)) {
+                    facade.close();
+                    return Result.failure(new LuaException("Failed to merge globals to forked state"));
+                }
+            } finally {
+                facade.lock.unlock();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return Result.success(facade);
+    }
 }
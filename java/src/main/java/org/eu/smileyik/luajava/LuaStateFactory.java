@@ -49,9 +49,12 @@ package org.eu.smileyik.luajava;
 
 import org.eu.smileyik.luajava.util.ParamRef;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * This class is responsible for instantiating new LuaStates.
@@ -67,11 +70,24 @@ public final class LuaStateFactory {
      * state id generator
      */
     private static final AtomicInteger COUNTER = new AtomicInteger(0);
+    /**
+     * ids of removed states, reused first so ids stay in the state table. guarded by class lock.
+     */
+    private static final Deque<Integer> FREE_IDS = new ArrayDeque<>();
     /**
      * all lua state instances
      */
     private static final ConcurrentMap<Integer, LuaStateFacade> STATES = new ConcurrentHashMap<>();
     private static final ConcurrentMap<Long, Integer> CPER_TP_STATE_ID_MAP = new ConcurrentHashMap<>();
+    /**
+     * the max size of state table, states which id greater than this value only can be found in STATES.
+     */
+    private static final int MAX_STATE_TABLE_SIZE = 1 << 12;
+    /**
+     * lock free index for {@link #getExistingState(int)}, which is called in every callback from lua.
+     * avoid hashing and boxing the state id.
+     */
+    private static volatile AtomicReferenceArray<LuaStateFacade> stateTable = new AtomicReferenceArray<>(16);
 
     /**
      * Non-public constructor.
@@ -94,8 +110,8 @@ public final class LuaStateFactory {
      * @return LuaState
      */
     public synchronized static LuaStateFacade newLuaState(boolean ignoreNotPublic) {
-        LuaStateFacade facade = new LuaStateFacade(COUNTER.getAndIncrement(), ignoreNotPublic);
-        STATES.put(facade.getStateId(), facade);
+        LuaStateFacade facade = new LuaStateFacade(nextStateId(), ignoreNotPublic);
+        putState(facade.getStateId(), facade);
         CPER_TP_STATE_ID_MAP.put(facade.getCPtrPeer(), facade.getStateId());
         return facade;
     }
@@ -107,6 +123,10 @@ public final class LuaStateFactory {
      * @return LuaState
      */
     public static LuaStateFacade getExistingState(int index) {
+        AtomicReferenceArray<LuaStateFacade> table = stateTable;
+        if (index >= 0 && index < table.length()) {
+            return table.get(index);
+        }
         return STATES.get(index);
     }
 
@@ -123,9 +143,9 @@ public final class LuaStateFactory {
         long target = cPtr == null ? L.getCPtrPeer() : cPtr.getPeer();
         Integer stateId = CPER_TP_STATE_ID_MAP.get(target);
         if (stateId == null) {
-            stateId = COUNTER.incrementAndGet();
+            stateId = nextStateId();
             CPER_TP_STATE_ID_MAP.put(target, stateId);
-            STATES.put(stateId, L);
+            putState(stateId, L);
         } else {
             existLuaState.setParam(STATES.get(stateId));
         }
@@ -138,11 +158,65 @@ public final class LuaStateFactory {
      *
      * @param idx
      */
-    public static void removeLuaState(int idx) {
-        LuaStateFacade remove = STATES.remove(idx);
-        if (remove != null) {
-            long cPtrPeer = remove.getCPtrPeer();
-            CPER_TP_STATE_ID_MAP.remove(cPtrPeer, idx);
+    public synchronized static void removeLuaState(int idx) {
+        LuaStateFacade facade = STATES.get(idx);
+        if (facade != null) {
+            removeLuaState(idx, facade);
+        }
+    }
+
+    /**
+     * removes the luaState from the states list only when the id still belongs to given facade.
+     * a closed facade must not remove the state which reused its id.
+     *
+     * @param idx    state id
+     * @param facade facade which owns the id
+     */
+    public synchronized static void removeLuaState(int idx, LuaStateFacade facade) {
+        // compare by identity, a wrapper facade of the same state is equal to the owner.
+        if (STATES.get(idx) != facade) {
+            return;
+        }
+        STATES.remove(idx);
+        AtomicReferenceArray<LuaStateFacade> table = stateTable;
+        if (idx >= 0 && idx < table.length()) {
+            table.compareAndSet(idx, facade, null);
+        }
+        CPER_TP_STATE_ID_MAP.remove(facade.getCPtrPeer(), idx);
+        FREE_IDS.push(idx);
+    }
+
+    /**
+     * take a free state id. must be called with class lock.
+     *
+     * @return state id
+     */
+    private static int nextStateId() {
+        Integer id = FREE_IDS.poll();
+        return id == null ? COUNTER.getAndIncrement() : id;
+    }
+
+    /**
+     * put state to STATES and state table. must be called with class lock.
+     *
+     * @param stateId state id
+     * @param L       lua state
+     */
+    private static void putState(int stateId, LuaStateFacade L) {
+        STATES.put(stateId, L);
+        AtomicReferenceArray<LuaStateFacade> table = stateTable;
+        if (stateId >= table.length() && stateId < MAX_STATE_TABLE_SIZE) {
+            int size = table.length();
+            while (size <= stateId) size <<= 1;
+            AtomicReferenceArray<LuaStateFacade> newTable =
+                    new AtomicReferenceArray<>(Math.min(size, MAX_STATE_TABLE_SIZE));
+            for (int i = 0; i < table.length(); i++) {
+                newTable.set(i, table.get(i));
+            }
+            stateTable = table = newTable;
+        }
+        if (stateId < table.length()) {
+            table.set(stateId, L);
         }
     }
 }
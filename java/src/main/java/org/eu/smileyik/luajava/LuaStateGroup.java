@@ -0,0 +1,201 @@
+/*
+ * LuaStateGroup.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.exception.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of lua states (shards) initialized by the same initializer.
+ * <p>
+ * Calls are routed by the hash of a key, so the same key always goes to the same shard and
+ * the state of one entity stays in one shard. Different shards have their own locks, so calls
+ * with different keys could run in parallel. Use {@link #broadcast(ShardAction)} or
+ * {@link #reload(String)} to change all shards, such as reloading scripts.
+ */
+public class LuaStateGroup implements AutoCloseable {
+    public interface ShardAction<T> {
+        public T apply(LuaStateFacade facade) throws Exception;
+    }
+
+    private final LuaStateFacade[] shards;
+    private volatile boolean closed = false;
+
+    private LuaStateGroup(LuaStateFacade[] shards) {
+        this.shards = shards;
+    }
+
+    /**
+     * Creates a group with one shard per available processor.
+     *
+     * @param initializer initializes each shard, such as open libs and load scripts.
+     */
+    public static Result<LuaStateGroup, ? extends Exception> create(LuaStateInitializer initializer) {
+        return create(Runtime.getRuntime().availableProcessors(), initializer);
+    }
+
+    /**
+     * Creates a group, all shards will be closed if any one failed to initialize.
+     *
+     * @param shardCount  count of states
+     * @param initializer initializes each shard, such as open libs and load scripts.
+     */
+    public static Result<LuaStateGroup, ? extends Exception> create(int shardCount,
+                                                                    LuaStateInitializer initializer) {
+        if (shardCount <= 0) {
+            return Result.failure(new IllegalArgumentException("shardCount must be positive"));
+        }
+        LuaStateFacade[] shards = new LuaStateFacade[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = LuaStateFactory.newLuaState();
+            try {
+                initializer.initialize(shards[i]);
+            } catch (Exception e) {
+                for (int j = 0; j <= i; j++) {
+                    shards[j].close();
+                }
+                return Result.failure(e);
+            }
+        }
+        return Result.success(new LuaStateGroup(shards));
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param key routing key, null goes to the first shard.
+     * @return shard index of key
+     */
+    public int shardOf(Object key) {
+        if (key == null) return 0;
+        int h = key.hashCode();
+        // spread high bits, hash codes of sequential ids differ in low bits only.
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return Math.floorMod(h, shards.length);
+    }
+
+    /**
+     * @param key routing key
+     * @return shard of key
+     */
+    public LuaStateFacade getState(Object key) {
+        checkClosed();
+        return shards[shardOf(key)];
+    }
+
+    public LuaStateFacade getShard(int index) {
+        checkClosed();
+        return shards[index];
+    }
+
+    public List<LuaStateFacade> getShards() {
+        checkClosed();
+        List<LuaStateFacade> list = new ArrayList<>(shards.length);
+        Collections.addAll(list, shards);
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Runs function with the lock of the shard of key.
+     *
+     * @param key      routing key
+     * @param function function
+     */
+    public <T> Result<T, ? extends LuaException> lockThrow(Object key, LuaStateFacade.LuaStateFunction<T> function) {
+        return getState(key).lockThrow(function);
+    }
+
+    /**
+     * Runs action on the shard of key. The shard is locked while action running.
+     *
+     * @param key    routing key
+     * @param action action
+     */
+    public <T> Result<T, ? extends Exception> execute(Object key, ShardAction<T> action) {
+        return run(getState(key), action);
+    }
+
+    /**
+     * Runs action on every shard one by one, stops at the first failure.
+     *
+     * @param action action
+     * @return results in shard order
+     */
+    public <T> Result<List<T>, ? extends Exception> broadcast(ShardAction<T> action) {
+        checkClosed();
+        List<T> results = new ArrayList<>(shards.length);
+        for (LuaStateFacade shard : shards) {
+            Result<T, ? extends Exception> result = run(shard, action);
+            if (result.isError()) return result.justCast();
+            results.add(result.getValue());
+        }
+        return Result.success(results);
+    }
+
+    /**
+     * Runs script on every shard, such as reloading modules.
+     *
+     * @param script lua script
+     */
+    public Result<Void, ? extends Exception> reload(String script) {
+        Result<List<Integer>, ? extends Exception> result =
+                broadcast(shard -> shard.evalString(script).getOrThrow());
+        return result.isError() ? result.justCast() : Result.success();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (LuaStateFacade shard : shards) {
+            shard.close();
+        }
+    }
+
+    private <T> Result<T, ? extends Exception> run(LuaStateFacade shard, ShardAction<T> action) {
+        shard.lock();
+        try {
+            return Result.success(action.apply(shard));
+        } catch (Exception e) {
+            return Result.failure(e);
+        } finally {
+            shard.unlock();
+        }
+    }
+
+    private void checkClosed() {
+        if (closed) throw new IllegalStateException("LuaStateGroup is closed");
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * LuaStateLock.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State lock which records contention. Uncontended locking is a single tryLock.
+ * It is a {@link ReentrantLock}, so a virtual thread waiting for it unmounts
+ * instead of pinning its carrier thread.
+ * <p>
+ * References released by cleaner are freed when the lock is taken, not nested.
+ */
+final class LuaStateLock extends ReentrantLock {
+    private static final long serialVersionUID = 1L;
+
+    private final LuaStateMetrics metrics;
+    private final LuaRefQueue refQueue;
+
+    LuaStateLock(LuaStateMetrics metrics, LuaRefQueue refQueue) {
+        this.metrics = metrics;
+        this.refQueue = refQueue;
+    }
+
+    @Override
+    public void lock() {
+        if (!tryLock()) {
+            long start = System.nanoTime();
+            super.lock();
+            metrics.lockContended(System.nanoTime() - start);
+        }
+        if (refQueue.hasPending() && getHoldCount() == 1) {
+            refQueue.drain();
+        }
+    }
+}
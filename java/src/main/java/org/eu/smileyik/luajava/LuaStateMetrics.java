@@ -0,0 +1,140 @@
+/*
+ * LuaStateMetrics.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.util.VirtualThreadHelper;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock and pinning metrics of a lua state.
+ * <p>
+ * A java callback called by lua runs inside a JNI frame, so a virtual thread which runs it
+ * is pinned to its carrier thread until the callback returns. Such callbacks are counted as
+ * pinned callbacks. Pinned events reported by JFR are counted when
+ * {@link VirtualThreadPinningMonitor} is running.
+ */
+public final class LuaStateMetrics {
+    private static final long NOT_PINNED = Long.MIN_VALUE;
+
+    private final LongAdder contendedLocks = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder pinnedCallbacks = new LongAdder();
+    private final LongAdder pinnedCallbackNanos = new LongAdder();
+    private final LongAdder pinnedEvents = new LongAdder();
+    private final LongAdder pinnedEventNanos = new LongAdder();
+    private final LongAdder asyncSuspensions = new LongAdder();
+
+    LuaStateMetrics() {
+    }
+
+    /**
+     * @return times the state lock was already held by another thread when locking.
+     */
+    public long getContendedLocks() {
+        return contendedLocks.sum();
+    }
+
+    /**
+     * @return total time spent on waiting for the state lock.
+     */
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    /**
+     * @return count of java callbacks which ran on virtual threads.
+     */
+    public long getPinnedCallbacks() {
+        return pinnedCallbacks.sum();
+    }
+
+    /**
+     * @return total time of java callbacks which ran on virtual threads.
+     */
+    public long getPinnedCallbackNanos() {
+        return pinnedCallbackNanos.sum();
+    }
+
+    /**
+     * @return count of <code>jdk.VirtualThreadPinned</code> events of this state.
+     */
+    public long getPinnedEvents() {
+        return pinnedEvents.sum();
+    }
+
+    public long getPinnedEventNanos() {
+        return pinnedEventNanos.sum();
+    }
+
+    /**
+     * @return times coroutines suspended on pending async results.
+     */
+    public long getAsyncSuspensions() {
+        return asyncSuspensions.sum();
+    }
+
+    void lockContended(long waitNanos) {
+        contendedLocks.increment();
+        lockWaitNanos.add(waitNanos);
+    }
+
+    /**
+     * Marks a java callback called by lua starts.
+     *
+     * @return token passed to {@link #exitCallback(long)}
+     */
+    long enterCallback() {
+        return VirtualThreadHelper.isCurrentVirtual() ? System.nanoTime() : NOT_PINNED;
+    }
+
+    void exitCallback(long token) {
+        if (token == NOT_PINNED) return;
+        pinnedCallbacks.increment();
+        pinnedCallbackNanos.add(System.nanoTime() - token);
+        VirtualThreadPinningMonitor.track(Thread.currentThread().getId(), this);
+    }
+
+    void pinnedEvent(long nanos) {
+        pinnedEvents.increment();
+        pinnedEventNanos.add(nanos);
+    }
+
+    void asyncSuspended() {
+        asyncSuspensions.increment();
+    }
+
+    @Override
+    public String toString() {
+        return "LuaStateMetrics{" +
+                "contendedLocks=" + getContendedLocks() +
+                ", lockWaitNanos=" + getLockWaitNanos() +
+                ", pinnedCallbacks=" + getPinnedCallbacks() +
+                ", pinnedCallbackNanos=" + getPinnedCallbackNanos() +
+                ", pinnedEvents=" + getPinnedEvents() +
+                ", pinnedEventNanos=" + getPinnedEventNanos() +
+                ", asyncSuspensions=" + getAsyncSuspensions() +
+                '}';
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * LuaStatePool.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.exception.Result;
+import org.eu.smileyik.luajava.type.ILuaCallable;
+
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool keeps initialized lua states, so a state does not need to open libraries
+ * and run bootstrap scripts for each request.
+ * <p>
+ * Each state is initialized by the initializer once. When a state is returned,
+ * its stack is cleared and it is restored to the template taken right after initialization:
+ * every table reachable from the globals and from named registry entries (such as
+ * <code>string</code> and <code>package.loaded</code>) gets back its template fields and metatable,
+ * and named registry entries added by user are removed. Registry references and the
+ * internal caches of luajava are not touched. Values stored in upvalues are not restored.
+ * <p>
+ * A state will be closed instead of reused if it has been borrowed too many times
+ * or its memory grows too much from the template.
+ */
+public class LuaStatePool implements AutoCloseable {
+    private static final String TEMPLATE_SCRIPT = "" +
+            "local registry = ...\n" +
+            "local G, next, type, rawget, rawset, find = _G, next, type, rawget, rawset, string.find\n" +
+            "local getmetatable, setmetatable, pcall = getmetatable, setmetatable, pcall\n" +
+            "local snapshots, metatables = {}, {}\n" +
+            "local function snapshot(root)\n" +
+            "    local pending, n = {root}, 1\n" +
+            "    while n > 0 do\n" +
+            "        local t = pending[n]\n" +
+            "        pending[n], n = nil, n - 1\n" +
+            "        if not snapshots[t] then\n" +
+            "            local c = {}\n" +
+            "            snapshots[t], metatables[t] = c, getmetatable(t) or false\n" +
+            "            for k, v in next, t do\n" +
+            "                c[k] = v\n" +
+            "                if type(v) == 'table' and not snapshots[v] then n = n + 1; pending[n] = v end\n" +
+            "            end\n" +
+            "        end\n" +
+            "    end\n" +
+            "end\n" +
+            "local function restore(t, template, skip)\n" +
+            "    for k in next, t do\n" +
+            "        if rawget(template, k) == nil and not (skip and skip(k)) then rawset(t, k, nil) end\n" +
+            "    end\n" +
+            "    for k, v in next, template do\n" +
+            "        if rawget(t, k) ~= v then rawset(t, k, v) end\n" +
+            "    end\n" +
+            "end\n" +
+            // references and luajava caches in registry are not touched.
+            "local function internal(k)\n" +
+            "    return type(k) ~= 'string' or k == '__JNIEnv' or find(k, '^_*LuaJava') ~= nil\n" +
+            "end\n" +
+            "local named = {}\n" +
+            "for k, v in next, registry do\n" +
+            "    if not internal(k) then\n" +
+            "        named[k] = v\n" +
+            "        if type(v) == 'table' then snapshot(v) end\n" +
+            "    end\n" +
+            "end\n" +
+            "snapshot(G)\n" +
+            "return function()\n" +
+            "    restore(registry, named, internal)\n" +
+            "    for t, template in next, snapshots do\n" +
+            "        restore(t, template)\n" +
+            "        local mt = metatables[t] or nil\n" +
+            "        if getmetatable(t) ~= mt then pcall(setmetatable, t, mt) end\n" +
+            "    end\n" +
+            "end";
+
+    /**
+     * put in idle queue when pool closed, wakes up waiting threads.
+     */
+    private static final PooledState CLOSED = new PooledState(null, null, 0);
+    /**
+     * waiting threads retry to create state in this interval, capacity may be freed by destroyed states.
+     */
+    private static final long RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static class PooledState {
+        private final LuaStateFacade facade;
+        private final ILuaCallable reset;
+        private final int baseMemory;
+        private int uses;
+
+        private PooledState(LuaStateFacade facade, ILuaCallable reset, int baseMemory) {
+            this.facade = facade;
+            this.reset = reset;
+            this.baseMemory = baseMemory;
+        }
+    }
+
+    private final int maxSize;
+    private final LuaStateInitializer initializer;
+    private final BlockingDeque<PooledState> idle = new LinkedBlockingDeque<>();
+    private final Map<Integer, PooledState> borrowed = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private volatile int maxUses = 0;
+    private volatile int maxMemoryGrowth = 0;
+    private volatile boolean closed = false;
+
+    /**
+     * @param maxSize     max states count in this pool
+     * @param initializer initializes the new state, such as open libs and run bootstrap scripts.
+     */
+    public LuaStatePool(int maxSize, LuaStateInitializer initializer) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.initializer = initializer;
+    }
+
+    /**
+     * Sets max borrowed times of a state, 0 means no limit.
+     */
+    public void setMaxUses(int maxUses) {
+        this.maxUses = maxUses;
+    }
+
+    /**
+     * Sets max memory (in KBytes) a state could grow from its template, 0 means no limit.
+     */
+    public void setMaxMemoryGrowth(int maxMemoryGrowth) {
+        this.maxMemoryGrowth = maxMemoryGrowth;
+    }
+
+    /**
+     * Creates states in advance until there are <code>count</code> idle states.
+     *
+     * @param count idle states count
+     */
+    public Result<Void, ? extends Exception> prepare(int count) {
+        while (!closed && idle.size() < count) {
+            Result<PooledState, ? extends Exception> result = tryCreate();
+            if (result.isError()) return result.justCast();
+            if (result.getValue() == null) break;
+            idle.offerFirst(result.getValue());
+        }
+        return Result.success();
+    }
+
+    /**
+     * Borrows a state, waits if all states are borrowed.
+     */
+    public Result<LuaStateFacade, ? extends Exception> borrow() {
+        return borrow(-1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a state.
+     *
+     * @param timeout wait time if all states are borrowed, negative means wait forever.
+     * @param unit    time unit.
+     * @return failure if timeout or pool closed.
+     */
+    public Result<LuaStateFacade, ? extends Exception> borrow(long timeout, TimeUnit unit) {
+        long deadline = timeout < 0 ? Long.MAX_VALUE : System.nanoTime() + unit.toNanos(timeout);
+        PooledState state = null;
+        while (state == null) {
+            if (closed) return Result.failure(new IllegalStateException("LuaStatePool is closed"));
+            state = idle.pollFirst();
+            if (state == null) {
+                Result<PooledState, ? extends Exception> result = tryCreate();
+                if (result.isError()) return result.justCast();
+                state = result.getValue();
+            }
+            if (state == null) {
+                long wait = timeout < 0 ? RETRY_NANOS : Math.min(RETRY_NANOS, deadline - System.nanoTime());
+                if (wait <= 0) {
+                    return Result.failure(new IllegalStateException("Timeout to borrow lua state"));
+                }
+                try {
+                    state = idle.pollFirst(wait, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Result.failure(e);
+                }
+            }
+            if (state == CLOSED) {
+                // pass the signal to other waiting threads.
+                idle.offerFirst(CLOSED);
+                return Result.failure(new IllegalStateException("LuaStatePool is closed"));
+            }
+        }
+        state.uses += 1;
+        borrowed.put(state.facade.getStateId(), state);
+        return Result.success(state.facade);
+    }
+
+    /**
+     * Gives the borrowed state back. The state will be reset to template,
+     * or be closed if it reached the lifetime limit or failed to reset.
+     *
+     * @param facade borrowed state
+     */
+    public void giveBack(LuaStateFacade facade) {
+        PooledState state = borrowed.remove(facade.getStateId());
+        if (state == null || state.facade != facade) {
+            throw new IllegalArgumentException("This lua state is not borrowed from this pool");
+        }
+        if (closed || !reset(state)) {
+            destroy(state);
+            // create a warm one instead, waiting threads also retry to create by themselves if failed.
+            if (!closed) prepare(1);
+            return;
+        }
+        idle.offerFirst(state);
+        // pool closed while giving back.
+        if (closed && idle.remove(state)) {
+            destroy(state);
+        }
+    }
+
+    /**
+     * @return count of states created by this pool and not closed yet.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public int getIdleCount() {
+        return closed ? 0 : idle.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Closes idle states, borrowed states will be closed when given back.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        PooledState state;
+        while ((state = idle.pollFirst()) != null) {
+            if (state != CLOSED) destroy(state);
+        }
+        idle.offerFirst(CLOSED);
+    }
+
+    private boolean reset(PooledState state) {
+        LuaStateFacade facade = state.facade;
+        if (facade.isClosed()) return false;
+        int max = maxUses;
+        if (max > 0 && state.uses >= max) return false;
+        try (LuaSession session = facade.openSession()) {
+            session.setTop(0);
+            if (state.reset.call().isError()) return false;
+            session.setTop(0);
+        }
+        int growth = maxMemoryGrowth;
+        if (growth > 0 && facade.getGcCount() - state.baseMemory > growth) {
+            // count includes garbage, collect it before giving up this state.
+            facade.gc(LuaState.LUA_GCCOLLECT, 0);
+            return facade.getGcCount() - state.baseMemory <= growth;
+        }
+        return true;
+    }
+
+    private void destroy(PooledState state) {
+        size.decrementAndGet();
+        ((LuaObject) state.reset).close();
+        state.facade.close();
+    }
+
+    /**
+     * @return null value if pool is full.
+     */
+    private Result<PooledState, ? extends Exception> tryCreate() {
+        int current;
+        do {
+            current = size.get();
+            if (current >= maxSize) return Result.success(null);
+        } while (!size.compareAndSet(current, current + 1));
+
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        try {
+            initializer.initialize(facade);
+            try (LuaSession session = facade.openSession()) {
+                session.setTop(0);
+                facade.loadString(TEMPLATE_SCRIPT).justThrow();
+                session.pushValue(LuaState.LUA_REGISTRYINDEX);
+                session.pcall(1, 1, 0).justThrow();
+                LuaObject reset = session.getLuaObject(-1).getOrThrow();
+                session.setTop(0);
+                facade.gc(LuaState.LUA_GCCOLLECT, 0);
+                return Result.success(new PooledState(facade, (ILuaCallable) reset, facade.getGcCount()));
+            }
+        } catch (Exception e) {
+            size.decrementAndGet();
+            facade.close();
+            return Result.failure(e);
+        }
+    }
+}
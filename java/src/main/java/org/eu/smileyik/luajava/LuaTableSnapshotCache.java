@@ -0,0 +1,176 @@
+/*
+ * LuaTableSnapshotCache.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.exception.Result;
+
+import java.util.*;
+
+/**
+ * Copy-on-write cache of selected global tables, for tables that are read by many threads
+ * but rarely changed, such as configuration tables.
+ * <p>
+ * {@link #refresh()} copies the selected tables into immutable java maps with the state lock
+ * held once, then publishes them with a new version. Readers get the published maps without
+ * locking the state, so they never block the thread which is running lua.
+ * The writer should call {@link #refresh()} after it changed the tables.
+ * <p>
+ * Only nil, booleans, numbers, strings, java objects and nested tables are kept.
+ * Numbers are {@link Double}, and cycles of tables are cut.
+ */
+public class LuaTableSnapshotCache {
+    private static final class Snapshot {
+        private final long version;
+        private final Map<String, Map<Object, Object>> tables;
+
+        private Snapshot(long version, Map<String, Map<Object, Object>> tables) {
+            this.version = version;
+            this.tables = tables;
+        }
+    }
+
+    private final LuaStateFacade facade;
+    private final Set<String> names = new LinkedHashSet<>();
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.emptyMap());
+
+    public LuaTableSnapshotCache(LuaStateFacade facade) {
+        this.facade = facade;
+    }
+
+    /**
+     * Selects global tables to be cached, takes effect after next refresh.
+     *
+     * @param globalNames global table names
+     */
+    public synchronized LuaTableSnapshotCache select(String... globalNames) {
+        names.addAll(Arrays.asList(globalNames));
+        return this;
+    }
+
+    /**
+     * Copies selected tables from lua state and publishes them with a new version.
+     *
+     * @return new version
+     */
+    public synchronized Result<Long, ? extends LuaException> refresh() {
+        Map<String, Map<Object, Object>> tables = new HashMap<>();
+        try (LuaSession session = facade.openSession()) {
+            LuaState luaState = session.getLuaState();
+            int top = luaState.getTop();
+            try {
+                for (String name : names) {
+                    luaState.getGlobal(name);
+                    if (luaState.isTable(-1)) {
+                        tables.put(name, copyTable(luaState, luaState.getTop(), new HashSet<>()));
+                    }
+                    luaState.setTop(top);
+                }
+            } catch (LuaException e) {
+                return Result.failure(e);
+            } finally {
+                luaState.setTop(top);
+            }
+        }
+        Snapshot newSnapshot = new Snapshot(snapshot.version + 1, Collections.unmodifiableMap(tables));
+        snapshot = newSnapshot;
+        return Result.success(newSnapshot.version);
+    }
+
+    /**
+     * @return version of published tables, 0 means never refreshed.
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * Gets the published copy of global table, never blocks.
+     *
+     * @param globalName global table name
+     * @return immutable map, null if not selected, not a table, or not refreshed yet.
+     */
+    public Map<Object, Object> get(String globalName) {
+        return snapshot.tables.get(globalName);
+    }
+
+    /**
+     * Gets the value in published copy of global table by path, never blocks.
+     * Number keys in path are matched as lua numbers.
+     *
+     * @param globalName global table name
+     * @param path       keys
+     * @return value, or null if not found.
+     */
+    public Object get(String globalName, Object... path) {
+        Object current = get(globalName);
+        for (Object key : path) {
+            if (!(current instanceof Map)) return null;
+            if (key instanceof Number) key = ((Number) key).doubleValue();
+            current = ((Map<?, ?>) current).get(key);
+        }
+        return current;
+    }
+
+    private static Map<Object, Object> copyTable(LuaState luaState, int idx, Set<Long> visiting) throws LuaException {
+        long pointer = luaState.toPointer(idx);
+        if (!visiting.add(pointer)) return null;
+        Map<Object, Object> map = new HashMap<>();
+        luaState.pushNil();
+        while (luaState.next(idx) != 0) {
+            Object key = copyValue(luaState, -2, visiting);
+            Object value = copyValue(luaState, -1, visiting);
+            if (key != null && value != null) {
+                map.put(key, value);
+            }
+            luaState.pop(1);
+        }
+        visiting.remove(pointer);
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static Object copyValue(LuaState luaState, int idx, Set<Long> visiting) throws LuaException {
+        switch (luaState.type(idx)) {
+            case LuaState.LUA_TBOOLEAN:
+                return luaState.toBoolean(idx);
+            case LuaState.LUA_TNUMBER:
+                return luaState.toNumber(idx);
+            case LuaState.LUA_TSTRING:
+                // lua_tostring on a key would confuse next, so copy it first.
+                luaState.pushValue(idx);
+                String str = luaState.toString(-1);
+                luaState.pop(1);
+                return str;
+            case LuaState.LUA_TTABLE:
+                luaState.pushValue(idx);
+                try {
+                    return copyTable(luaState, luaState.getTop(), visiting);
+                } finally {
+                    luaState.pop(1);
+                }
+            case LuaState.LUA_TUSERDATA:
+                return luaState.isObject(idx) ? luaState.getObjectFromUserdata(idx) : null;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * LuaThread.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+/**
+ * A lightweight coroutine of a lua state, created by {@link LuaStateFacade#newLuaThread()}.
+ * <p>
+ * It shares the lock and id of its parent, and is anchored by a registry reference instead of
+ * being registered in {@link LuaStateFactory}. Lua objects converted from its stack are bound to
+ * the parent, so they stay usable after the coroutine released. When closed, a finished coroutine
+ * (status is ok and not suspended) is kept by its parent for reuse, others are released.
+ * Do not use it after closed.
+ */
+public class LuaThread extends LuaStateFacade {
+    /**
+     * same as LUA_NOREF, a wrapped coroutine created by lua is not anchored.
+     */
+    private static final int NO_REF = -2;
+
+    private final LuaStateFacade parent;
+    private final int ref;
+    /**
+     * guarded by parent lock.
+     */
+    private boolean pooled = false;
+    private boolean released = false;
+
+    private LuaThread(LuaStateFacade parent, LuaState threadState, int ref) {
+        super(parent, threadState);
+        this.parent = parent;
+        this.ref = ref;
+    }
+
+    /**
+     * parent lock must be held by current thread.
+     */
+    static LuaThread create(LuaStateFacade parent) {
+        LuaState main = parent.getLuaState();
+        long threadPeer = main.newThread().getPeer();
+        // lua_newthread pushed the coroutine, anchor it by registry.
+        int ref = main.Lref(LuaState.LUA_REGISTRYINDEX);
+        LuaThread thread = new LuaThread(parent, new LuaState(main, threadPeer), ref);
+        parent.registerThread(thread);
+        return thread;
+    }
+
+    /**
+     * Wraps a coroutine created by lua which calls java, it is neither anchored nor pooled.
+     * parent lock must be held by current thread.
+     */
+    static LuaThread wrap(LuaStateFacade parent, long threadPeer) {
+        return new LuaThread(parent, new LuaState(parent.getLuaState(), threadPeer), NO_REF);
+    }
+
+    public LuaStateFacade getParent() {
+        return parent;
+    }
+
+    @Override
+    LuaStateFacade getOwner() {
+        return parent;
+    }
+
+    /**
+     * Resumes this coroutine from parent, works on all lua versions.
+     *
+     * @param nArgs arguments count on this coroutine stack
+     * @return status
+     */
+    @Override
+    public int resume(int nArgs) {
+        return lock(l -> {
+            return l.resumeFrom(parent.getLuaState(), nArgs);
+        });
+    }
+
+    /**
+     * @return true if this coroutine is not suspended and not dead by error.
+     */
+    public boolean isReusable() {
+        return lock(l -> {
+            return ref != NO_REF && !released && !isClosed() && l.status() == 0;
+        });
+    }
+
+    @Override
+    LuaStateFacade forPeer(long peer) {
+        return parent.forPeer(peer);
+    }
+
+    @Override
+    public LuaThread newLuaThread() {
+        return parent.newLuaThread();
+    }
+
+    /**
+     * Gives this coroutine back to parent.
+     */
+    @Override
+    public void close() {
+        parent.recycleThread(this);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return released || parent.isClosed();
+    }
+
+    boolean isPooled() {
+        return pooled;
+    }
+
+    void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Releases the registry reference, parent lock must be held by current thread.
+     */
+    void release() {
+        if (released) return;
+        released = true;
+        if (ref == NO_REF) return;
+        parent.unregisterThread(this);
+        if (!parent.isClosed()) {
+            parent.getLuaState().LunRef(LuaState.LUA_REGISTRYINDEX, ref);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * LuaValueBuffer.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.exception.Result;
+import org.eu.smileyik.luajava.util.Utf8Helper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable direct buffer to transfer lua values across JNI in bulk.
+ * Each LuaStateFacade owns one instance, it must be used with facade's lock held.
+ * The value tags must keep same with <code>LUAJAVA_VALUE_TAG_*</code> in luajava_api.h
+ */
+final class LuaValueBuffer {
+    static final byte TAG_NIL = 0;
+    static final byte TAG_FALSE = 1;
+    static final byte TAG_TRUE = 2;
+    static final byte TAG_NUMBER = 3;
+    static final byte TAG_STRING = 4;
+    static final byte TAG_JAVA_OBJECT = 5;
+    static final byte TAG_FALLBACK = 6;
+
+    /**
+     * max size of a value which is not a string: tag + double.
+     */
+    static final int MAX_FIXED_SIZE = 1 + Double.BYTES;
+    /**
+     * string header size: tag + length.
+     */
+    private static final int STRING_HEADER_SIZE = 1 + Integer.BYTES;
+    private static final int INITIAL_CAPACITY = 512;
+    private static final Object[] EMPTY_OBJECTS = new Object[0];
+
+    private final LuaStateFacade facade;
+    private ByteBuffer buffer;
+    private Object[] objects = EMPTY_OBJECTS;
+    private byte[] scratch = new byte[INITIAL_CAPACITY];
+
+    LuaValueBuffer(LuaStateFacade facade) {
+        this.facade = facade;
+    }
+
+    /**
+     * make sure buffer could hold count values without strings.
+     */
+    private ByteBuffer ensureBuffer(int count) {
+        int require = count * MAX_FIXED_SIZE + INITIAL_CAPACITY;
+        if (buffer == null || buffer.capacity() < require) {
+            int capacity = buffer == null ? INITIAL_CAPACITY : buffer.capacity();
+            while (capacity < require) capacity <<= 1;
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private byte[] ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length << 1)];
+        }
+        return scratch;
+    }
+
+    private Object[] ensureObjects(int count) {
+        if (objects.length < count) {
+            objects = new Object[Math.max(count, objects.length << 1)];
+        }
+        return objects;
+    }
+
+    /**
+     * Read values from <code>from</code> to <code>from + count - 1</code> in one native call.
+     * Values can not be written into buffer (tables, functions, etc.) will be read by
+     * {@link LuaStateFacade#rawToJavaObject(int)}.
+     *
+     * @param from  first absolute index in lua stack.
+     * @param count values count.
+     * @return java objects.
+     */
+    Result<Object[], ? extends LuaException> snapshot(int from, int count) {
+        Object[] result = new Object[count];
+        if (count <= 0) return Result.success(result);
+
+        ByteBuffer buf = ensureBuffer(count);
+        Object[] objs = ensureObjects(count);
+        try {
+            int written = facade.getLuaState().snapshotValues(from, count, buf, objs);
+            if (written < 0) {
+                for (int i = 0; i < count; i++) {
+                    Result<Object, ? extends LuaException> ret = facade.rawToJavaObject(from + i);
+                    if (ret.isError()) return ret.justCast();
+                    result[i] = ret.getValue();
+                }
+                return Result.success(result);
+            }
+
+            for (int i = 0; i < count; i++) {
+                byte tag = buf.get();
+                switch (tag) {
+                    case TAG_NIL:
+                        break;
+                    case TAG_FALSE:
+                        result[i] = Boolean.FALSE;
+                        break;
+                    case TAG_TRUE:
+                        result[i] = Boolean.TRUE;
+                        break;
+                    case TAG_NUMBER:
+                        result[i] = buf.getDouble();
+                        break;
+                    case TAG_STRING:
+                        int length = buf.getInt();
+                        byte[] bytes = ensureScratch(length);
+                        buf.get(bytes, 0, length);
+                        result[i] = Utf8Helper.decode(bytes, 0, length);
+                        break;
+                    case TAG_JAVA_OBJECT:
+                        result[i] = objs[i];
+                        break;
+                    default:
+                        Result<Object, ? extends LuaException> ret = facade.rawToJavaObject(from + i);
+                        if (ret.isError()) return ret.justCast();
+                        result[i] = ret.getValue();
+                }
+            }
+            return Result.success(result);
+        } finally {
+            Arrays.fill(objs, 0, count, null);
+        }
+    }
+
+    /**
+     * Pushes values into stack. Null, booleans, numbers, strings, byte arrays and
+     * plain java objects are pushed in one native call, others are pushed by
+     * {@link LuaStateFacade#rawPushObjectValue(Object)} in order.
+     * If failed, the values already pushed stay in stack.
+     *
+     * @param values values to push.
+     * @return result.
+     */
+    Result<Void, ? extends LuaException> push(Object[] values) {
+        if (values == null || values.length == 0) return Result.success();
+
+        ByteBuffer buf = ensureBuffer(values.length);
+        Object[] objs = ensureObjects(values.length);
+        int count = 0;
+        try {
+            for (Object value : values) {
+                if (isEncodable(value)) {
+                    if (encode(buf, objs, count, value)) {
+                        count += 1;
+                        continue;
+                    }
+                    Result<Void, ? extends LuaException> flushed = flush(buf, objs, count);
+                    count = 0;
+                    if (flushed.isError()) return flushed;
+                    if (encode(buf, objs, count, value)) {
+                        count += 1;
+                        continue;
+                    }
+                } else {
+                    Result<Void, ? extends LuaException> flushed = flush(buf, objs, count);
+                    count = 0;
+                    if (flushed.isError()) return flushed;
+                }
+                Result<Void, ? extends LuaException> pushed = facade.rawPushObjectValue(value);
+                if (pushed.isError()) return pushed;
+            }
+            return flush(buf, objs, count);
+        } finally {
+            Arrays.fill(objs, null);
+        }
+    }
+
+    private Result<Void, ? extends LuaException> flush(ByteBuffer buf, Object[] objs, int count) {
+        if (count == 0) return Result.success();
+        int pushed = facade.getLuaState().pushValues(buf, count, objs);
+        buf.clear();
+        Arrays.fill(objs, 0, count, null);
+        if (pushed < 0) {
+            return Result.failure(new LuaException("Failed to push values, stack overflow"));
+        }
+        return Result.success();
+    }
+
+    /**
+     * same order as {@link LuaStateFacade#rawPushObjectValue(Object)}.
+     */
+    private static boolean isEncodable(Object value) {
+        return value == null || value instanceof Boolean || value instanceof Number ||
+                value instanceof String || value instanceof byte[] ||
+                !(value instanceof JavaFunction || value instanceof LuaObject ||
+                        value instanceof Class<?> || value.getClass().isArray());
+    }
+
+    /**
+     * encode value to buffer.
+     *
+     * @return false if buffer has no enough space.
+     */
+    private static boolean encode(ByteBuffer buf, Object[] objs, int slot, Object value) {
+        if (value == null) {
+            if (buf.remaining() < 1) return false;
+            buf.put(TAG_NIL);
+        } else if (value instanceof Boolean) {
+            if (buf.remaining() < 1) return false;
+            buf.put((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Number) {
+            if (buf.remaining() < MAX_FIXED_SIZE) return false;
+            buf.put(TAG_NUMBER).putDouble(((Number) value).doubleValue());
+        } else if (value instanceof String) {
+            return encodeString(buf, (String) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            if (buf.remaining() < STRING_HEADER_SIZE + bytes.length) return false;
+            buf.put(TAG_STRING).putInt(bytes.length).put(bytes);
+        } else {
+            if (buf.remaining() < 1) return false;
+            buf.put(TAG_JAVA_OBJECT);
+            objs[slot] = value;
+        }
+        return true;
+    }
+
+    private static boolean encodeString(ByteBuffer buf, String str) {
+        int length = str.length();
+        if (buf.remaining() < STRING_HEADER_SIZE + length) return false;
+        int start = buf.position();
+        buf.put(TAG_STRING).putInt(length);
+        // ascii fast path, no need to allocate byte array.
+        int i = 0;
+        for (; i < length; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x80) break;
+            buf.put((byte) c);
+        }
+        if (i == length) return true;
+
+        buf.position(start);
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        if (buf.remaining() < STRING_HEADER_SIZE + bytes.length) return false;
+        buf.put(TAG_STRING).putInt(bytes.length).put(bytes);
+        return true;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * VirtualThreadPinningMonitor.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.eu.smileyik.luajava.exception.Result;
+import org.eu.smileyik.luajava.util.LRUCache;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Streams JFR <code>jdk.VirtualThreadPinned</code> events and feeds them into the metrics of
+ * the lua state whose java callback pinned the thread.
+ * <p>
+ * Events are matched by thread id to the states which recently ran a callback on that
+ * virtual thread (see {@link LuaStateMetrics#getPinnedCallbacks()}), other events are
+ * counted as unattributed. JFR streaming is accessed by reflection, so this class still
+ * compiles on old JDKs, and {@link #start(Duration)} fails if it is unavailable.
+ */
+public final class VirtualThreadPinningMonitor implements AutoCloseable {
+    public static final String EVENT_NAME = "jdk.VirtualThreadPinned";
+    /**
+     * the default threshold of JFR for this event.
+     */
+    public static final Duration DEFAULT_THRESHOLD = Duration.ofMillis(20);
+
+    private static final AtomicInteger RUNNING = new AtomicInteger(0);
+    private static final Map<Long, LuaStateMetrics> PINNED_THREADS =
+            Collections.synchronizedMap(new LRUCache<>(1024));
+    private static final LongAdder UNATTRIBUTED_EVENTS = new LongAdder();
+
+    private final Object stream;
+    private final Method closeMethod;
+    private boolean closed = false;
+
+    private VirtualThreadPinningMonitor(Object stream, Method closeMethod) {
+        this.stream = stream;
+        this.closeMethod = closeMethod;
+    }
+
+    public static Result<VirtualThreadPinningMonitor, ? extends Exception> start() {
+        return start(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Starts a JFR recording stream for pinned events.
+     *
+     * @param threshold events shorter than it are not recorded.
+     * @return failure if JFR streaming is unavailable.
+     */
+    public static Result<VirtualThreadPinningMonitor, ? extends Exception> start(Duration threshold) {
+        try {
+            Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Class<?> eventClass = Class.forName("jdk.jfr.consumer.RecordedEvent");
+            Class<?> threadClass = Class.forName("jdk.jfr.consumer.RecordedThread");
+            Method getDuration = eventClass.getMethod("getDuration");
+            Method getThread = eventClass.getMethod("getThread", String.class);
+            Method getJavaThreadId = threadClass.getMethod("getJavaThreadId");
+
+            Object stream = streamClass.getConstructor().newInstance();
+            Object settings = streamClass.getMethod("enable", String.class).invoke(stream, EVENT_NAME);
+            Class.forName("jdk.jfr.EventSettings").getMethod("withThreshold", Duration.class).invoke(settings, threshold);
+            Consumer<Object> consumer = event -> {
+                try {
+                    Object thread = getThread.invoke(event, "eventThread");
+                    long threadId = thread == null ? -1 : (long) getJavaThreadId.invoke(thread);
+                    Duration duration = (Duration) getDuration.invoke(event);
+                    onPinned(threadId, duration.toNanos());
+                } catch (ReflectiveOperationException ignored) {
+                }
+            };
+            streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(stream, EVENT_NAME, consumer);
+            RUNNING.incrementAndGet();
+            streamClass.getMethod("startAsync").invoke(stream);
+            return Result.success(new VirtualThreadPinningMonitor(stream, streamClass.getMethod("close")));
+        } catch (Exception e) {
+            return Result.failure(e);
+        }
+    }
+
+    /**
+     * @return count of pinned events which can not be matched to a lua state.
+     */
+    public static long getUnattributedEvents() {
+        return UNATTRIBUTED_EVENTS.sum();
+    }
+
+    /**
+     * Records a virtual thread ran a callback of state, cheap if no monitor running.
+     */
+    static void track(long threadId, LuaStateMetrics metrics) {
+        if (RUNNING.get() > 0) {
+            PINNED_THREADS.put(threadId, metrics);
+        }
+    }
+
+    private static void onPinned(long threadId, long nanos) {
+        LuaStateMetrics metrics = PINNED_THREADS.get(threadId);
+        if (metrics == null) {
+            UNATTRIBUTED_EVENTS.increment();
+        } else {
+            metrics.pinnedEvent(nanos);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (RUNNING.decrementAndGet() == 0) {
+            PINNED_THREADS.clear();
+        }
+        try {
+            closeMethod.invoke(stream);
+        } catch (ReflectiveOperationException ignored) {
+        }
+    }
+}
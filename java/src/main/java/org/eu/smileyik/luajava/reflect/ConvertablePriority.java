@@ -25,6 +25,7 @@ package org.eu.smileyik.luajava.reflect;
 
 import org.eu.smileyik.luajava.exception.Result;
 import org.eu.smileyik.luajava.type.LuaArray;
+import org.eu.smileyik.luajava.type.LuaTable;
 import org.eu.smileyik.luajava.util.BoxedTypeHelper;
 import org.eu.smileyik.luajava.util.LRUCache;
 import org.eu.smileyik.luajava.util.ParamRef;
@@ -153,18 +154,22 @@ public class ConvertablePriority {
         if (priority == NOT_MATCH) return NOT_MATCH;
         if (limitedPriority < priority) return NOT_MATCH;
 
-        long luaPointer = luaObj.rawGetLuaPointer();
-        Object[] objects = LUA_ARRAY_CACHE.computeIfAbsent(luaPointer, ptr -> {
-            Object[] array = new Object[luaObj.length()];
-            luaObj.rawForEach(Integer.class, Object.class, (i, v) -> {
-                array[i] = v;
-                return false;
+        // primitive array is copied in one native call, falls back if some elements need conversion.
+        Object array = componentType.isPrimitive() ? luaObj.rawCopyPrimitiveArray(toType) : null;
+        if (array == null) {
+            long luaPointer = luaObj.rawGetLuaPointer();
+            Object[] objects = LUA_ARRAY_CACHE.computeIfAbsent(luaPointer, ptr -> {
+                Object[] values = new Object[luaObj.rawLength()];
+                luaObj.rawForEach(Integer.class, Object.class, (i, v) -> {
+                    values[i] = v;
+                    return false;
+                });
+                return values;
             });
-            return array;
-        });
-        Object array = componentType.isPrimitive() ?
-                OBJECT_ARRAY_TRANSFORMERS.get(toType.hashCode()).apply(objects) :
-                objectArrayToObjectArray(objects, componentType);
+            array = componentType.isPrimitive() ?
+                    OBJECT_ARRAY_TRANSFORMERS.get(toType.hashCode()).apply(objects) :
+                    objectArrayToObjectArray(objects, componentType);
+        }
 
 //        Object array = componentType.isPrimitive() ?
 //                UNBOXED_LUA_ARRAY_TRANSFORMERS.get(toType.hashCode()).apply(luaObj) :
@@ -228,15 +233,16 @@ public class ConvertablePriority {
         }
 
         // 数组转换
-        boolean isLuaArray = luaObj instanceof LuaArray;
-        if (isLuaArray && toType.isArray()) {
+        // array-ness of a LuaArray is resolved lazily, only ask when it matters.
+        boolean isLuaTable = luaObj instanceof LuaTable;
+        if (isLuaTable && toType.isArray() && ((LuaTable) luaObj).isArray()) {
             return doIsConvertableArray(limitedPriority, (LuaArray) luaObj, toType, overwrite);
         }
 
         // at latest to handle object type.
         if (isToObject) {
             if (limitedPriority < ARRAY_TO_OBJECT) return NOT_MATCH;
-            if (isLuaArray) {
+            if (isLuaTable && ((LuaTable) luaObj).isArray()) {
                 return ARRAY_TO_OBJECT;
             } else {
                 return ANY_TO_OBJECT;
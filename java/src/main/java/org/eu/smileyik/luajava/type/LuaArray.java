@@ -53,8 +53,28 @@ public class LuaArray extends LuaTable {
         UNBOXED_ARRAY_TRANSFORMERS.put(double[].class, LuaArray::toDoubleArray);
     }
 
+    /**
+     * array length is not resolved yet.
+     */
+    private static final int UNRESOLVED = -2;
+
+    /**
+     * array length, -1 if this table is not an array, or {@link #UNRESOLVED}.
+     */
     protected int len;
 
+    /**
+     * create lua table which may be an array, array-ness and length are resolved on first array-specific use.
+     * <strong>SHOULD NOT USE CONSTRUCTOR DIRECTLY, EXPECT YOU KNOW WHAT YOU ARE DOING</strong>
+     *
+     * @param L      lua state
+     * @param index  index
+     * @see LuaState#isLuaArrayCandidate(int)
+     */
+    protected LuaArray(LuaStateFacade L, int index) {
+        this(L, index, UNRESOLVED);
+    }
+
     /**
      * create lua array. and make sure the object at this index is exactly array style table.
      * actually a LuaArray instance could be created by the factory method of LuaTable.
@@ -69,68 +89,203 @@ public class LuaArray extends LuaTable {
         this.len = len;
     }
 
+    private static <T> Result<T, LuaException> notArray() {
+        return Result.failure(new LuaException("This lua table is not an array!"));
+    }
+
     @Override
     public String toString() {
+        if (!isArray()) return super.toString();
         Result<List<Object>, ? extends Exception> result = asDeepList(Object.class);
         return result.isError() ? result.toString() : result.getValue().toString();
     }
 
+    /**
+     * check this table is exactly an array, the first call traverses whole table.
+     * @return true if all keys are positive integers.
+     */
     @Override
     public boolean isArray() {
-        return true;
+        return length() >= 0;
     }
 
+    /**
+     * array length, the first call traverses whole table.
+     * @return array length, or -1 if this table is not an array.
+     */
     public int length() {
+        if (len == UNRESOLVED) {
+            return luaState.lock(l -> {
+                return rawLength();
+            });
+        }
+        return len;
+    }
+
+    /**
+     * array length without lock lua state.
+     * @return array length, or -1 if this table is not an array.
+     */
+    public int rawLength() {
+        if (len == UNRESOLVED) {
+            if (isClosed()) return -1;
+            LuaState l = luaState.getLuaState();
+            rawPush();
+            try {
+                len = l.isLuaArray(-1);
+            } finally {
+                l.pop(1);
+            }
+        }
         return len;
     }
 
     public boolean isEmpty() {
-        return len == 0;
+        return length() == 0;
+    }
+
+    /**
+     * Copies primitive values of this array in one native call, caller must hold the lock.
+     *
+     * @param arrayType primitive array type, such as <code>int[].class</code>
+     * @return primitive array, or null if some element is not the matched lua type
+     *         or array type is not supported. Then caller should fall back to element-wise conversion.
+     */
+    public Object rawCopyPrimitiveArray(Class<?> arrayType) {
+        int len = rawLength();
+        if (len < 0) return null;
+        LuaState l = luaState.getLuaState();
+        rawPush();
+        try {
+            return rawCopyPrimitiveArray(l, arrayType, len);
+        } finally {
+            l.pop(1);
+        }
+    }
+
+    private Object rawCopyPrimitiveArray(LuaState l, Class<?> arrayType, int len) {
+        if (arrayType == int[].class) {
+            int[] array = new int[len];
+            return l.copyInts(-1, array) == len ? array : null;
+        } else if (arrayType == long[].class) {
+            long[] array = new long[len];
+            return l.copyLongs(-1, array) == len ? array : null;
+        } else if (arrayType == boolean[].class) {
+            boolean[] array = new boolean[len];
+            return l.copyBooleans(-1, array) == len ? array : null;
+        } else if (arrayType == char[].class) {
+            String[] strings = new String[len];
+            if (l.copyStrings(-1, strings) != len) return null;
+            char[] array = new char[len];
+            for (int i = 0; i < len; i++) {
+                if (strings[i].isEmpty()) return null;
+                array[i] = strings[i].charAt(0);
+            }
+            return array;
+        }
+
+        double[] doubles = new double[len];
+        if (l.copyNumbers(-1, doubles) != len) return null;
+        if (arrayType == double[].class) {
+            return doubles;
+        } else if (arrayType == float[].class) {
+            float[] array = new float[len];
+            for (int i = 0; i < len; i++) array[i] = (float) doubles[i];
+            return array;
+        } else if (arrayType == short[].class) {
+            short[] array = new short[len];
+            for (int i = 0; i < len; i++) array[i] = (short) doubles[i];
+            return array;
+        } else if (arrayType == byte[].class) {
+            byte[] array = new byte[len];
+            for (int i = 0; i < len; i++) array[i] = (byte) doubles[i];
+            return array;
+        }
+        return null;
+    }
+
+    private <T> T copyPrimitiveArray(Class<T> arrayType) {
+        if (isClosed()) return null;
+        return luaState.lock(l -> {
+            return arrayType.cast(rawCopyPrimitiveArray(arrayType));
+        });
     }
 
     public Result<byte[], ? extends Exception> toByteArray() {
+        byte[] copied = copyPrimitiveArray(byte[].class);
+        if (copied != null) return Result.success(copied);
+        int len = length();
+        if (len < 0) return notArray();
         byte[] bytes = new byte[len];
         return forEach(Double.class, (idx, num) -> bytes[idx] = num.byteValue())
                 .replaceValue(bytes);
     }
 
     public Result<short[], ? extends Exception> toShortArray() {
+        short[] copied = copyPrimitiveArray(short[].class);
+        if (copied != null) return Result.success(copied);
+        int len = length();
+        if (len < 0) return notArray();
         short[] shorts = new short[len];
         return forEach(Double.class, (idx, num) -> shorts[idx] = num.shortValue())
                 .replaceValue(shorts);
     }
 
     public Result<int[], ? extends Exception> toIntArray() {
+        int[] copied = copyPrimitiveArray(int[].class);
+        if (copied != null) return Result.success(copied);
+        int len = length();
+        if (len < 0) return notArray();
         int[] nums = new int[len];
         return forEach(Double.class, (idx, num) -> nums[idx] = num.intValue())
                 .replaceValue(nums);
     }
 
     public Result<long[], ? extends Exception> toLongArray() {
+        long[] copied = copyPrimitiveArray(long[].class);
+        if (copied != null) return Result.success(copied);
+        int len = length();
+        if (len < 0) return notArray();
         long[] longs = new long[len];
         return forEach(Double.class, (idx, num) -> longs[idx] = num.longValue())
                 .replaceValue(longs);
     }
 
     public Result<float[], ? extends Exception> toFloatArray() {
+        float[] copied = copyPrimitiveArray(float[].class);
+        if (copied != null) return Result.success(copied);
+        int len = length();
+        if (len < 0) return notArray();
         float[] floats = new float[len];
         return forEach(Double.class, (idx, num) -> floats[idx] = num.floatValue())
                 .replaceValue(floats);
     }
 
     public Result<boolean[], ? extends Exception> toBooleanArray() {
+        boolean[] copied = copyPrimitiveArray(boolean[].class);
+        if (copied != null) return Result.success(copied);
+        int len = length();
+        if (len < 0) return notArray();
         boolean[] bool = new boolean[len];
         return forEach(Boolean.class, (idx, b) -> bool[idx] = b)
                 .replaceValue(bool);
     }
 
     public Result<char[], ? extends Exception> toCharArray() {
+        char[] copied = copyPrimitiveArray(char[].class);
+        if (copied != null) return Result.success(copied);
+        int len = length();
+        if (len < 0) return notArray();
         char[] chars = new char[len];
         return forEach(String.class, (idx, str) -> chars[idx] = str.charAt(0))
                 .replaceValue(chars);
     }
 
     public Result<double[], ? extends Exception> toDoubleArray() {
+        double[] copied = copyPrimitiveArray(double[].class);
+        if (copied != null) return Result.success(copied);
+        int len = length();
+        if (len < 0) return notArray();
         double[] doubles = new double[len];
         return forEach(Double.class, (idx, num) -> doubles[idx] = num)
                 .replaceValue(doubles);
@@ -153,11 +308,15 @@ public class LuaArray extends LuaTable {
         } else if (clazz == Character.class) {
             return asCharacterList().justCast();
         }
+        int len = length();
+        if (len < 0) return notArray();
         List<T> list = new ArrayList<>(len);
         return forEachValue(clazz, list::add).replaceValue(list);
     }
 
     public Result<List<Character>, ? extends Exception> asCharacterList() {
+        int len = length();
+        if (len < 0) return notArray();
         List<Character> list = new ArrayList<>(len);
         return forEachValue(String.class, it -> list.add(it.charAt(0)))
                 .replaceValue(list);
@@ -177,10 +336,12 @@ public class LuaArray extends LuaTable {
         } else if (clazz == Character.class) {
             return asDeepCharacterList();
         }
+        int len = length();
+        if (len < 0) return notArray();
         List<Object> list = new ArrayList<>(len);
         // once exception then need stop!
         return forEachValue(v -> {
-            if (v instanceof LuaArray) {
+            if (v instanceof LuaArray && ((LuaArray) v).isArray()) {
                 // endless loop...
                 if (Objects.equals(this, v)) {
                     throw new RuntimeException("Cannot asDeepList, because same array as element. ");
@@ -193,10 +354,12 @@ public class LuaArray extends LuaTable {
     }
 
     public <T> Result<List<T>, ? extends Exception> asDeepCharacterList() {
+        int len = length();
+        if (len < 0) return notArray();
         List<Object> list = new ArrayList<>(len);
         // once exception then need stop!
         return forEachValue(v -> {
-            if (v instanceof LuaArray) {
+            if (v instanceof LuaArray && ((LuaArray) v).isArray()) {
                 if (Objects.equals(this, v)) {
                     throw new RuntimeException("Cannot asDeepList, because same array as element. ");
                 }
@@ -253,6 +416,8 @@ public class LuaArray extends LuaTable {
      */
     public <T> Result<Void, ? extends Exception> forEachValue(Class<T> tClass, Consumer<T> consumer) {
         if (isClosed()) return Result.failure(new LuaException("This lua state is closed!"));
+        int len = length();
+        if (len < 0) return notArray();
         return luaState.lockThrowAll(l -> {
             int top = l.getTop();
             try {
@@ -284,6 +449,8 @@ public class LuaArray extends LuaTable {
     @Override
     public <K, V> Result<Void, ? extends Exception> forEach(Class<K> kClass, Class<V> vClass, BiConsumer<K, V> consumer) {
         if (isClosed()) return Result.failure(new LuaException("This lua state is closed!"));
+        int len = length();
+        if (len < 0) return super.forEach(kClass, vClass, consumer);
         return luaState.lockThrowAll(l -> {
             int top = l.getTop();
             try {
@@ -305,6 +472,8 @@ public class LuaArray extends LuaTable {
     @Override
     public <K, V> Result<Boolean, ? extends Exception> rawForEach(Class<K> kClass,
                                                                   Class<V> vClass, BiFunction<K, V, Boolean> function) {
+        int len = rawLength();
+        if (len < 0) return super.rawForEach(kClass, vClass, function);
         LuaState l = getLuaState().getLuaState();
         int top = l.getTop();
         try {
@@ -347,6 +516,7 @@ public class LuaArray extends LuaTable {
      */
     public Result<Object, ? extends LuaException> doAt(int idx) {
         if (isClosed()) return Result.failure(new LuaException("This lua state is closed!"));
+        if (rawLength() < 0) return notArray();
         if (idx < 0 || idx >= len) {
             return Result.failure(new LuaException("out of bounds: idx=" + idx + ", len=" + len));
         }
@@ -381,6 +551,7 @@ public class LuaArray extends LuaTable {
      */
     public Result<Void, ? extends LuaException> rawSet(int idx, Object obj) {
         if (isClosed()) return Result.failure(new LuaException("This lua state is closed!"));
+        if (rawLength() < 0) return notArray();
         if (idx < 0 || idx >= len) {
             return Result.failure(new LuaException("out of bounds: idx=" + idx + ", len=" + len));
         } else if (obj instanceof LuaObject && !Objects.equals(luaState, ((LuaObject) obj).getLuaState())) {
@@ -407,16 +578,19 @@ public class LuaArray extends LuaTable {
     }
 
     public synchronized Result<Void, ? extends LuaException> rawAdd(Object obj) {
+        if (rawLength() < 0) return notArray();
         return rawSet(len++, obj).ifFailureThen(it -> len -= 1);
     }
 
     @Override
     public Result<Void, ? extends LuaException> rawPut(Object key, Object value) {
+        if (!isArray()) return super.rawPut(key, value);
         throw new UnsupportedOperationException("Lua Array not support put method. please use add method");
     }
 
     @Override
     public Result<Void, ? extends LuaException> rawRemove(Object key) {
+        if (!isArray()) return super.rawRemove(key);
         throw new UnsupportedOperationException("Lua Array not support remove method.");
     }
 
@@ -433,6 +607,7 @@ public class LuaArray extends LuaTable {
      */
     public Result<Void, ? extends LuaException> rawRemove(int idx) {
         if (isClosed()) return Result.failure(new LuaException("This lua state is closed!"));
+        if (rawLength() < 0) return notArray();
         if (idx < 0 || idx >= len) {
             return Result.failure(new LuaException("out of bounds: idx=" + idx + ", len=" + len));
         }
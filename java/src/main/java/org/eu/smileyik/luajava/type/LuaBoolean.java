@@ -27,6 +27,8 @@ import org.eu.smileyik.luajava.LuaObject;
 import org.eu.smileyik.luajava.LuaStateFacade;
 
 public class LuaBoolean extends LuaObject {
+    private final boolean value;
+
     /**
      * Creates a reference to an object in the given index of the stack
      * <strong>SHOULD NOT USE CONSTRUCTOR DIRECTLY, EXPECT YOU KNOW WHAT YOU ARE DOING</strong>
@@ -36,7 +38,28 @@ public class LuaBoolean extends LuaObject {
      * @see LuaObject#create(LuaStateFacade, int)
      */
     protected LuaBoolean(LuaStateFacade L, int index) {
-        super(L, index);
+        this(L, L.getLuaState().toBoolean(index));
+    }
+
+    /**
+     * Creates a detached boolean, it holds no registry reference.
+     *
+     * @param L     lua state
+     * @param value boolean value
+     */
+    protected LuaBoolean(LuaStateFacade L, boolean value) {
+        super(L);
+        this.value = value;
+    }
+
+    @Override
+    public void rawPush() {
+        luaState.getLuaState().pushBoolean(value);
+    }
+
+    @Override
+    public boolean getBoolean() {
+        return value;
     }
 
     @Override
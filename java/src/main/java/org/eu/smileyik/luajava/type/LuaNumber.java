@@ -27,6 +27,13 @@ import org.eu.smileyik.luajava.LuaObject;
 import org.eu.smileyik.luajava.LuaStateFacade;
 
 public class LuaNumber extends LuaObject {
+    private final double value;
+    /**
+     * integer subtype since lua 5.3, it must be pushed back as integer.
+     */
+    private final boolean integer;
+    private final long longValue;
+
     /**
      * Creates a reference to an object in the given index of the stack
      * <strong>SHOULD NOT USE CONSTRUCTOR DIRECTLY, EXPECT YOU KNOW WHAT YOU ARE DOING</strong>
@@ -36,7 +43,48 @@ public class LuaNumber extends LuaObject {
      * @see LuaObject#create(LuaStateFacade, int)
      */
     protected LuaNumber(LuaStateFacade L, int index) {
-        super(L, index);
+        this(L, index, new long[1]);
+    }
+
+    private LuaNumber(LuaStateFacade L, int index, long[] value) {
+        super(L);
+        this.integer = L.getLuaState().toNumberValue(index, value);
+        this.longValue = integer ? value[0] : (long) Double.longBitsToDouble(value[0]);
+        this.value = integer ? (double) value[0] : Double.longBitsToDouble(value[0]);
+    }
+
+    /**
+     * Creates a detached number, it holds no registry reference.
+     *
+     * @param L     lua state
+     * @param value number value
+     */
+    protected LuaNumber(LuaStateFacade L, double value) {
+        super(L);
+        this.value = value;
+        this.integer = false;
+        this.longValue = (long) value;
+    }
+
+    @Override
+    public void rawPush() {
+        if (integer) {
+            luaState.getLuaState().pushLong(longValue);
+        } else {
+            luaState.getLuaState().pushNumber(value);
+        }
+    }
+
+    /**
+     * @return true if it is an integer subtype, always false before lua 5.3.
+     */
+    public boolean isInteger() {
+        return integer;
+    }
+
+    @Override
+    public double getNumber() {
+        return value;
     }
 
     @Override
@@ -62,7 +110,7 @@ public class LuaNumber extends LuaObject {
     }
 
     public long getLong() {
-        return (long) getNumber();
+        return longValue;
     }
 
     public float getFloat() {
@@ -70,6 +118,6 @@ public class LuaNumber extends LuaObject {
     }
 
     public double getDouble() {
-        return (double) getNumber();
+        return value;
     }
 }
@@ -25,8 +25,12 @@ package org.eu.smileyik.luajava.type;
 
 import org.eu.smileyik.luajava.LuaObject;
 import org.eu.smileyik.luajava.LuaStateFacade;
+import org.eu.smileyik.luajava.util.Utf8Helper;
 
 public class LuaString extends LuaObject {
+    private final byte[] bytes;
+    private String string;
+
     /**
      * Creates a reference to an object in the given index of the stack
      * <strong>SHOULD NOT USE CONSTRUCTOR DIRECTLY, EXPECT YOU KNOW WHAT YOU ARE DOING</strong>
@@ -36,7 +40,41 @@ public class LuaString extends LuaObject {
      * @see LuaObject#create(LuaStateFacade, int)
      */
     protected LuaString(LuaStateFacade L, int index) {
-        super(L, index);
+        this(L, L.getLuaState().toBytes(index));
+    }
+
+    /**
+     * Creates a detached string, it holds no registry reference.
+     *
+     * @param L     lua state
+     * @param bytes raw bytes of lua string, will not be copied.
+     */
+    protected LuaString(LuaStateFacade L, byte[] bytes) {
+        super(L);
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void rawPush() {
+        luaState.getLuaState().pushString(bytes);
+    }
+
+    @Override
+    public String getString() {
+        String str = string;
+        if (str == null) {
+            string = str = Utf8Helper.decode(bytes, 0, bytes.length);
+        }
+        return str;
+    }
+
+    /**
+     * Gets raw bytes of this lua string, embedded zeros are kept.
+     *
+     * @return copy of bytes.
+     */
+    public byte[] getBytes() {
+        return bytes.clone();
     }
 
     @Override
@@ -53,9 +53,9 @@ public class LuaTable extends LuaObject implements ILuaCallable, ILuaFieldGettab
     }
 
     protected static LuaTable rawCreateTable(LuaStateFacade luaStateFacade, int index) {
-        int len = luaStateFacade.getLuaState().isLuaArray(index);
-        if (len >= 0) {
-            return new LuaArray(luaStateFacade, index, len);
+        // only first key is checked here, LuaArray resolves its array-ness on first use.
+        if (luaStateFacade.getLuaState().isLuaArrayCandidate(index)) {
+            return new LuaArray(luaStateFacade, index);
         } else {
             return new LuaTable(luaStateFacade, index);
         }
@@ -103,6 +103,10 @@ public class LuaTable extends LuaObject implements ILuaCallable, ILuaFieldGettab
         return false;
     }
 
+    /**
+     * check this table is exactly an array.
+     * @return false, only {@link LuaArray} may be an array.
+     */
     public boolean isArray() {
         return false;
     }
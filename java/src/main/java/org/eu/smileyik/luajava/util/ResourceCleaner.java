@@ -25,18 +25,27 @@ package org.eu.smileyik.luajava.util;
 
 import java.io.Closeable;
 import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class ResourceCleaner implements Runnable, Closeable {
     private static final ResourceCleaner INSTANCE = new ResourceCleaner();
+    /**
+     * max time cleaner thread waits before running idle tasks.
+     */
+    private static final long IDLE_INTERVAL = 1000;
 
     public static ResourceCleaner getInstance() {
         return INSTANCE;
     }
 
     private final ReferenceQueue<Object> referenceQueue = new ReferenceQueue<>();
-    private final LinkedList<Ref> refs = new LinkedList<>();
+    private final Set<Ref> refs = ConcurrentHashMap.newKeySet();
+    private final List<Runnable> idleTasks = new CopyOnWriteArrayList<>();
 
     private final Thread cleanerThread;
 
@@ -52,12 +61,44 @@ public class ResourceCleaner implements Runnable, Closeable {
         monitorTask();
     }
 
-    public synchronized PhantomReference<Object> register(Object o, Runnable finalizer) {
+    public PhantomReference<Object> register(Object o, Runnable finalizer) {
         Ref ref = new Ref(o, referenceQueue, finalizer);
         refs.add(ref);
         return ref;
     }
 
+    /**
+     * Cancels a registered reference, its finalizer will not be called.
+     *
+     * @param reference reference returned by register
+     */
+    public void cancel(PhantomReference<Object> reference) {
+        if (reference instanceof Ref && refs.remove(reference)) {
+            reference.clear();
+        }
+    }
+
+    /**
+     * Adds a task which runs on cleaner thread after a batch of objects cleaned,
+     * or at least once per second. It must not block.
+     *
+     * @param task task
+     */
+    public void addIdleTask(Runnable task) {
+        idleTasks.add(task);
+    }
+
+    /**
+     * Sets the handler of exceptions thrown by finalizers and idle tasks,
+     * cleaner thread keeps running after handling them.
+     * Default is the uncaught exception handler of the thread group.
+     *
+     * @param handler handler, null to use the default one.
+     */
+    public void setUncaughtExceptionHandler(Thread.UncaughtExceptionHandler handler) {
+        cleanerThread.setUncaughtExceptionHandler(handler);
+    }
+
     @Override
     public synchronized void close() {
         cleanerThread.interrupt();
@@ -66,12 +107,23 @@ public class ResourceCleaner implements Runnable, Closeable {
     private void monitorTask() {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                Ref removed = (Ref) referenceQueue.remove();
-                removed.clean();
-                refs.remove(removed);
+                Reference<?> removed = referenceQueue.remove(IDLE_INTERVAL);
+                while (removed != null) {
+                    Ref ref = (Ref) removed;
+                    if (refs.remove(ref)) {
+                        ref.clean();
+                    }
+                    removed = referenceQueue.poll();
+                }
+                for (Runnable task : idleTasks) {
+                    task.run();
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
+            } catch (RuntimeException e) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
             }
         }
     }
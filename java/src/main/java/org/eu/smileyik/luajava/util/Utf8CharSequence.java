@@ -0,0 +1,102 @@
+/*
+ * Utf8CharSequence.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A char sequence over UTF-8 bytes copied from lua string.
+ * ASCII bytes are read directly, other bytes are decoded on first access.
+ * It is useful when the string is large and only part of it will be read,
+ * or when it is passed to something accepting bytes.
+ */
+public final class Utf8CharSequence implements CharSequence {
+    private final byte[] bytes;
+    private final boolean ascii;
+    private String decoded;
+
+    public Utf8CharSequence(byte[] bytes) {
+        this.bytes = bytes;
+        this.ascii = Utf8Helper.isAscii(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @return raw UTF-8 bytes, do not modify it.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public boolean isAscii() {
+        return ascii;
+    }
+
+    private String decoded() {
+        String str = decoded;
+        if (str == null) {
+            str = new String(bytes, StandardCharsets.UTF_8);
+            decoded = str;
+        }
+        return str;
+    }
+
+    @Override
+    public int length() {
+        return ascii ? bytes.length : decoded().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (ascii) {
+            if (index < 0 || index >= bytes.length) {
+                throw new IndexOutOfBoundsException("index: " + index + ", length: " + bytes.length);
+            }
+            return (char) bytes[index];
+        }
+        return decoded().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (ascii) {
+            if (start < 0 || end > bytes.length || start > end) {
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + bytes.length);
+            }
+            byte[] sub = new byte[end - start];
+            System.arraycopy(bytes, start, sub, 0, sub.length);
+            return new Utf8CharSequence(sub);
+        }
+        return decoded().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String str = decoded;
+        if (str == null) {
+            str = Utf8Helper.decode(bytes, 0, bytes.length);
+            decoded = str;
+        }
+        return str;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Utf8Helper.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 helper for strings moved between lua and java.
+ * Lua strings are raw bytes, most of them are ASCII,
+ * so check it first and skip the UTF-8 decoder/encoder.
+ */
+public class Utf8Helper {
+
+    /**
+     * Checks the bytes only contain ASCII characters.
+     */
+    public static boolean isAscii(byte[] bytes, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            if (bytes[i] < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes to string.
+     */
+    public static String decode(byte[] bytes, int offset, int length) {
+        if (length == 0) return "";
+        if (isAscii(bytes, offset, length)) {
+            // latin1 is a direct copy of bytes.
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes ASCII string into dest without allocation.
+     *
+     * @param str  string
+     * @param dest destination, its length must not less than str's length
+     * @return false if str contains non-ASCII character, dest is partially written.
+     */
+    public static boolean encodeAscii(String str, byte[] dest) {
+        for (int i = 0, length = str.length(); i < length; i++) {
+            char c = str.charAt(i);
+            if (c >= 0x80) return false;
+            dest[i] = (byte) c;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * LuaBindingBenchmarkTest.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the JNI binding and the foreign binding of trivial stack functions.
+ * It is skipped in the unit suite, run it by <code>gradle test -Dluajava.benchmark=true</code>.
+ * The foreign binding is measured by calling the leaf functions directly,
+ * so both bindings are measured in one run when the foreign API is available (JDK 22+).
+ */
+@EnabledIfSystemProperty(named = "luajava.benchmark", matches = "true")
+public class LuaBindingBenchmarkTest extends BaseTest {
+    private static final int WARMUP = 200_000;
+    private static final int ROUNDS = 2_000_000;
+
+    private static double jniLoop(LuaState luaState, int rounds) {
+        double sum = 0;
+        for (int i = 0; i < rounds; i++) {
+            luaState.pushNumber(i);
+            luaState.pushBoolean(true);
+            if (luaState.type(-2) == LuaState.LUA_TNUMBER) {
+                sum += luaState.toNumber(-2);
+            }
+            luaState.pop(1);
+            luaState.setTop(luaState.getTop() - 1);
+        }
+        return sum;
+    }
+
+    private static double ffmLoop(LuaState luaState, int rounds) {
+        long peer = luaState.getCPtrPeer();
+        double sum = 0;
+        for (int i = 0; i < rounds; i++) {
+            LuaForeignBinding.pushNumber(peer, i);
+            LuaForeignBinding.pushBoolean(peer, 1);
+            if (LuaForeignBinding.type(peer, -2) == LuaState.LUA_TNUMBER) {
+                sum += LuaForeignBinding.toNumber(peer, -2);
+            }
+            // lua_settop stays on JNI.
+            luaState.pop(1);
+            luaState.setTop(LuaForeignBinding.getTop(peer) - 1);
+        }
+        return sum;
+    }
+
+    private static void measure(String name, LuaState luaState, boolean ffm) {
+        int top = luaState.getTop();
+        if (ffm) ffmLoop(luaState, WARMUP); else jniLoop(luaState, WARMUP);
+        long start = System.nanoTime();
+        double sum = ffm ? ffmLoop(luaState, ROUNDS) : jniLoop(luaState, ROUNDS);
+        long cost = System.nanoTime() - start;
+        assertEquals(top, luaState.getTop());
+        assertEquals((double) ROUNDS * (ROUNDS - 1) / 2, sum);
+        System.out.printf("[%s] %d rounds cost %d ms, %.2f ns/round%n",
+                name, ROUNDS, cost / 1_000_000, (double) cost / ROUNDS);
+    }
+
+    @Test
+    public void bindingBenchmarkTest() {
+        try (LuaStateFacade facade = newLuaState()) {
+            facade.lock(luaState -> {
+                // LuaState methods use the selected binding.
+                measure(LuaForeignBinding.ENABLED ? "ffm" : "jni", luaState, false);
+                if (!LuaForeignBinding.ENABLED && LuaForeignBinding.isAvailable()) {
+                    measure("ffm", luaState, true);
+                } else if (!LuaForeignBinding.isAvailable()) {
+                    System.out.println("[ffm] unavailable: " + LuaForeignBinding.getUnavailableReason());
+                }
+            });
+        }
+    }
+}
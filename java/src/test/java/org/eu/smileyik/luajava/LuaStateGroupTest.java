@@ -0,0 +1,61 @@
+/*
+ * LuaStateGroupTest.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LuaStateGroupTest extends BaseTest {
+
+    @Test
+    public void routeTest() throws Exception {
+        try (LuaStateGroup group = LuaStateGroup.create(4, facade -> {
+            facade.openLibs();
+            facade.evalString("counts = {}\n" +
+                    "function hit(key) counts[key] = (counts[key] or 0) + 1 return counts[key] end").justThrow();
+        }).getOrThrow()) {
+            assertEquals(4, group.getShardCount());
+            for (int i = 0; i < 3; i++) {
+                for (int key = 0; key < 16; key++) {
+                    assertSame(group.getState(key), group.getState(key));
+                    String name = "entity" + key;
+                    int count = i + 1;
+                    group.execute(name, facade -> facade.evalString("assert(hit('" + name + "') == " + count + ")")
+                            .getOrThrow()).justThrow();
+                }
+            }
+
+            group.reload("function hit(key) return -1 end").justThrow();
+            List<Integer> tops = group.broadcast(facade -> {
+                facade.evalString("assert(hit('entity1') == -1)").justThrow();
+                return facade.getTop();
+            }).getOrThrow();
+            assertEquals(4, tops.size());
+            assertTrue(group.broadcast(facade -> facade.evalString("error('x')").getOrThrow()).isError());
+        }
+    }
+}
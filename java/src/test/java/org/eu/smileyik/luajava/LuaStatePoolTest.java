@@ -0,0 +1,118 @@
+/*
+ * LuaStatePoolTest.java, SmileYik, 2026-10-18
+ * Copyright (c) 2026 Smile Yik
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package org.eu.smileyik.luajava;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LuaStatePoolTest extends BaseTest {
+
+    @Test
+    public void resetTest() throws Exception {
+        try (LuaStatePool pool = new LuaStatePool(1, facade -> {
+            facade.openLibs();
+            facade.evalString("config = {name = 'template'}\nfunction greet() return 'hi' end").justThrow();
+        })) {
+            LuaStateFacade facade = pool.borrow().getOrThrow();
+            facade.evalString("leaked = 1\nconfig = nil\nfunction greet() return 'bye' end").justThrow();
+            facade.pushNumber(1);
+            pool.giveBack(facade);
+
+            LuaStateFacade again = pool.borrow().getOrThrow();
+            assertSame(facade, again);
+            assertEquals(0, again.getTop());
+            again.evalString("assert(leaked == nil)\n" +
+                    "assert(config.name == 'template')\n" +
+                    "assert(greet() == 'hi')").justThrow();
+            assertTrue(pool.borrow(10, TimeUnit.MILLISECONDS).isError());
+            pool.giveBack(again);
+        }
+    }
+
+    @Test
+    public void lifetimeTest() throws Exception {
+        try (LuaStatePool pool = new LuaStatePool(2, LuaStateFacade::openLibs)) {
+            pool.setMaxUses(2);
+            pool.prepare(2).justThrow();
+            assertEquals(2, pool.getIdleCount());
+
+            LuaStateFacade facade = pool.borrow().getOrThrow();
+            pool.giveBack(facade);
+            assertSame(facade, pool.borrow().getOrThrow());
+            pool.giveBack(facade);
+            assertTrue(facade.isClosed());
+            assertEquals(1, pool.size());
+
+            LuaStateFacade other = pool.borrow().getOrThrow();
+            assertNotSame(facade, other);
+            assertThrows(IllegalArgumentException.class, () -> pool.giveBack(facade));
+            pool.giveBack(other);
+        }
+    }
+
+    @Test
+    public void nestedResetTest() throws Exception {
+        try (LuaStatePool pool = new LuaStatePool(1, facade -> {
+            facade.openLibs();
+            facade.evalString("config = {inner = {name = 'template'}}").justThrow();
+        })) {
+            LuaStateFacade facade = pool.borrow().getOrThrow();
+            facade.evalString("string.x = 1\n" +
+                    "config.inner.name = 'changed'\n" +
+                    "config.inner = {}\n" +
+                    "setmetatable(config, {__index = function() return 'leaked' end})\n" +
+                    "package.loaded.leaked = true\n" +
+                    "debug.getregistry().leaked = true").justThrow();
+            pool.giveBack(facade);
+
+            LuaStateFacade again = pool.borrow().getOrThrow();
+            assertSame(facade, again);
+            again.evalString("assert(string.x == nil)\n" +
+                    "assert(config.inner.name == 'template')\n" +
+                    "assert(getmetatable(config) == nil)\n" +
+                    "assert(package.loaded.leaked == nil)\n" +
+                    "assert(debug.getregistry().leaked == nil)").justThrow();
+            pool.giveBack(again);
+        }
+    }
+
+    @Test
+    public void closeWakesWaitersTest() throws Exception {
+        LuaStatePool pool = new LuaStatePool(1, LuaStateFacade::openLibs);
+        LuaStateFacade facade = pool.borrow().getOrThrow();
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> pool.borrow().isError());
+        Thread.sleep(50);
+        assertFalse(waiter.isDone());
+        pool.close();
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        assertTrue(pool.borrow().isError());
+        pool.giveBack(facade);
+        assertTrue(facade.isClosed());
+        assertEquals(0, pool.size());
+    }
+}
@@ -23,9 +23,30 @@
 
 package org.eu.smileyik.luajava;
 
+import org.eu.smileyik.luajava.type.ILuaCallable;
 import org.eu.smileyik.luajava.type.ILuaFieldGettable;
+import org.eu.smileyik.luajava.type.LuaNumber;
+import org.eu.smileyik.luajava.type.LuaString;
+import org.eu.smileyik.luajava.type.LuaType;
+import org.eu.smileyik.luajava.util.VirtualThreadHelper;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 public class LuajavaTest {
 
     static {
@@ -68,4 +89,752 @@ public class LuajavaTest {
         Thread.sleep(2000); // 等待清理完成
         facade.close();
     }
+
+    @Test
+    public void bulkPcallTest() throws Throwable {
+        String lua = "function echo(...) return ... end";
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.evalString(lua).justThrow();
+        Object obj = new Object();
+        int[] ints = new int[] {1, 2, 3};
+        Object[] args = new Object[] {
+                null, true, false, 1, 2.5f, "hello", "你好", "abc".getBytes(), obj, ints
+        };
+        LuaObject echo = facade.getLuaObject("echo").getOrSneakyThrow();
+        int top = facade.getTop();
+        Object[] ret = ((ILuaCallable) echo).call(args.length, args).getOrSneakyThrow();
+        assertEquals(top, facade.getTop());
+        assertEquals(args.length, ret.length);
+        assertNull(ret[0]);
+        assertEquals(true, ret[1]);
+        assertEquals(false, ret[2]);
+        assertEquals(1d, ret[3]);
+        assertEquals(2.5d, ret[4]);
+        assertEquals("hello", ret[5]);
+        assertEquals("你好", ret[6]);
+        assertEquals("abc", ret[7]);
+        assertSame(obj, ret[8]);
+        assertSame(ints, ret[9]);
+        facade.close();
+    }
+
+    @Test
+    public void closedPeerTest() {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        LuaState luaState = facade.getLuaState();
+        long peer = luaState.getCPtrPeer();
+        assertNotEquals(0, peer);
+        luaState.pushNumber(1);
+        assertEquals(1, luaState.getTop());
+        facade.close();
+        assertTrue(luaState.isClosed());
+        assertEquals(0, luaState.getCPtrPeer());
+        assertThrows(IllegalStateException.class, luaState::getTop);
+        assertThrows(IllegalStateException.class, () -> luaState.pushNumber(1));
+    }
+
+    @Test
+    public void utf8StringTest() {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        LuaState luaState = facade.getLuaState();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100000; i++) large.append(i % 10);
+        String[] strings = new String[] {
+                "", "hello", "a\0b", "你好", "emoji 😀", large.toString(), large + "你好"
+        };
+        for (String str : strings) {
+            luaState.pushString(str);
+            assertEquals(str.getBytes(java.nio.charset.StandardCharsets.UTF_8).length, luaState.strLen(-1));
+            assertEquals(str, luaState.toString(-1));
+            assertEquals(str, luaState.toCharSequence(-1).toString());
+            luaState.pop(1);
+        }
+        luaState.pushString("abc");
+        CharSequence sequence = luaState.toCharSequence(-1);
+        assertEquals(3, sequence.length());
+        assertEquals('b', sequence.charAt(1));
+        assertEquals("bc", sequence.subSequence(1, 3).toString());
+        luaState.pushNil();
+        assertNull(luaState.toString(-1));
+        facade.close();
+    }
+
+    @Test
+    public void sessionTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.evalString("a = {x = 1, y = 'hello'}").justThrow();
+        boolean[] locked = new boolean[1];
+        try (LuaSession session = facade.openSession()) {
+            int top = session.getTop();
+            session.getGlobal("a");
+            session.getField(-1, "x");
+            assertEquals(1, session.toNumber(-1));
+            session.pop(1);
+            session.pushNumber(2);
+            session.setField(-2, "x");
+            session.getField(-1, "y");
+            assertEquals("hello", session.toJavaObject(-1).getOrSneakyThrow());
+            session.setTop(top);
+
+            Thread thread = new Thread(() -> locked[0] = !facade.getLock().tryLock());
+            thread.start();
+            thread.join();
+            assertTrue(locked[0]);
+        }
+        Thread thread = new Thread(() -> {
+            locked[0] = !facade.getLock().tryLock();
+            if (!locked[0]) facade.getLock().unlock();
+        });
+        thread.start();
+        thread.join();
+        assertFalse(locked[0]);
+        facade.evalString("assert(a.x == 2)").justThrow();
+        facade.close();
+    }
+
+    @Test
+    public void tableSnapshotCacheTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.evalString("config = {name = 'a', size = 1, list = {10, 20}}; config.self = config").justThrow();
+        LuaTableSnapshotCache cache = new LuaTableSnapshotCache(facade).select("config", "missing");
+        assertNull(cache.get("config"));
+        assertEquals(1L, cache.refresh().getOrThrow());
+        assertEquals("a", cache.get("config", "name"));
+        assertEquals(20.0, cache.get("config", "list", 2));
+        assertNull(cache.get("missing"));
+
+        facade.evalString("config.size = 2").justThrow();
+        assertEquals(1.0, cache.get("config", "size"));
+        // reading the snapshot does not need the lock held by this thread.
+        AtomicReference<Object> size = new AtomicReference<>();
+        facade.lock();
+        try {
+            Thread thread = new Thread(() -> size.set(cache.get("config", "size")));
+            thread.start();
+            thread.join();
+        } finally {
+            facade.unlock();
+        }
+        assertEquals(1.0, size.get());
+        assertEquals(2L, cache.refresh().getOrThrow());
+        assertEquals(2.0, cache.get("config", "size"));
+        assertEquals(2L, cache.getVersion());
+        facade.close();
+    }
+
+    @Test
+    public void executorTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.evalString("count = 0").justThrow();
+        List<CompletableFuture<Double>> futures = new ArrayList<>();
+        try (LuaStateExecutor executor = facade.newExecutor()) {
+            Thread[] producers = new Thread[4];
+            for (int i = 0; i < producers.length; i++) {
+                producers[i] = new Thread(() -> {
+                    for (int j = 0; j < 100; j++) {
+                        CompletableFuture<Double> future = executor.submit(l -> {
+                            l.getGlobal("count");
+                            double count = l.toNumber(-1) + 1;
+                            l.pop(1);
+                            l.pushNumber(count);
+                            l.setGlobal("count");
+                            return count;
+                        });
+                        synchronized (futures) {
+                            futures.add(future);
+                        }
+                    }
+                });
+                producers[i].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            CompletableFuture<Boolean> nested = executor.submit(l -> executor.isOwnerThread() &&
+                    executor.submit(it -> it.getTop()).isDone());
+            assertTrue(nested.get());
+            CompletableFuture<Object> failed = executor.submit(l -> {
+                throw new LuaException("failed");
+            });
+            assertThrows(ExecutionException.class, failed::get);
+        }
+        for (CompletableFuture<Double> future : futures) {
+            future.get();
+        }
+        facade.evalString("assert(count == 400)").justThrow();
+        facade.close();
+    }
+
+    @Test
+    public void asyncFunctionTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.registerAsyncFunction("fetch", args -> CompletableFuture.supplyAsync(() -> "got " + args[0])).justThrow();
+        facade.registerAsyncFunction("fail", args -> {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("boom"));
+            return future;
+        }).justThrow();
+        facade.evalString("function job(x) return fetch(x) .. '!' end\n" +
+                "function badJob() return fail() end").justThrow();
+
+        LuaStateFacade thread = facade.newThread();
+        facade.lock();
+        try {
+            thread.getLuaState().getGlobal("job");
+            thread.getLuaState().pushString("a");
+        } finally {
+            facade.unlock();
+        }
+        assertEquals(1, facade.resumeAsync(thread, 1).get(5, TimeUnit.SECONDS));
+        assertEquals("got a!", facade.lock(l -> {
+            return thread.getLuaState().toString(-1);
+        }));
+        assertEquals(1, facade.getMetrics().getAsyncSuspensions());
+
+        LuaStateFacade badThread = facade.newThread();
+        facade.lock(l -> {
+            badThread.getLuaState().getGlobal("badJob");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> facade.resumeAsync(badThread, 0).get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause().getMessage().contains("boom"));
+        // callbacks on platform threads are never pinned.
+        assertEquals(0, facade.getMetrics().getPinnedCallbacks());
+        facade.close();
+    }
+
+    @Test
+    public void virtualThreadPinningTest() throws Exception {
+        // virtual threads are added in JDK 21.
+        if (!VirtualThreadHelper.isSupported()) return;
+        try (VirtualThreadPinningMonitor monitor = VirtualThreadPinningMonitor.start(Duration.ZERO).getOrThrow();
+             LuaStateFacade facade = LuaStateFactory.newLuaState()) {
+            facade.openLibs();
+            new JavaFunction(facade) {
+                @Override
+                public int execute() throws LuaException {
+                    // blocking inside the JNI frame of a lua call pins the virtual thread.
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        throw new LuaException(e);
+                    }
+                    return 0;
+                }
+            }.register("nap");
+            LuaStateMetrics metrics = facade.getMetrics();
+            long callbacks = metrics.getPinnedCallbacks();
+
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Runnable task = () -> {
+                try {
+                    facade.evalString("nap()").justThrow();
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            };
+            Thread thread = (Thread) Thread.class.getMethod("startVirtualThread", Runnable.class)
+                    .invoke(null, task);
+            thread.join();
+            assertNull(error.get());
+            assertEquals(callbacks + 1, metrics.getPinnedCallbacks());
+            assertTrue(metrics.getPinnedCallbackNanos() > 0);
+
+            // JFR delivers events when the stream is flushed, about once per second.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (metrics.getPinnedEvents() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            assertTrue(metrics.getPinnedEvents() > 0);
+            assertTrue(metrics.getPinnedEventNanos() > 0);
+        }
+    }
+
+    @Test
+    public void asyncCompletedLoopTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.registerAsyncFunction("now", args -> CompletableFuture.completedFuture(args[0])).justThrow();
+        facade.registerAsyncFunction("nothing", args -> null).justThrow();
+        facade.evalString("function loop(n)\n" +
+                "    local sum = 0\n" +
+                "    for i = 1, n do sum = sum + now(1); nothing() end\n" +
+                "    return sum\n" +
+                "end").justThrow();
+
+        LuaStateFacade thread = facade.newThread();
+        facade.lock(l -> {
+            thread.getLuaState().getGlobal("loop");
+            thread.getLuaState().pushNumber(100000);
+        });
+        // completed futures are resumed in a loop, not by recursion.
+        assertEquals(1, facade.resumeAsync(thread, 1).get(30, TimeUnit.SECONDS));
+        assertEquals(100000.0, facade.lock(l -> {
+            return thread.getLuaState().toNumber(-1);
+        }));
+        facade.close();
+    }
+
+    @Test
+    public void coroutineSchedulerTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        ScheduledExecutorService io = Executors.newSingleThreadScheduledExecutor();
+        facade.registerAsyncFunction("delay", args -> {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            io.schedule(() -> future.complete(args[0]), 10, TimeUnit.MILLISECONDS);
+            return future;
+        }).justThrow();
+        facade.evalString("function job(x) local a = delay(x) local b = delay(a * 2) return a, b end").justThrow();
+        try (LuaCoroutineScheduler scheduler = new LuaCoroutineScheduler(facade)) {
+            List<CompletableFuture<Object[]>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(scheduler.spawn("job", i));
+            }
+            for (int i = 0; i < 100; i++) {
+                Object[] result = futures.get(i).get(5, TimeUnit.SECONDS);
+                assertEquals((double) i, result[0]);
+                assertEquals(i * 2.0, result[1]);
+            }
+            assertEquals(0, scheduler.getRunningCount());
+            assertThrows(ExecutionException.class, () -> scheduler.spawn("missing").get(5, TimeUnit.SECONDS));
+        } finally {
+            io.shutdown();
+        }
+        assertEquals(200, facade.getMetrics().getAsyncSuspensions());
+        facade.close();
+    }
+
+    @Test
+    public void coroutineSchedulerCloseTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.registerAsyncFunction("never", args -> new CompletableFuture<>()).justThrow();
+        facade.evalString("function stuck() return never() end\n" +
+                "function threads()\n" +
+                "    local n = 0\n" +
+                "    for _, v in pairs(debug.getregistry()) do\n" +
+                "        if type(v) == 'thread' then n = n + 1 end\n" +
+                "    end\n" +
+                "    return n\n" +
+                "end\n" +
+                "before = threads()").justThrow();
+        CompletableFuture<Object[]> future;
+        try (LuaCoroutineScheduler scheduler = new LuaCoroutineScheduler(facade)) {
+            future = scheduler.spawn("stuck");
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (facade.getMetrics().getAsyncSuspensions() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, facade.getMetrics().getAsyncSuspensions());
+            facade.evalString("assert(threads() == before + 1)").justThrow();
+        }
+        assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        // the suspended coroutine is released with the scheduler.
+        facade.evalString("assert(threads() == before)").justThrow();
+        facade.close();
+    }
+
+    @Test
+    public void coroutineSchedulerCompletedLoopTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        AtomicBoolean lockFree = new AtomicBoolean(true);
+        facade.registerAsyncFunction("now", args -> CompletableFuture.completedFuture(args[0])).justThrow();
+        facade.registerAsyncFunction("probe", args -> {
+            // state lock must not be held when async function called.
+            Future<?> future = other.submit(() -> {
+                facade.lock(l -> {
+                    return null;
+                });
+            });
+            try {
+                future.get(5, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                lockFree.set(false);
+            }
+            return null;
+        }).justThrow();
+        facade.evalString("function loop(n)\n" +
+                "    probe()\n" +
+                "    local sum = 0\n" +
+                "    for i = 1, n do sum = sum + now(1) end\n" +
+                "    return sum\n" +
+                "end").justThrow();
+        try (LuaCoroutineScheduler scheduler = new LuaCoroutineScheduler(facade)) {
+            Object[] result = scheduler.spawn("loop", 100000).get(30, TimeUnit.SECONDS);
+            assertEquals(100000.0, result[0]);
+        } finally {
+            other.shutdown();
+        }
+        assertTrue(lockFree.get());
+        facade.close();
+    }
+
+    @Test
+    public void luaThreadTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.evalString("function add(a, b) return a + b end\n" +
+                "function wait() coroutine.yield(1) return 2 end").justThrow();
+        int top = facade.getTop();
+
+        LuaThread thread = facade.newLuaThread();
+        assertEquals(facade.getStateId(), thread.getStateId());
+        assertSame(facade.getLock(), thread.getLock());
+        assertEquals(top, facade.getTop());
+        try (LuaSession session = thread.openSession()) {
+            session.getGlobal("add");
+            session.pushNumber(1);
+            session.pushNumber(2);
+        }
+        assertEquals(0, thread.resume(2));
+        assertEquals(3, thread.toNumber(-1));
+        thread.close();
+
+        LuaThread reused = facade.newLuaThread();
+        assertSame(thread, reused);
+        assertEquals(0, reused.getTop());
+        try (LuaSession session = reused.openSession()) {
+            session.getGlobal("wait");
+        }
+        assertEquals(LuaState.LUA_YIELD, reused.resume(0));
+        reused.close();
+        assertTrue(reused.isClosed());
+        assertNotSame(reused, facade.newLuaThread());
+        facade.close();
+    }
+
+    @Test
+    public void luaThreadObjectTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.evalString("function make() return {a = 1} end").justThrow();
+        LuaThread thread = facade.newLuaThread();
+        try (LuaSession session = thread.openSession()) {
+            session.getGlobal("make");
+        }
+        assertEquals(0, thread.resume(0));
+        LuaObject table = thread.getLuaObject(-1).getOrThrow();
+        // objects from a coroutine are bound to parent and outlive the coroutine.
+        assertSame(facade, table.getLuaState());
+        facade.lock(l -> {
+            thread.release();
+        });
+        assertTrue(thread.isClosed());
+        assertFalse(table.isClosed());
+        assertTrue(table.isTable());
+        assertEquals(1.0, facade.getLuaObject(table, "a").getOrThrow().getNumber());
+        table.close();
+        facade.close();
+    }
+
+    @Test
+    public void luaThreadJavaCallTest() throws Exception {
+        try (LuaStateFacade facade = LuaStateFactory.newLuaState()) {
+            facade.openLibs();
+            StringBuilder builder = new StringBuilder();
+            facade.setGlobal("builder", builder).justThrow();
+            new JavaFunction(facade) {
+                @Override
+                public int execute() throws LuaException {
+                    // the function itself is the first parameter.
+                    L.getLuaState().pushNumber(getParam(2).getNumber() + getParam(3).getNumber());
+                    return 1;
+                }
+            }.register("add");
+            facade.evalString("function run(a, b)\n" +
+                    "  builder:append('r')\n" +
+                    "  local sum = add(a, b)\n" +
+                    "  coroutine.yield(sum)\n" +
+                    "  builder:append('s')\n" +
+                    "  return add(sum, 10)\n" +
+                    "end\n" +
+                    "local co = coroutine.wrap(function() builder:append('w') return add(1, 1) end)\n" +
+                    "assert(co() == 2)").justThrow();
+
+            LuaThread thread = facade.newLuaThread();
+            try (LuaSession session = thread.openSession()) {
+                session.getGlobal("run");
+                session.pushNumber(1);
+                session.pushNumber(2);
+            }
+            assertEquals(LuaState.LUA_YIELD, thread.resume(2));
+            assertEquals(3, thread.toNumber(-1));
+            thread.lock(l -> {
+                l.setTop(0);
+            });
+            assertEquals(0, thread.resume(0));
+            assertEquals(13, thread.toNumber(-1));
+            assertEquals("wrs", builder.toString());
+            thread.close();
+        }
+    }
+
+    @Test
+    public void refQueueTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        int[] refs = new int[300];
+        facade.lock(l -> {
+            for (int i = 0; i < refs.length; i++) {
+                l.pushNumber(i);
+                refs[i] = l.Lref(LuaState.LUA_REGISTRYINDEX);
+            }
+        });
+        LuaRefQueue queue = facade.getRefQueue();
+        queue.add(refs[0]);
+        queue.add(refs[1]);
+        assertTrue(queue.hasPending());
+        // released when the lock is taken.
+        facade.lock(l -> {
+            assertFalse(queue.hasPending());
+            l.pushNumber(-1);
+            int ref = l.Lref(LuaState.LUA_REGISTRYINDEX);
+            assertTrue(ref == refs[0] || ref == refs[1]);
+        });
+
+        // the thread adding too many refs releases them if the lock is free.
+        for (int i = 2; i < refs.length; i++) {
+            queue.add(refs[i]);
+        }
+        assertTrue(queue.hasPending());
+        assertTrue(queue.tryFlush());
+        assertFalse(queue.hasPending());
+        facade.close();
+    }
+
+    @Test
+    public void arenaTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.evalString("a = {1, 2}; b = {'str'}").justThrow();
+        LuaObject outside = facade.getLuaObject("a").getOrThrow();
+        LuaObject escaped;
+        try (LuaArena arena = facade.openArena()) {
+            LuaObject a = facade.getLuaObject("a").getOrThrow();
+            escaped = a;
+            LuaObject b = facade.getLuaObject("b").getOrThrow();
+            try (LuaArena inner = facade.openArena()) {
+                facade.getLuaObject("b").getOrThrow();
+                assertEquals(1, inner.size());
+                assertThrows(IllegalStateException.class, arena::close);
+            }
+            assertEquals(2, arena.size());
+            assertTrue(a.isTable());
+            // closed objects are skipped when arena closed.
+            b.close();
+            assertTrue(b.isClosed());
+        }
+        // the reference of escaped object is released, it must not alias the value reusing it.
+        assertTrue(escaped.isClosed());
+        assertFalse(escaped.isTable());
+        LuaObject reuse = facade.getLuaObject("b").getOrThrow();
+        facade.setGlobal("escaped", escaped).justThrow();
+        facade.evalString("assert(escaped == nil)").justThrow();
+        reuse.close();
+        assertTrue(outside.isTable());
+        outside.close();
+        facade.close();
+    }
+
+    @Test
+    public void valueTypeTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.evalString("n = 12.5; s = 'a\\0b'; b = true; t = {}").justThrow();
+        try (LuaArena arena = facade.openArena()) {
+            LuaObject n = facade.getLuaObject("n").getOrThrow();
+            LuaObject s = facade.getLuaObject("s").getOrThrow();
+            LuaObject b = facade.getLuaObject("b").getOrThrow();
+            // scalars are detached values, only the table is anchored.
+            facade.getLuaObject("t").getOrThrow();
+            assertEquals(1, arena.size());
+            assertEquals(12.5, n.getNumber());
+            assertEquals("a\0b", s.getString());
+            assertTrue(b.getBoolean());
+            facade.evalString("n = 0; s = ''").justThrow();
+            assertEquals(12.5, n.getNumber());
+            assertEquals(3, ((LuaString) s).getBytes().length);
+
+            // detached values can be pushed back.
+            facade.setGlobal("copy", s).justThrow();
+            assertEquals("a\0b", facade.getLuaObject("copy").getOrThrow().getString());
+            facade.setGlobal("num", n).justThrow();
+            facade.evalString("assert(num == 12.5)").justThrow();
+        }
+        facade.close();
+    }
+
+    @Test
+    public void typeCacheTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.evalString("t = {}; co = coroutine.create(function() end)").justThrow();
+        LuaObject a = facade.getLuaObject("t").getOrThrow();
+        LuaObject b = facade.getLuaObject("t").getOrThrow();
+        LuaObject co = facade.getLuaObject("co").getOrThrow();
+        assertTrue(a.isTable());
+        assertEquals(LuaType.THREAD, co.type());
+        assertFalse(co.isJavaObject());
+        assertNotEquals(0, a.getLuaPointer());
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, co);
+
+        // type and pointer are kept even if global changed.
+        facade.evalString("t = 1").justThrow();
+        assertTrue(a.isTable());
+        assertEquals(a.getLuaPointer(), b.getLuaPointer());
+        a.close();
+        b.close();
+        co.close();
+        facade.close();
+    }
+
+    @Test
+    public void forkTest() throws Exception {
+        String lua = "local Counter = {}\n" +
+                "Counter.__index = Counter\n" +
+                "function Counter.new() return setmetatable({n = 0}, Counter) end\n" +
+                "function Counter:inc() self.n = self.n + 1 return self.n end\n" +
+                "counter = Counter.new()\n" +
+                "local hidden = 'a\\0b'\n" +
+                "function getHidden() return hidden end\n" +
+                "function string.shout(s) return s:upper() .. '!' end\n" +
+                "package.loaded['mymod'] = {value = 42}\n" +
+                "config = {nested = {name = 'golden'}}";
+        LuaStateFacade golden = LuaStateFactory.newLuaState();
+        golden.openLibs();
+        golden.evalString(lua).justThrow();
+        Object obj = new Object();
+        golden.setGlobal("obj", obj).justThrow();
+
+        LuaStateFacade fork = golden.fork().getOrThrow();
+        assertNotEquals(golden.getStateId(), fork.getStateId());
+        fork.evalString("assert(counter:inc() == 1)\n" +
+                "assert(getHidden() == 'a\\0b')\n" +
+                "assert(('hi'):shout() == 'HI!')\n" +
+                "assert(require('mymod').value == 42)\n" +
+                "assert(config.nested.name == 'golden')\n" +
+                "config.nested.name = 'fork'").justThrow();
+        assertSame(obj, fork.getGlobal("obj").getOrThrow());
+        golden.evalString("assert(counter.n == 0)\n" +
+                "assert(config.nested.name == 'golden')").justThrow();
+        fork.close();
+        golden.close();
+    }
+
+    @Test
+    public void stateIdReuseTest() throws Exception {
+        LuaStateFacade first = LuaStateFactory.newLuaState();
+        int id = first.getStateId();
+        first.close();
+        assertNull(LuaStateFactory.getExistingState(id));
+
+        try (LuaStateFacade second = LuaStateFactory.newLuaState()) {
+            assertEquals(id, second.getStateId());
+            assertSame(second, LuaStateFactory.getExistingState(id));
+            second.openLibs();
+            second.setGlobal("obj", new StringBuilder()).justThrow();
+            second.evalString("obj:append('reused')").justThrow();
+            assertEquals("reused", second.getGlobal("obj").getOrThrow().toString());
+        }
+    }
+
+    @Test
+    public void doubleCloseTest() throws Exception {
+        LuaStateFacade first = LuaStateFactory.newLuaState();
+        int id = first.getStateId();
+        first.close();
+        try (LuaStateFacade second = LuaStateFactory.newLuaState()) {
+            assertEquals(id, second.getStateId());
+            first.close();
+            assertSame(second, LuaStateFactory.getExistingState(id));
+            try (LuaStateFacade third = LuaStateFactory.newLuaState()) {
+                assertNotEquals(id, third.getStateId());
+            }
+        }
+    }
+
+    @Test
+    public void copyValueKeepsMetatableTest() throws Exception {
+        try (LuaStateFacade src = LuaStateFactory.newLuaState();
+             LuaStateFacade dest = LuaStateFactory.newLuaState()) {
+            src.openLibs();
+            dest.openLibs();
+            src.evalString("obj = setmetatable({n = 1}, {__index = function() return 'meta' end})").justThrow();
+            src.lock(srcL -> {
+                dest.lock(destL -> {
+                    srcL.getGlobal("obj");
+                    assertTrue(srcL.copyValue(-1, destL));
+                    destL.setGlobal("obj");
+                    srcL.pop(1);
+                });
+            });
+            // plain copy does not carry metatables, only fork does.
+            dest.evalString("assert(obj.n == 1)\n" +
+                    "assert(getmetatable(obj) == nil)").justThrow();
+        }
+    }
+
+    public static class BorrowHolder {
+        public ILuaCallable kept;
+
+        public Object keep(ILuaCallable callback, String tag) {
+            kept = callback;
+            // lua calls java again before the parameter is used.
+            callback.call(tag).getOrSneakyThrow();
+            return callback.call(tag).getOrSneakyThrow();
+        }
+
+        public String echo(Object value, String tag) {
+            return tag + value;
+        }
+    }
+
+    @Test
+    public void borrowAcrossReentryTest() throws Exception {
+        try (LuaStateFacade facade = LuaStateFactory.newLuaState()) {
+            facade.openLibs();
+            BorrowHolder holder = new BorrowHolder();
+            facade.setGlobal("holder", holder).justThrow();
+            facade.evalString("function callback(tag)\n" +
+                    "    return holder:echo({}, tag)\n" +
+                    "end\n" +
+                    "result = holder:keep(callback, 'x')").justThrow();
+            facade.evalString("assert(string.sub(result, 1, 1) == 'x')").justThrow();
+            assertNotNull(holder.kept);
+            assertEquals(LuaType.FUNCTION, ((LuaObject) holder.kept).type());
+            Object ret = holder.kept.call("y").getOrThrow();
+            assertTrue(String.valueOf(ret).startsWith("y"));
+        }
+    }
+
+    @Test
+    public void integerNumberTest() throws Exception {
+        try (LuaStateFacade facade = LuaStateFactory.newLuaState()) {
+            facade.openLibs();
+            facade.evalString("i = 3; f = 3.5; big = math.maxinteger").justThrow();
+            LuaNumber i = (LuaNumber) facade.getLuaObject("i").getOrThrow();
+            LuaNumber f = (LuaNumber) facade.getLuaObject("f").getOrThrow();
+            assertFalse(f.isInteger());
+            facade.setGlobal("i2", i).justThrow();
+            facade.setGlobal("f2", f).justThrow();
+            // lua 5.3+ keeps the integer subtype.
+            facade.evalString("assert(i2 == 3 and f2 == 3.5)\n" +
+                    "assert(math.type == nil or math.type(i2) == 'integer')\n" +
+                    "assert(math.type == nil or math.type(f2) == 'float')").justThrow();
+            if (i.isInteger()) {
+                LuaNumber big = (LuaNumber) facade.getLuaObject("big").getOrThrow();
+                assertEquals(Long.MAX_VALUE, big.getLong());
+                facade.setGlobal("big2", big).justThrow();
+                facade.evalString("assert(big2 == math.maxinteger)").justThrow();
+            }
+        }
+    }
 }
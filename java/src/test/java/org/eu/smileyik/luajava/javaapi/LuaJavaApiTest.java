@@ -25,8 +25,10 @@ package org.eu.smileyik.luajava.javaapi;
 
 import org.eu.smileyik.luajava.LoadLibrary;
 import org.eu.smileyik.luajava.LuaException;
+import org.eu.smileyik.luajava.LuaObject;
 import org.eu.smileyik.luajava.LuaStateFacade;
 import org.eu.smileyik.luajava.LuaStateFactory;
+import org.eu.smileyik.luajava.type.LuaTable;
 import org.junit.jupiter.api.Test;
 
 import java.util.*;
@@ -105,6 +107,90 @@ public class LuaJavaApiTest {
         facade.evalString(lua).justThrow();
     }
 
+    public static class Counter {
+        public int count;
+
+        public int inc(int step) {
+            count += step;
+            return count;
+        }
+
+        public static int twice(int value) {
+            return value * 2;
+        }
+    }
+
+    @Test
+    public void cachedMethodTest() throws Exception {
+        String lua = "local sum = 0\n" +
+                "for i = 1, 100 do sum = sum + a:inc(1) + b:inc(2) end\n" +
+                "assert(a.count == 100 and b.count == 200)\n" +
+                "assert(a.inc == a.inc and a.inc == b.inc)\n" +
+                "local inc = a.inc\n" +
+                "assert(inc(b, 0) == 200)\n" +
+                "assert(not pcall(inc))\n" +
+                "assert(clazz:twice(a.count) == 200)\n" +
+                "assert(clazz:twice(b.count) == 400)\n" +
+                "return sum";
+        Counter a = new Counter();
+        Counter b = new Counter();
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.setGlobal("a", a).justThrow();
+        facade.setGlobal("b", b).justThrow();
+        facade.setGlobal("clazz", Counter.class).justThrow();
+        facade.evalString(lua).justThrow();
+        assertEquals(100, a.count);
+        assertEquals(200, b.count);
+        facade.close();
+    }
+
+    @Test
+    public void internedNameTest() throws Exception {
+        String lua = "for i = 1, 2000 do\n" +
+                "    local name = 'co' .. 'unt'\n" +
+                "    a[name] = a[name] + 1\n" +
+                "    a.count = a.count + 1\n" +
+                "end";
+        for (int i = 0; i < 3; i++) {
+            Counter a = new Counter();
+            LuaStateFacade facade = LuaStateFactory.newLuaState();
+            facade.openLibs();
+            facade.setGlobal("a", a).justThrow();
+            facade.evalString(lua).justThrow();
+            assertEquals(4000, a.count);
+            facade.close();
+        }
+    }
+
+    public static class ParamsHolder {
+        public Object[] params;
+
+        public void accept(Object a, Object b, Object c, Object d, Object e, Object f, Object g) {
+            params = new Object[] {a, b, c, d, e, f, g};
+        }
+    }
+
+    @Test
+    public void bulkParamsTest() throws Exception {
+        ParamsHolder holder = new ParamsHolder();
+        Object obj = new Object();
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        facade.setGlobal("holder", holder).justThrow();
+        facade.setGlobal("obj", obj).justThrow();
+        facade.evalString("holder:accept(1.5, '你好, world', true, nil, obj, {1, 2}, false)").justThrow();
+        Object[] params = holder.params;
+        assertEquals(1.5d, params[0]);
+        assertEquals("你好, world", params[1]);
+        assertEquals(true, params[2]);
+        assertNull(params[3]);
+        assertSame(obj, params[4]);
+        assertInstanceOf(LuaObject.class, params[5]);
+        assertEquals(false, params[6]);
+        facade.close();
+    }
+
     public static void main(String[] args) throws Exception {
         LuaStateFacade facade = LuaStateFactory.newLuaState();
         facade.openLibs();
@@ -179,6 +265,23 @@ public class LuaJavaApiTest {
         facade.evalString("nest:print('123' .. nest:getName() .. '456')").justThrow();
         facade.close();
     }
+
+    @Test
+    public void borrowedParamTest() throws Exception {
+        LuaStateFacade facade = LuaStateFactory.newLuaState();
+        facade.openLibs();
+        Keeper keeper = new Keeper();
+        facade.setGlobal("keeper", keeper).justThrow();
+        facade.evalString("keeper:keep({a = 1, b = 2}); " +
+                "assert(keeper:sum({1, 2, 3}) == 6); " +
+                "assert(keeper:sum({4, keeper:sum({5, 6})}) == 15); " +
+                "collectgarbage()").justThrow();
+        assertInstanceOf(LuaTable.class, keeper.kept);
+        Map<Object, Object> map = ((LuaTable) keeper.kept).asDeepMap().getOrThrow();
+        assertEquals(2, map.size());
+        keeper.kept.close();
+        facade.close();
+    }
 }
 
 class A {
@@ -316,3 +419,15 @@ class Nest {
         System.out.println(str);
     }
 }
+
+class Keeper {
+    LuaObject kept;
+
+    public void keep(LuaObject obj) {
+        kept = obj;
+    }
+
+    public int sum(int[] array) {
+        return Arrays.stream(array).sum();
+    }
+}
@@ -24,6 +24,7 @@
 package org.eu.smileyik.luajava.type;
 
 import org.eu.smileyik.luajava.*;
+import org.eu.smileyik.luajava.reflect.ConvertablePriority;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
@@ -60,6 +61,81 @@ class LuaArrayTest extends BaseTest {
         facade.close();
     }
 
+    @Test
+    public void detectTest() throws Throwable {
+        String lua = "big = {} for i = 1, 100000 do big[i] = i end\n" +
+                "holes = {1, nil, 3}\n" +
+                "mixed = {1, 2, 3, a = 4}\n" +
+                "zero = {[0] = 1, 2}\n" +
+                "empty = {}\n" +
+                "hashed = {[1] = 1, [2] = 2, [3] = 3, a = 4}\n" +
+                "sparse = {1, 2, 3} sparse.x = 0 sparse[100] = 100 sparse[4] = 4";
+        LuaStateFacade facade = newLuaState();
+        facade.evalString(lua).justThrow();
+        LuaObject big = facade.getLuaObject("big").getOrThrow();
+        assertInstanceOf(LuaArray.class, big);
+        // array-ness is not resolved until the first array-specific use.
+        assertEquals(-2, ((LuaArray) big).len);
+        assertEquals(100000, ((LuaArray) big).length());
+        assertEquals(3, ((LuaArray) facade.getLuaObject("holes").getOrThrow()).length());
+        assertTrue(((LuaArray) facade.getLuaObject("empty").getOrThrow()).isEmpty());
+        for (String name : new String[] {"mixed", "zero", "hashed", "sparse"}) {
+            LuaTable table = (LuaTable) facade.getLuaObject(name).getOrThrow();
+            assertFalse(table.isArray(), name);
+            assertEquals(ConvertablePriority.NOT_MATCH,
+                    ConvertablePriority.isConvertableType(Byte.MAX_VALUE, table, int[].class, null), name);
+            assertFalse(table.asMap().getOrThrow().isEmpty(), name);
+        }
+        LuaTable mixed = (LuaTable) facade.getLuaObject("mixed").getOrThrow();
+        assertTrue(((LuaArray) mixed).asList().isError());
+        mixed.put("b", 5).justThrow();
+        assertEquals(5.0, mixed.get("b").getOrThrow());
+        facade.close();
+    }
+
+    @Test
+    public void bulkCopyTest() throws Throwable {
+        String lua = "nums = {} for i = 1, 10000 do nums[i] = i + 0.5 end\n" +
+                "bools = {true, false, true}\n" +
+                "strs = {'a', '中文', 'c'}\n" +
+                "mixed = {1, '2', 3}\n" +
+                "huge = {1e20, -1e20, 0/0}";
+        LuaStateFacade facade = newLuaState();
+        facade.evalString(lua).justThrow();
+        LuaArray nums = (LuaArray) facade.getLuaObject("nums").getOrThrow();
+        int[] ints = nums.toIntArray().getOrThrow();
+        double[] doubles = nums.toDoubleArray().getOrThrow();
+        assertEquals(10000, ints.length);
+        assertEquals(10000, ints[9999]);
+        assertEquals(10000.5, doubles[9999]);
+        assertEquals(3, nums.toLongArray().getOrThrow()[2]);
+
+        LuaArray bools = (LuaArray) facade.getLuaObject("bools").getOrThrow();
+        assertArrayEquals(new boolean[] {true, false, true}, bools.toBooleanArray().getOrThrow());
+        LuaArray strs = (LuaArray) facade.getLuaObject("strs").getOrThrow();
+        assertArrayEquals(new char[] {'a', '中', 'c'}, strs.toCharArray().getOrThrow());
+
+        // same as java narrowing conversion.
+        LuaArray huge = (LuaArray) facade.getLuaObject("huge").getOrThrow();
+        assertArrayEquals(new int[] {Integer.MAX_VALUE, Integer.MIN_VALUE, 0}, huge.toIntArray().getOrThrow());
+        assertArrayEquals(new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 0}, huge.toLongArray().getOrThrow());
+
+        // lua 5.3+ integers are copied without going through double.
+        facade.evalString("bigs = math.type and {math.maxinteger, math.mininteger, 9007199254740993}").justThrow();
+        Object bigs = facade.getLuaObject("bigs").getOrThrow();
+        if (bigs instanceof LuaArray) {
+            assertArrayEquals(new long[] {Long.MAX_VALUE, Long.MIN_VALUE, 9007199254740993L},
+                    ((LuaArray) bigs).toLongArray().getOrThrow());
+            assertArrayEquals(new int[] {Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE},
+                    ((LuaArray) bigs).toIntArray().getOrThrow());
+        }
+
+        // not all numbers, falls back to element-wise conversion.
+        LuaArray mixed = (LuaArray) facade.getLuaObject("mixed").getOrThrow();
+        assertTrue(mixed.toIntArray().isError());
+        facade.close();
+    }
+
     @Test
     public void forEachTest() throws Throwable {
         String lua = "array = {1, 'a', 2, 'b', 3, function() print('c') end}\n" +
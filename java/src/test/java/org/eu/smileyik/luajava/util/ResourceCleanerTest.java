@@ -29,6 +29,10 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 class ResourceCleanerTest {
 
@@ -55,6 +59,20 @@ class ResourceCleanerTest {
         cleaner.close();
     }
 
+    @Test
+    public void failedTaskTest() throws Exception {
+        ResourceCleaner cleaner = new ResourceCleaner();
+        CompletableFuture<Throwable> failed = new CompletableFuture<>();
+        cleaner.setUncaughtExceptionHandler((thread, e) -> failed.complete(e));
+        RuntimeException error = new IllegalStateException("boom");
+        cleaner.addIdleTask(() -> {
+            throw error;
+        });
+        // idle tasks run at least once per second.
+        assertSame(error, failed.get(5, TimeUnit.SECONDS));
+        cleaner.close();
+    }
+
     public static class SomeCleaner implements Runnable {
 
 